@@ -0,0 +1,137 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+/**
+ * Times binding rows of the task list on the UI thread, where their status is worked out (see
+ * {@link TaskRow#build}), against stores of up to 100,000 tasks with chains of dependencies.
+ * <p>
+ * Each cold bind is of a row whose page isn't loaded, so it builds the whole page (and the
+ * neighboring page, if it prefetches it); each warm bind is of a row whose page is loaded. The
+ * cold binds must fit in a frame at every size. The app's own tasks are put back afterwards.
+ * Run with {@code gradle :app:connectedAndroidTest}; the timings are logged under
+ * "TaskBindBenchmark".
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskBindBenchmark
+{
+    private static final String TAG = "TaskBindBenchmark";
+    private static final int[] SIZES = {1000, 10000, 100000};
+    private static final int BINDS = 100;
+    private static final int CHAIN_LENGTH = 8;
+    private static final long FRAME_NANOS = 16_000_000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private String savedJson;
+
+    @Before
+    public void setUp()
+    {
+        savedJson = Tasks.getInstance().getTasksJson();
+    }
+
+    @After
+    public void tearDown()
+    {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> Tasks.getInstance().setTasksFromJson(savedJson));
+    }
+
+    /**
+     * Makes tasks in chains of {@link #CHAIN_LENGTH}, each depending on the one before it. A third
+     * of them repeat daily, and some of the others are done.
+     */
+    private static String generate(int size, long now)
+    {
+        Tasks generated = new Tasks();
+        Task previous = null;
+        for (int i = 0; i < size; i++)
+        {
+            Task task = new Task();
+            task.setDescription("Task " + i);
+            if (i % 3 == 0)
+            {
+                task.setRepeatType(Task.REPEAT_TYPE_DAILY);
+                task.setRepeatInterval(1);
+                task.setLastRun(now - (i % 4) * DAY / 2);
+            } else if (i % 5 == 0)
+                task.setDone(true);
+            if (previous != null && i % CHAIN_LENGTH != 0)
+                task.addDependency(previous.getId());
+            generated.putTask(task);
+            previous = task;
+        }
+        return generated.getTasksJson();
+    }
+
+    @Test
+    public void coldBindsFitInAFrame()
+    {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        for (int size : SIZES)
+        {
+            String json = generate(size, System.currentTimeMillis());
+            Metrics.Histogram cold = new Metrics.Histogram();
+            Metrics.Histogram warm = new Metrics.Histogram();
+            ViewTaskAdapter[] adapter = new ViewTaskAdapter[1];
+            RecyclerView.ViewHolder[] holder = new RecyclerView.ViewHolder[1];
+            instrumentation.runOnMainSync(() ->
+            {
+                Tasks.getInstance().setTasksFromJson(json);
+                adapter[0] = new ViewTaskAdapter(context, Tasks.getInstance(), Runnable::run, new ViewTaskAdapter.OnTaskInteractionListener()
+                {
+                    @Override
+                    public void onSelectionChanged(TaskSelection selection)
+                    {
+                    }
+
+                    @Override
+                    public void onTaskClicked(Task task)
+                    {
+                    }
+                });
+                holder[0] = adapter[0].onCreateViewHolder(new RecyclerView(context), adapter[0].getItemViewType(0));
+            });
+            int pages = (size + TaskPager.PAGE_SIZE - 1) / TaskPager.PAGE_SIZE;
+            for (int i = 0; i < BINDS; i++)
+            {
+                //a page far from the last, so it isn't loaded or prefetched
+                int position = (int) ((long) i * 7919 % pages) * TaskPager.PAGE_SIZE;
+                instrumentation.runOnMainSync(() -> cold.record(bind(adapter[0], holder[0], position)));
+                instrumentation.waitForIdleSync(); //let the page load finish
+                instrumentation.runOnMainSync(() -> warm.record(bind(adapter[0], holder[0], position)));
+            }
+            Log.i(TAG, String.format(Locale.US, "%d tasks: cold bind p50 %.3f ms, p99 %.3f ms; warm bind p50 %.3f ms, p99 %.3f ms",
+                    size, cold.getPercentile(0.5) / 1e6, cold.getPercentile(0.99) / 1e6,
+                    warm.getPercentile(0.5) / 1e6, warm.getPercentile(0.99) / 1e6));
+            assertTrue("Cold binds of " + size + " tasks take longer than a frame",
+                    cold.getPercentile(0.99) < FRAME_NANOS);
+        }
+    }
+
+    /**
+     * @return How long binding the row took, in nanoseconds.
+     */
+    private static long bind(ViewTaskAdapter adapter, RecyclerView.ViewHolder holder, int position)
+    {
+        long start = System.nanoTime();
+        adapter.onBindViewHolder(holder, position);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,178 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times {@link TaskSummaryRenderer#getSummary(Context, Task)} and the names it looks up in
+ * {@link Util}, before and after those were read into per-locale tables.
+ * <p>
+ * "Before" does each lookup as {@code Util} used to: it reads the string array from the resources
+ * on every call, and finds a name's constant with {@code Arrays.asList(...).indexOf}. "After"
+ * calls {@code Util}. Both give the same names, and the tables must be faster. The summaries are
+ * timed uncached, so every one is rendered and does its lookups, and cached, as the editor
+ * usually finds them. Run with {@code gradle :app:connectedAndroidTest}; the timings are logged
+ * under "TaskSummaryBenchmark".
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskSummaryBenchmark
+{
+    private static final String TAG = "TaskSummaryBenchmark";
+    private static final int TASKS = 1000;
+    private static final int ROUNDS = 20;
+    private static final int[] DAYS_OF_MONTH_SHORT_INT = new int[]{Task.ANY_DAY_OF_MONTH, Task.LAST_DAY_OF_MONTH, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28};
+
+    /**
+     * Makes weekly, monthly and yearly tasks on set days, so every summary looks names up.
+     */
+    private static List<Task> generate()
+    {
+        List<Task> tasks = new ArrayList<>(TASKS);
+        for (int i = 0; i < TASKS; i++)
+        {
+            Task task = new Task();
+            task.setDescription("Task " + i);
+            task.setWeight(Task.PRIORITY_MEDIUM);
+            task.setRepeatInterval(1 + i % 3);
+            task.setMinute(i % (24 * 60));
+            switch (i % 3)
+            {
+                case 0:
+                    task.setRepeatType(Task.REPEAT_TYPE_WEEKLY);
+                    task.setDayOfWeek(1 + i % 7);
+                    break;
+                case 1:
+                    task.setRepeatType(Task.REPEAT_TYPE_MONTHLY);
+                    task.setDayOfMonth(1 + i % 28);
+                    break;
+                default:
+                    task.setRepeatType(Task.REPEAT_TYPE_YEARLY);
+                    task.setDayOfMonth(1 + i % 28);
+                    task.setMonth(1 + i % 12);
+                    break;
+            }
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    @Test
+    public void lookupTablesSpeedUpSummaries()
+    {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<Task> tasks = generate();
+        TaskSummaryRenderer renderer = TaskSummaryRenderer.getInstance();
+        Metrics.Histogram before = new Metrics.Histogram();
+        Metrics.Histogram after = new Metrics.Histogram();
+        Metrics.Histogram uncached = new Metrics.Histogram();
+        Metrics.Histogram cached = new Metrics.Histogram();
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            for (Task task : tasks)
+            {
+                long start = System.nanoTime();
+                String old = lookUpBefore(context, task);
+                long middle = System.nanoTime();
+                String current = lookUpAfter(context, task);
+                long end = System.nanoTime();
+                assertEquals(old, current);
+                before.record(middle - start);
+                after.record(end - middle);
+
+                task.setSummary(null, null); //so it's rendered again
+                start = System.nanoTime();
+                renderer.getSummary(context, task);
+                middle = System.nanoTime();
+                renderer.getSummary(context, task);
+                end = System.nanoTime();
+                uncached.record(middle - start);
+                cached.record(end - middle);
+            }
+        }
+        Log.i(TAG, String.format(Locale.US, "lookups before p50 %.3f us, p99 %.3f us; after p50 %.3f us, p99 %.3f us",
+                before.getPercentile(0.5) / 1e3, before.getPercentile(0.99) / 1e3,
+                after.getPercentile(0.5) / 1e3, after.getPercentile(0.99) / 1e3));
+        Log.i(TAG, String.format(Locale.US, "getSummary uncached p50 %.3f us, p99 %.3f us; cached p50 %.3f us, p99 %.3f us",
+                uncached.getPercentile(0.5) / 1e3, uncached.getPercentile(0.99) / 1e3,
+                cached.getPercentile(0.5) / 1e3, cached.getPercentile(0.99) / 1e3));
+        assertTrue("The lookup tables are no faster than reading the resources",
+                after.getPercentile(0.5) < before.getPercentile(0.5));
+    }
+
+    /**
+     * Looks up the names a task's summary shows, and the constants the editor reads back from
+     * them, as {@link Util} did before it kept the tables.
+     */
+    private static String lookUpBefore(Context context, Task task)
+    {
+        Resources resources = context.getResources();
+        switch (task.getRepeatType())
+        {
+            case Task.REPEAT_TYPE_WEEKLY:
+            {
+                String name = resources.getStringArray(R.array.days_of_week_array)[task.getDayOfWeek()];
+                return name + Arrays.asList(resources.getStringArray(R.array.days_of_week_array)).indexOf(name);
+            }
+            case Task.REPEAT_TYPE_MONTHLY:
+                return dayOfMonthBefore(resources, task.getDayOfMonth());
+            default:
+            {
+                String month = resources.getStringArray(R.array.months_array)[task.getMonth() - 1];
+                return dayOfMonthBefore(resources, task.getDayOfMonth()) + month
+                        + (Arrays.asList(resources.getStringArray(R.array.months_array)).indexOf(month) + 1);
+            }
+        }
+    }
+
+    private static String dayOfMonthBefore(Resources resources, int dayOfMonth)
+    {
+        int index = -1;
+        for (int i = 0; i < DAYS_OF_MONTH_SHORT_INT.length; i++)
+        {
+            if (DAYS_OF_MONTH_SHORT_INT[i] == dayOfMonth)
+            {
+                index = i;
+                break;
+            }
+        }
+        return resources.getStringArray(R.array.days_of_month_short_array)[index];
+    }
+
+    /**
+     * Looks up the same names and constants through {@link Util}.
+     */
+    private static String lookUpAfter(Context context, Task task)
+    {
+        switch (task.getRepeatType())
+        {
+            case Task.REPEAT_TYPE_WEEKLY:
+            {
+                String name = Util.getDayOfWeekName(context, task.getDayOfWeek());
+                return name + Util.getDayOfWeekInt(context, name);
+            }
+            case Task.REPEAT_TYPE_MONTHLY:
+                return Util.getDayOfMonthNameShort(context, task.getDayOfMonth());
+            default:
+            {
+                String month = Util.getMonthName(context, task.getMonth());
+                return Util.getDayOfMonthNameShort(context, task.getDayOfMonth()) + month + Util.getMonthInt(context, month);
+            }
+        }
+    }
+}
@@ -21,10 +21,11 @@ import com.google.android.material.textfield.TextInputLayout;
 import com.google.android.material.timepicker.MaterialTimePicker;
 import com.google.android.material.timepicker.TimeFormat;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Activity for adding a new task or editing an existing one.
@@ -56,7 +57,7 @@ import java.util.UUID;
  *     <li>Displaying time pickers for setting repeat times.</li>
  *     <li>Validating user input before saving the task.</li>
  *     <li>Saving the new or updated task to the application's task list and persisting it.</li>
- *     <li>Managing task dependencies through a RecyclerView and a {@link DependencyTaskAdapter}.</li>
+ *     <li>Managing task dependencies through a RecyclerView and a {@link DependencyTaskAdapter}, filled in the background by a {@link DependencyCandidateLoader}.</li>
  * </ul>
  */
 public class AddEditTaskActivity extends ParentActivity
@@ -90,8 +91,10 @@ public class AddEditTaskActivity extends ParentActivity
     private ConstraintLayout dependencies;
 
     private DependencyTaskAdapter dependencyTaskAdapter;
-    private List<Task> allPossibleDependencyTasks;
+    private final ExecutorService dependencyExecutor = Executors.newSingleThreadExecutor();
+    private final DependencyCandidateLoader dependencyCandidateLoader = new DependencyCandidateLoader(dependencyExecutor);
     private boolean isEditMode = false;
+    private final Runnable showTask = this::showTask;
 
     /**
      * Initializes the activity, sets up UI elements, and handles task creation or editing.
@@ -174,6 +177,7 @@ public class AddEditTaskActivity extends ParentActivity
         buttonRepeatMinTime.setOnClickListener(v -> showMinTimePicker());
         buttonRepeatAnyTime.setOnClickListener(v -> setAnyTime());
         buttonSave.setOnClickListener(v -> saveTask());
+        buttonSave.setEnabled(false); //until the task is shown
 
         // Set up RecyclerView
         recyclerViewDependencies.setLayoutManager(new LinearLayoutManager(this));
@@ -186,8 +190,15 @@ public class AddEditTaskActivity extends ParentActivity
     protected void onResume()
     {
         super.onResume();
+        whenTasksLoaded(showTask);
+    }
 
-
+    /**
+     * Shows the task being edited (or a new one), and starts finding the tasks it can depend on.
+     * Run once the tasks are loaded.
+     */
+    private void showTask()
+    {
         // Check if in edit mode
         Intent intent = getIntent();
         if (intent != null && intent.hasExtra(EXTRA_TASK_ID_TO_EDIT))
@@ -206,11 +217,9 @@ public class AddEditTaskActivity extends ParentActivity
             isEditMode = false;
         }
 
-        //list dependencies
-        allPossibleDependencyTasks = getPossibleDependencyTasks();
-
-
-        dependencyTaskAdapter = new DependencyTaskAdapter(taskToAddEdit, allPossibleDependencyTasks, new DependencyTaskAdapter.OnDependencyTaskInteractionListener()
+        //list dependencies, as they're found in the background
+        dependencies.setVisibility(View.GONE);
+        dependencyTaskAdapter = new DependencyTaskAdapter(taskToAddEdit, null, new DependencyTaskAdapter.OnDependencyTaskInteractionListener()
         {
             @Override
             public void onDependencyTaskChecked(Task task, boolean isChecked)
@@ -222,10 +231,20 @@ public class AddEditTaskActivity extends ParentActivity
             }
         });
         recyclerViewDependencies.setAdapter(dependencyTaskAdapter);
-        if (allPossibleDependencyTasks.isEmpty())
-            dependencies.setVisibility(View.GONE);
-        else
-            dependencies.setVisibility(View.VISIBLE);
+        dependencyCandidateLoader.load(taskToAddEdit, new DependencyCandidateLoader.Callback()
+        {
+            @Override
+            public void onCandidates(List<Task> candidates)
+            {
+                dependencyTaskAdapter.addTasks(candidates);
+                dependencies.setVisibility(View.VISIBLE);
+            }
+
+            @Override
+            public void onComplete()
+            {
+            }
+        });
         // Set up priority and repeat unit dropdowns
         String[] priorities = new String[]{getApplicationContext().getString(R.string.Low), getApplicationContext().getString(R.string.Medium), getApplicationContext().getString(R.string.High), getApplicationContext().getString(R.string.Urgent)};
         ArrayAdapter<String> priorityAdapter = new ArrayAdapter<>(
@@ -277,6 +296,7 @@ public class AddEditTaskActivity extends ParentActivity
             taskToAddEdit = new Task();
             toolbarAddTask.setTitle(R.string.add_task);
         }
+        buttonSave.setEnabled(true);
     }
 
     /**
@@ -339,26 +359,18 @@ public class AddEditTaskActivity extends ParentActivity
     }
 
 
-    /**
-     * Retrieves a list of tasks that can be set as dependencies for the current task being added or edited.
-     * <p>
-     * This method filters out tasks that would create a circular dependency.
-     * If the activity is in edit mode (isEditMode is true), it also excludes the current task.
-     *
-     * @return A List of Task objects that can be dependencies for the current task.
-     */
-    private List<Task> getPossibleDependencyTasks()
+    @Override
+    protected void onPause()
     {
-        List<Task> tasks = Tasks.getInstance().getTasks();
-        List<Task> possibleDependencyTasks = new ArrayList<>();
-        for (Task task : tasks)
-        {
-            if (!isEditMode || !task.isDependentOn(taskToAddEdit))
-            {
-                possibleDependencyTasks.add(task);
-            }
-        }
-        return possibleDependencyTasks;
+        super.onPause();
+        dependencyCandidateLoader.cancel();
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        dependencyExecutor.shutdownNow();
     }
 
     /**
@@ -551,7 +563,7 @@ public class AddEditTaskActivity extends ParentActivity
                     }).show();
         } else
         {
-            summary = taskToAddEdit.getSummary(getApplicationContext());
+            summary = TaskSummaryRenderer.getInstance().getSummary(getApplicationContext(), taskToAddEdit);
             summary = getString(R.string.you_want_to) + summary;
             summary += getString(R.string.does_that_look_right);
             new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
@@ -586,9 +598,9 @@ public class AddEditTaskActivity extends ParentActivity
     private void save()
     {
         if (taskToAddEdit.getLastRun() == 0)
-            taskToAddEdit.setLastRun(Util.getDefaultLastRun(getApplicationContext(), taskToAddEdit));
+            taskToAddEdit.setLastRun(Recurrence.getDefaultLastRun(taskToAddEdit, System.currentTimeMillis()));
         Tasks.getInstance().putTask(taskToAddEdit);
-        Tasks.getInstance().save(this);
+        Util.saveTasks(this);
         finish();
     }
 
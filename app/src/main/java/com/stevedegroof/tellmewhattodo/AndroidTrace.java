@@ -0,0 +1,90 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.Process;
+import android.os.Trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Connects {@link PerfTrace} to Android: its sections are sent to the system trace using
+ * {@link Trace}, the recording setting is kept across restarts, and recordings are exported to
+ * the Downloads folder.
+ */
+public class AndroidTrace implements PerfTrace.Tracer
+{
+    private static final String PREF_RECORDING = "record_trace";
+    private static final String FILENAME = "TMWTD_trace_%s.json";
+
+    /**
+     * Sends the trace sections to the system trace, and turns recording on if it was left on.
+     * Called when the process starts.
+     */
+    public static void init(Context context)
+    {
+        PerfTrace.setTracer(new AndroidTrace());
+        PerfTrace.setRecording(Util.getPreferences(context)
+                .getBoolean(PREF_RECORDING, false));
+    }
+
+    /**
+     * Turns recording into the ring buffer on or off. The setting is kept across restarts.
+     * Turning recording off discards what was recorded.
+     */
+    public static void setRecording(Context context, boolean recording)
+    {
+        Util.getPreferences(context).edit()
+                .putBoolean(PREF_RECORDING, recording).apply();
+        PerfTrace.setRecording(recording);
+    }
+
+    /**
+     * Writes the recorded sections, oldest first, to a file in the device's public Downloads
+     * directory, in the Chrome trace event format.
+     * The filename will be in the format "TMWTD_trace_yyyyMMdd_HHmmss.json".
+     *
+     * @param context The context.
+     * @return The name of the file written.
+     * @throws IOException If the file can't be written.
+     */
+    public static String export(Context context) throws IOException
+    {
+        String timestamp = new SimpleDateFormat(context.getString(R.string.timestamp_format)).format(new Date());
+        String name = String.format(FILENAME, timestamp);
+        File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), name);
+        PerfTrace.export(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)), Process.myPid());
+        return name;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return Trace.isEnabled();
+    }
+
+    @Override
+    public void beginSection(String name)
+    {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection()
+    {
+        Trace.endSection();
+    }
+
+    @Override
+    public int getThreadId()
+    {
+        return Process.myTid();
+    }
+}
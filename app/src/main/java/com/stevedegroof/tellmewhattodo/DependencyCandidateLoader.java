@@ -0,0 +1,113 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Works out which tasks can be chosen as dependencies of the task being edited.
+ * <p>
+ * A task can't depend on itself, or on any task that already depends on it (directly or
+ * through other tasks), since that would make a cycle. Rather than asking every task whether it
+ * depends on the edited task (a walk of the graph per task), the dependency graph is reversed
+ * once, and a single breadth-first search from the edited task finds everything that depends on
+ * it (see {@link TaskTable.DependencyGraph#findDependents(int)}). Everything else is a candidate.
+ * </p>
+ * <p>
+ * The graph is taken from the task table on the UI thread, which costs nothing: it's the
+ * table's own arrays of handles, which the table copies before it next changes them. The
+ * reversing and the search run on the background executor. Candidates are delivered back on the
+ * UI thread in chunks, in the order of the table's rows, so the list can start filling in before
+ * the search is finished.
+ * </p>
+ */
+public class DependencyCandidateLoader
+{
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * Receives the candidates. Calls are made on the UI thread.
+     */
+    public interface Callback
+    {
+        /**
+         * Called with each chunk of candidates, in order.
+         */
+        void onCandidates(List<Task> candidates);
+
+        /**
+         * Called once all the candidates have been delivered.
+         */
+        void onComplete();
+    }
+
+    private final Executor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int generation = 0;
+
+    public DependencyCandidateLoader(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts finding the candidate dependencies of a task. Any load already in progress is cancelled.
+     *
+     * @param task     The task being edited, or a new task.
+     * @param callback Receives the candidates.
+     */
+    public void load(Task task, Callback callback)
+    {
+        final int loadGeneration = ++generation;
+        final Tasks tasks = Tasks.getInstance();
+        final TaskTable.DependencyGraph graph = tasks.getDependencyGraph();
+        final Task existing = tasks.getTask(task.getId());
+        final int start = existing == null ? -1 : existing.getRow(); //a new task has no row yet
+        executor.execute(() ->
+        {
+            long section = PerfTrace.begin(PerfTrace.DEPENDENCY_CANDIDATES);
+            BitSet excluded = graph.findDependents(start);
+            PerfTrace.end(PerfTrace.DEPENDENCY_CANDIDATES, section);
+            List<Task> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int row = 0; row < graph.getSize(); row++)
+            {
+                Task candidate = graph.getTask(row);
+                if (candidate == null || excluded.get(row)) continue;
+                chunk.add(candidate);
+                if (chunk.size() == CHUNK_SIZE)
+                {
+                    deliver(loadGeneration, callback, chunk);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty())
+                deliver(loadGeneration, callback, chunk);
+            handler.post(() ->
+            {
+                if (loadGeneration == generation)
+                    callback.onComplete();
+            });
+        });
+    }
+
+    /**
+     * Cancels any load in progress. No more calls will be made to its callback.
+     */
+    public void cancel()
+    {
+        generation++;
+    }
+
+    private void deliver(int loadGeneration, Callback callback, List<Task> chunk)
+    {
+        handler.post(() ->
+        {
+            if (loadGeneration == generation)
+                callback.onCandidates(chunk);
+        });
+    }
+}
@@ -10,15 +10,27 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.checkbox.MaterialCheckBox;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
  * Adapter for displaying a list of possible dependency tasks in a RecyclerView.
  * This adapter allows users to select or deselect tasks that the main task depends on.
+ * <p>
+ * Which rows are checked is worked out once, when the adapter is created, and kept in a
+ * bit set by position, so binding a row doesn't look up any tasks. The bit set is updated
+ * as rows are checked and unchecked.
+ * </p>
+ * <p>
+ * Tasks can be appended as they're found (see {@link #addTasks(List)}), so the list can be
+ * filled in by {@link DependencyCandidateLoader} a chunk at a time.
+ * </p>
  */
 public class DependencyTaskAdapter extends RecyclerView.Adapter<DependencyTaskAdapter.DependencyViewHolder> { // Specify ViewHolder type here
-    private final List<Task> allPossibleDependencyTasks;
+    private final List<Task> allPossibleDependencyTasks = new ArrayList<>();
     private final Task task;
+    private final BitSet checked = new BitSet(); // checked rows, by position
     private final OnDependencyTaskInteractionListener listener;
 
     public interface OnDependencyTaskInteractionListener {
@@ -26,9 +38,27 @@ public class DependencyTaskAdapter extends RecyclerView.Adapter<DependencyTaskAd
      }
 
     public DependencyTaskAdapter(Task task ,List<Task> allPossibleDependencyTasks , OnDependencyTaskInteractionListener listener) {
-        this.allPossibleDependencyTasks = allPossibleDependencyTasks;
         this.listener = listener;
-        this.task=task;
+        this.task = task;
+        if (allPossibleDependencyTasks != null) {
+            addTasks(allPossibleDependencyTasks);
+        }
+    }
+
+    /**
+     * Appends tasks to the list, working out which of them are checked.
+     *
+     * @param tasks The tasks to append.
+     */
+    public void addTasks(List<Task> tasks) {
+        int start = allPossibleDependencyTasks.size();
+        allPossibleDependencyTasks.addAll(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            if (task.hasDependency(tasks.get(i).getId())) {
+                checked.set(start + i);
+            }
+        }
+        notifyItemRangeInserted(start, tasks.size());
     }
 
     @NonNull
@@ -50,36 +80,31 @@ public class DependencyTaskAdapter extends RecyclerView.Adapter<DependencyTaskAd
      */
     @Override
     public void onBindViewHolder(@NonNull DependencyViewHolder holder, int position) {
-        if (allPossibleDependencyTasks != null) {
-            Task dependencyTask = allPossibleDependencyTasks.get(position);
-
-            // Set the task description
-            holder.taskDescriptionTextView.setText(dependencyTask.getDescription());
-            List<Task> dependencies = task.getDependencyTasks();
-            boolean checked = dependencies.contains(dependencyTask);
-            holder.taskSelectedCheckBox.setChecked(checked);
-
-            holder.taskSelectedCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
-                if (listener != null) {
-                    listener.onDependencyTaskChecked(dependencyTask, isChecked);
-                }
-                if (isChecked)
-                    task.addDependency(dependencyTask.getId());
-                else
-                    task.removeDependency(dependencyTask.getId());
-
-             });
-
-
-            holder.itemView.setOnClickListener(v -> {
-               holder.taskSelectedCheckBox.toggle(); // Example: clicking item toggles checkbox
-            });
-        }
+        long start = Metrics.start();
+        Task dependencyTask = allPossibleDependencyTasks.get(position);
+
+        // Set the task description
+        holder.taskDescriptionTextView.setText(dependencyTask.getDescription());
+        holder.taskSelectedCheckBox.setOnCheckedChangeListener(null); // don't notify for the previous row
+        holder.taskSelectedCheckBox.setChecked(checked.get(position));
+
+        holder.taskSelectedCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            checked.set(position, isChecked); // tasks are only ever appended, so positions are stable
+            if (listener != null) {
+                listener.onDependencyTaskChecked(dependencyTask, isChecked);
+            }
+         });
+
+
+        holder.itemView.setOnClickListener(v -> {
+           holder.taskSelectedCheckBox.toggle(); // Example: clicking item toggles checkbox
+        });
+        Metrics.stop(Metrics.BIND_DEPENDENCY, start);
     }
 
     @Override
     public int getItemCount() {
-        return allPossibleDependencyTasks != null ? allPossibleDependencyTasks.size() : 0;
+        return allPossibleDependencyTasks.size();
     }
 
 
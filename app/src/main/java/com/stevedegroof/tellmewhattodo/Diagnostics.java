@@ -0,0 +1,132 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.os.Environment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the diagnostics report shown in {@link SettingsActivity}: startup times, task counts,
+ * file sizes, the timings and counters recorded by {@link Metrics}, and cache hit rates.
+ * <p>
+ * The report is plain text, so it can be read on screen, or exported to a file in the
+ * Downloads folder and attached to a bug report.
+ * </p>
+ */
+public class Diagnostics
+{
+    private static final String FILENAME = "TMWTD_diagnostics_%s.txt";
+
+    /**
+     * Builds the report. Should be called on the UI thread, since it reads the tasks.
+     *
+     * @param context The context, for the app version and file sizes.
+     * @return The report.
+     */
+    public static String getReport(Context context)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Generated: ").append(new Date()).append('\n');
+        try
+        {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            sb.append("App: ").append(info.versionName).append(" (").append(info.getLongVersionCode()).append(")\n");
+        } catch (Exception e)
+        {
+        }
+        sb.append("Device: ").append(Build.MANUFACTURER).append(' ').append(Build.MODEL)
+                .append(", Android ").append(Build.VERSION.RELEASE).append('\n');
+
+        sb.append("\nStartup\n");
+        sb.append("  First frame: ").append(formatStartup(StartupTiming.getTimeToFirstFrame())).append('\n');
+        sb.append("  Tasks shown: ").append(formatStartup(StartupTiming.getTimeToData())).append('\n');
+
+        sb.append("\nTasks\n");
+        Tasks tasks = Tasks.getInstance();
+        long now = System.currentTimeMillis();
+        int repeating = 0, done = 0, ready = 0;
+        for (Task task : tasks.getTasks())
+        {
+            if (task.getRepeatType() != Task.REPEAT_TYPE_NONE) repeating++;
+            if (task.isDone()) done++;
+            else if (tasks.isAvailable(task, now)) ready++;
+        }
+        sb.append("  Total: ").append(tasks.getCount()).append('\n');
+        sb.append("  Repeating: ").append(repeating).append('\n');
+        sb.append("  Ready: ").append(ready).append('\n');
+        sb.append("  Done: ").append(done).append('\n');
+        TaskTable table = tasks.getTable();
+        sb.append("  Task table: ").append(table.getMemoryBytes()).append(" bytes");
+        if (table.getCount() > 0)
+            sb.append(" (").append(table.getMemoryBytes() / table.getCount()).append(" per task)");
+        sb.append('\n');
+        sb.append("  Tasks file: ").append(context.getFileStreamPath(Tasks.TASKS_FILE_NAME).length()).append(" bytes\n");
+        sb.append("  Snapshot file: ").append(context.getFileStreamPath(TaskSnapshot.FILE_NAME).length()).append(" bytes\n");
+
+        sb.append("\nTimings (ms)\n");
+        sb.append(String.format(Locale.US, "  %-28s %8s %8s %8s %8s\n", "", "count", "p50", "p99", "max"));
+        for (Map.Entry<String, Metrics.Histogram> entry : Metrics.getHistograms().entrySet())
+        {
+            Metrics.Histogram h = entry.getValue();
+            sb.append(String.format(Locale.US, "  %-28s %8d %8.3f %8.3f %8.3f\n", entry.getKey(), h.getCount(),
+                    toMillis(h.getPercentile(0.5)), toMillis(h.getPercentile(0.99)), toMillis(h.getMax())));
+        }
+
+        sb.append("\nCaches\n");
+        for (String[] cache : Metrics.CACHES)
+        {
+            long hits = Metrics.getCount(cache[1]);
+            long misses = Metrics.getCount(cache[2]);
+            long total = hits + misses;
+            sb.append("  ").append(cache[0]).append(": ").append(hits).append(" hits, ").append(misses).append(" misses");
+            if (total > 0)
+                sb.append(String.format(Locale.US, " (%.1f%%)", 100.0 * hits / total));
+            sb.append('\n');
+        }
+
+        sb.append("\nCounters\n");
+        for (Map.Entry<String, Long> entry : Metrics.getCounters().entrySet())
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Writes the report to a file in the device's public Downloads directory.
+     * The filename will be in the format "TMWTD_diagnostics_yyyyMMdd_HHmmss.txt".
+     *
+     * @param context The context.
+     * @param report  The report to write.
+     * @return The name of the file written.
+     * @throws IOException If the file can't be written.
+     */
+    public static String export(Context context, String report) throws IOException
+    {
+        String timestamp = new SimpleDateFormat(context.getString(R.string.timestamp_format)).format(new Date());
+        String name = String.format(FILENAME, timestamp);
+        File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), name);
+        try (FileOutputStream fos = new FileOutputStream(file))
+        {
+            fos.write(report.getBytes(StandardCharsets.UTF_8));
+        }
+        return name;
+    }
+
+    private static String formatStartup(long millis)
+    {
+        return millis < 0 ? "not recorded" : millis + " ms";
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -3,8 +3,6 @@ package com.stevedegroof.tellmewhattodo;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.DisplayMetrics;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -18,9 +16,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -33,8 +28,11 @@ import java.util.concurrent.TimeUnit;
  * - Navigate to add a new task.
  * - Navigate to view all tasks.
  *
- * The activity also includes logic to periodically check for repeating tasks
- * that may have become available and updates the UI accordingly.
+ * While the activity is visible, a {@link ReadinessScheduler} wakes it when the next
+ * repeating task comes due so the UI can be updated right away.
+ * The tasks are loaded in the background when the app starts (see {@link TaskApplication});
+ * until they're ready, the current task is shown from the {@link TaskSnapshot} (or a loading
+ * message, if there isn't one) and the buttons are disabled.
  * It ensures the application is displayed in portrait mode on certain devices.
  */
 public class MainActivity extends AppCompatActivity
@@ -46,8 +44,8 @@ public class MainActivity extends AppCompatActivity
     private Button buttonAdd;
     private Button buttonView;
 
-    ScheduledExecutorService service;
-    Handler handler;
+    private ReadinessScheduler readinessScheduler;
+    private final Runnable tasksLoadedListener = this::onTasksLoaded;
 
     /**
      * Called when the activity is first created.
@@ -123,24 +121,50 @@ public class MainActivity extends AppCompatActivity
         });
 
 
-        updateUI();
-
+        //Wake up when repeating tasks become available
+        readinessScheduler = new ReadinessScheduler(this::updateUI);
 
-        //Periodically check for repeating tasks becoming available
-        service = Executors.newSingleThreadScheduledExecutor();
-        handler = new Handler(Looper.getMainLooper());
-
-        service.scheduleWithFixedDelay(() -> {
-            handler.post(() ->
-            {
-                if(Tasks.getInstance().getCurrentTaskId() == null  || Tasks.getInstance().getTask(Tasks.getInstance().getCurrentTaskId()) == null || Tasks.getInstance().getTask(Tasks.getInstance().getCurrentTaskId()).isDone())
-                {
-                    updateUI();
-                }
-            });
-        }, 0, 5, TimeUnit.MINUTES);
+        StartupTiming.watchFirstFrame(this);
+        if (Tasks.getInstance().isLoaded())
+        {
+            updateUI();
+        } else
+        {
+            showLoading();
+            Tasks.getInstance().startLoading(getFilesDir(), getMainExecutor()); //in case the application didn't start it
+            Tasks.getInstance().whenLoaded(tasksLoadedListener);
+        }
+    }
 
+    /**
+     * Shows a placeholder while the tasks are loading, or the current task if it can be read from
+     * the {@link TaskSnapshot}. The buttons are disabled, since there's nothing to act on yet.
+     */
+    private void showLoading()
+    {
+        //the current task can be shown straight away from the snapshot, if it's up to date
+        TaskSnapshot snapshot = TaskSnapshot.open(getFilesDir());
+        int current = snapshot == null ? -1 : snapshot.getCurrentIndex();
+        if (current >= 0 && !snapshot.isDone(current))
+            currentTaskDescription.setText(snapshot.getDescription(current));
+        else
+            currentTaskDescription.setText(R.string.loading_tasks);
+        buttonDone.setVisibility(View.GONE);
+        buttonTell.setVisibility(View.GONE);
+        buttonAdd.setEnabled(false);
+        buttonView.setEnabled(false);
+    }
 
+    /**
+     * Called once the background load has finished, to show the tasks.
+     */
+    private void onTasksLoaded()
+    {
+        buttonAdd.setEnabled(true);
+        buttonView.setEnabled(true);
+        updateUI();
+        StartupTiming.markDataReady();
+        reportFullyDrawn();
     }
 
 
@@ -153,13 +177,12 @@ public class MainActivity extends AppCompatActivity
      */
     public void buttonTellClick(View view)
     {
-        Task currentTask = Tasks.getInstance().getNextTask(getApplicationContext());
-        Tasks.getInstance().save(this);
+        Task currentTask = Tasks.getInstance().getNextTask(System.currentTimeMillis());
         if (currentTask != null)
         {
             currentTaskDescription.setText(currentTask.getDescription());
         }
-        Tasks.getInstance().save(this);
+        Util.saveTasks(this);
         updateUI();
     }
 
@@ -175,7 +198,7 @@ public class MainActivity extends AppCompatActivity
         Task currentTask = Tasks.getInstance().getTask(currentTaskId);
         currentTask.setDone(true);
         Tasks.getInstance().setCurrentTaskId(null);
-        Tasks.getInstance().save(this);
+        Util.saveTasks(this);
         updateUI();
     }
 
@@ -233,7 +256,7 @@ public class MainActivity extends AppCompatActivity
      */
     private void updateUI()
     {
-        int taskCount = Tasks.getInstance().getAvailableTasks(getApplicationContext()).size();
+        int taskCount = Tasks.getInstance().getAvailableTasks(System.currentTimeMillis()).size();
         boolean tasksAvailable = taskCount > 0;
         UUID currentTaskId = Tasks.getInstance().getCurrentTaskId();
         Task currentTask = currentTaskId == null ? null : Tasks.getInstance().getTask(currentTaskId);
@@ -254,15 +277,30 @@ public class MainActivity extends AppCompatActivity
             buttonDone.setVisibility(View.GONE);
             buttonTell.setVisibility(View.GONE);
         }
-
+        readinessScheduler.rearm(); //tasks may have changed, so the next due time may have too
     }
 
     @Override
     protected void onResume()
     {
         super.onResume();
-        Tasks.getInstance().load(this);
-        updateUI();
+        if (Tasks.getInstance().isLoaded()) //otherwise onTasksLoaded() will update it
+            updateUI();
+        readinessScheduler.start();
+    }
+
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+        readinessScheduler.stop();
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        Tasks.getInstance().removeLoadedListener(tasksLoadedListener);
     }
 
     @Override
@@ -11,13 +11,16 @@ import android.view.MenuItem;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * ParentActivity is a base class for other activities in the application.
  * It provides common functionality such as forcing portrait mode and handling the home button.
  */
 public class ParentActivity extends AppCompatActivity
 {
-
+    private final Map<Runnable, Runnable> waitingForTasks = new HashMap<>(); //the code to run, and its listener
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -36,9 +39,39 @@ public class ParentActivity extends AppCompatActivity
             setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
         }
 
+        //these screens need the tasks, and may be restored before the background load has finished
+        Tasks.getInstance().startLoading(getFilesDir(), getMainExecutor()); //in case nothing has started it
     }
 
+    /**
+     * Runs the given code on the UI thread once the tasks are loaded, or right away if they
+     * already are. These screens can be restored before the background load has finished, so
+     * anything that uses the tasks is run from here instead of waiting for the load.
+     * Code that's already waiting isn't added again, and code still waiting when the screen is
+     * destroyed is dropped.
+     *
+     * @param listener The code to run.
+     */
+    protected void whenTasksLoaded(Runnable listener)
+    {
+        if (waitingForTasks.containsKey(listener)) return;
+        Runnable loaded = () ->
+        {
+            waitingForTasks.remove(listener);
+            listener.run();
+        };
+        waitingForTasks.put(listener, loaded);
+        Tasks.getInstance().whenLoaded(loaded);
+    }
 
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        for (Runnable loaded : waitingForTasks.values())
+            Tasks.getInstance().removeLoadedListener(loaded);
+        waitingForTasks.clear();
+    }
 
 
     protected void goToMainActivityAndClearStack()
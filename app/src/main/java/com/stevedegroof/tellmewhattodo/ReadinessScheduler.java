@@ -0,0 +1,75 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Wakes the UI when the next repeating task comes due.
+ * <p>
+ * Instead of polling on a fixed interval, the scheduler looks up the earliest upcoming
+ * due time ({@link Tasks#getNextDueTime(long)}) and posts a single callback for exactly
+ * that moment. When the callback fires, the listener is notified and the scheduler rearms
+ * itself for the next due time. Only one callback is ever pending.
+ * </p>
+ * <p>
+ * The scheduler should be started when the UI becomes visible, rearmed whenever the tasks
+ * change, and stopped when the UI is no longer visible.
+ * </p>
+ */
+public class ReadinessScheduler
+{
+    private final Runnable onReady;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean started = false;
+
+    private final Runnable wakeup = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onReady.run();
+            rearm();
+        }
+    };
+
+    /**
+     * @param onReady Called on the main thread when a task comes due.
+     */
+    public ReadinessScheduler(Runnable onReady)
+    {
+        this.onReady = onReady;
+    }
+
+    /**
+     * Starts watching for tasks coming due and arms the timer for the next one.
+     */
+    public void start()
+    {
+        started = true;
+        rearm();
+    }
+
+    /**
+     * Stops watching for tasks coming due and cancels any pending wakeup.
+     */
+    public void stop()
+    {
+        started = false;
+        handler.removeCallbacks(wakeup);
+    }
+
+    /**
+     * Cancels the pending wakeup (if any) and schedules a new one for the earliest
+     * upcoming due time. Call this after the tasks have changed.
+     * Does nothing if the scheduler hasn't been started.
+     */
+    public void rearm()
+    {
+        handler.removeCallbacks(wakeup);
+        if (!started) return;
+        long due = Tasks.getInstance().getNextDueTime(System.currentTimeMillis());
+        if (due == Long.MAX_VALUE) return; //nothing waiting to come due
+        long delay = Math.max(0, due - System.currentTimeMillis());
+        handler.postDelayed(wakeup, delay);
+    }
+}
@@ -0,0 +1,19 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the ready alarm set by {@link ReadyNotifier}, and re-sets the alarm after the
+ * device restarts (alarms don't survive a reboot).
+ * Both cases are handled from the precomputed schedule file, so the tasks file is never loaded here.
+ */
+public class ReadyAlarmReceiver extends BroadcastReceiver
+{
+    @Override
+    public void onReceive(Context context, Intent intent)
+    {
+        ReadyNotifier.onAlarm(context);
+    }
+}
@@ -0,0 +1,288 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.app.AlarmManager;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Notifies the user when high priority repeating tasks become available.
+ * <p>
+ * Whenever the tasks are saved, a small schedule file is written containing the due time and
+ * description of each high or urgent priority repeating task that is waiting to come due
+ * (and whose dependencies are already met), sorted by due time. A single alarm is set for the
+ * earliest entry. The tasks are found from the due times kept in the {@link TaskTable}, so
+ * nothing is worked out again, and the file is only written, on a background thread, when the
+ * schedule has changed. When the alarm fires, {@link ReadyAlarmReceiver} calls {@link #onAlarm(Context)},
+ * which reads only the schedule file (never the full tasks file), posts one notification for
+ * everything that has come due, and sets the alarm for the next entry.
+ * </p>
+ * <p>
+ * Notifications are optional and are turned on and off from {@link SettingsActivity}.
+ * </p>
+ */
+public class ReadyNotifier
+{
+    private static final String KEY_NOTIFY_READY = "notify_ready";
+    private static final String KEY_LAST_NOTIFIED = "last_notified";
+
+    private static final String SCHEDULE_FILE_NAME = "ready_schedule.dat";
+    private static final String CHANNEL_ID = "ready_tasks";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int REQUEST_CODE_ALARM = 1;
+    private static final int MAX_DESCRIPTION_LENGTH = 100;
+
+    private static final ExecutorService scheduleExecutor = Executors.newSingleThreadExecutor();
+    private static List<Entry> lastSchedule = null; //the schedule last written (only used on scheduleExecutor)
+
+    /**
+     * A single entry in the schedule file.
+     */
+    static class Entry implements Comparable<Entry>
+    {
+        final long due;
+        final String description;
+
+        Entry(long due, String description)
+        {
+            this.due = due;
+            this.description = description;
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            return Long.compare(due, other.due);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Entry)) return false;
+            Entry entry = (Entry) other;
+            return due == entry.due && description.equals(entry.description);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(due, description);
+        }
+    }
+
+    public static boolean isEnabled(Context context)
+    {
+        return getPreferences(context).getBoolean(KEY_NOTIFY_READY, false);
+    }
+
+    /**
+     * Turns ready notifications on or off and immediately updates the schedule and alarm.
+     *
+     * @param context The context to use.
+     * @param enabled {@code true} to notify when high priority tasks become available.
+     */
+    public static void setEnabled(Context context, boolean enabled)
+    {
+        getPreferences(context).edit()
+                .putBoolean(KEY_NOTIFY_READY, enabled)
+                .putLong(KEY_LAST_NOTIFIED, System.currentTimeMillis())
+                .apply();
+        update(context, Tasks.getInstance());
+    }
+
+    /**
+     * Rebuilds the schedule from the given tasks and sets the alarm for its earliest entry.
+     * If notifications are turned off, the schedule file is removed and any alarm is cancelled.
+     * The schedule is worked out here, from the task table, so this should be called on the UI
+     * thread; the file and the alarm are then updated in the background.
+     *
+     * @param context The context to use.
+     * @param tasks   The tasks to build the schedule from.
+     */
+    public static void update(Context context, Tasks tasks)
+    {
+        Context appContext = context.getApplicationContext();
+        if (!isEnabled(context))
+        {
+            scheduleExecutor.execute(() ->
+            {
+                lastSchedule = null;
+                appContext.deleteFile(SCHEDULE_FILE_NAME);
+                getAlarmManager(appContext).cancel(getAlarmIntent(appContext));
+            });
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Task> comingDue = new ArrayList<>();
+        tasks.getTable().collectComingDue(tasks, now, Task.PRIORITY_HIGH, comingDue); //high and urgent
+        List<Entry> schedule = new ArrayList<>(comingDue.size());
+        for (Task task : comingDue)
+        {
+            String description = task.getDescription();
+            if (description.length() > MAX_DESCRIPTION_LENGTH)
+                description = description.substring(0, MAX_DESCRIPTION_LENGTH) + "...";
+            schedule.add(new Entry(tasks.getDueTime(task, now), description));
+        }
+        scheduleExecutor.execute(() ->
+        {
+            Collections.sort(schedule);
+            if (schedule.equals(lastSchedule)) return; //the file and the alarm are already right
+            writeSchedule(appContext, schedule);
+            setAlarm(appContext, schedule, now);
+            lastSchedule = schedule;
+        });
+    }
+
+    /**
+     * Called when the alarm fires (or the device restarts).
+     * Posts a notification for any scheduled tasks that have come due since the last
+     * notification, then sets the alarm for the next entry in the schedule.
+     *
+     * @param context The context to use.
+     */
+    public static void onAlarm(Context context)
+    {
+        if (!isEnabled(context)) return;
+        SharedPreferences preferences = getPreferences(context);
+        long lastNotified = preferences.getLong(KEY_LAST_NOTIFIED, 0);
+        long now = System.currentTimeMillis();
+        List<Entry> schedule = readSchedule(context);
+        List<String> ready = new ArrayList<>();
+        for (Entry entry : schedule)
+        {
+            if (entry.due > now) break; //sorted, so nothing after this is due
+            if (entry.due > lastNotified)
+                ready.add(entry.description);
+        }
+        if (!ready.isEmpty())
+        {
+            notifyReady(context, ready);
+            preferences.edit().putLong(KEY_LAST_NOTIFIED, now).apply();
+        }
+        setAlarm(context, schedule, now);
+    }
+
+    /**
+     * Sets a single alarm for the first entry in the schedule that is due after the given time.
+     * Exact alarms are used when the app is allowed to schedule them.
+     */
+    private static void setAlarm(Context context, List<Entry> schedule, long now)
+    {
+        AlarmManager alarmManager = getAlarmManager(context);
+        PendingIntent alarmIntent = getAlarmIntent(context);
+        alarmManager.cancel(alarmIntent);
+        for (Entry entry : schedule)
+        {
+            if (entry.due <= now) continue;
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms())
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, entry.due, alarmIntent);
+            else
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, entry.due, alarmIntent);
+            return;
+        }
+    }
+
+    /**
+     * Posts (or replaces) the single ready notification.
+     * One task is shown by its description; several are summarized by count.
+     */
+    private static void notifyReady(Context context, List<String> ready)
+    {
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        if (!notificationManager.areNotificationsEnabled()) return;
+        createChannel(context);
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        String text = ready.size() == 1 ? ready.get(0) : String.format(context.getString(R.string.d_important_tasks_ready), ready.size());
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notification_ready) //the status bar only uses its shape
+                .setContentTitle(context.getString(R.string.something_important_to_do))
+                .setContentText(text)
+                .setContentIntent(contentIntent)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true);
+        try
+        {
+            notificationManager.notify(NOTIFICATION_ID, builder.build());
+        } catch (SecurityException e) //notification permission was revoked
+        {
+        }
+    }
+
+    private static void createChannel(Context context)
+    {
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, context.getString(R.string.ready_tasks_channel), NotificationManager.IMPORTANCE_HIGH);
+        context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    private static void writeSchedule(Context context, List<Entry> schedule)
+    {
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(context.openFileOutput(SCHEDULE_FILE_NAME, Context.MODE_PRIVATE)));
+            out.writeInt(schedule.size());
+            for (Entry entry : schedule)
+            {
+                out.writeLong(entry.due);
+                out.writeUTF(entry.description);
+            }
+            out.close();
+        } catch (Exception e)
+        {
+        }
+    }
+
+    private static List<Entry> readSchedule(Context context)
+    {
+        List<Entry> schedule = new ArrayList<>();
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(context.openFileInput(SCHEDULE_FILE_NAME)));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                long due = in.readLong();
+                schedule.add(new Entry(due, in.readUTF()));
+            }
+            in.close();
+        } catch (Exception e)
+        {
+        }
+        return schedule;
+    }
+
+    private static PendingIntent getAlarmIntent(Context context)
+    {
+        Intent intent = new Intent(context, ReadyAlarmReceiver.class);
+        return PendingIntent.getBroadcast(context, REQUEST_CODE_ALARM, intent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static AlarmManager getAlarmManager(Context context)
+    {
+        return context.getSystemService(AlarmManager.class);
+    }
+
+    private static SharedPreferences getPreferences(Context context)
+    {
+        return Util.getPreferences(context);
+    }
+}
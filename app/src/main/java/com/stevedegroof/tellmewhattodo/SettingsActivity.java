@@ -1,19 +1,26 @@
 package com.stevedegroof.tellmewhattodo;
 
+import android.Manifest;
 import android.content.ContentResolver;
 import android.content.DialogInterface;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.material.checkbox.MaterialCheckBox;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -33,6 +40,9 @@ import java.util.Date;
  * <ul>
  *     <li>Back up their current tasks to a JSON file in the device's downloads folder.</li>
  *     <li>Restore tasks from a previously created JSON backup file.</li>
+ *     <li>Turn notifications for high priority tasks becoming ready on or off.</li>
+ *     <li>Record a performance trace (see {@link PerfTrace}), and export it for a bug report.</li>
+ *     <li>View performance diagnostics (see {@link Diagnostics}), and export them for a bug report.</li>
  * </ul>
  * The activity handles file operations, user confirmations, and interacts with the
  * {@link Tasks} singleton to manage task data.
@@ -43,8 +53,12 @@ public class SettingsActivity extends ParentActivity
     private static final String FILENAME = "TMWTD_tasks_%s.json";
 
     // UI components
-    private Button backupButton, restoreButton;
+    private Button backupButton, restoreButton, exportTraceButton, exportDiagnosticsButton;
+    private MaterialCheckBox notifyReadyCheckBox, recordTraceCheckBox;
+    private TextView diagnosticsTextView;
     private ActivityResultLauncher<String[]> restoreFileLauncher;
+    private ActivityResultLauncher<String> notificationPermissionLauncher;
+    private final Runnable showDiagnostics = () -> diagnosticsTextView.setText(Diagnostics.getReport(this));
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -58,7 +72,18 @@ public class SettingsActivity extends ParentActivity
         // Initialize UI components
         backupButton = findViewById(R.id.button_backup);
         restoreButton = findViewById(R.id.button_restore);
-
+        notifyReadyCheckBox = findViewById(R.id.checkbox_notify_ready);
+        recordTraceCheckBox = findViewById(R.id.checkbox_record_trace);
+        exportTraceButton = findViewById(R.id.button_export_trace);
+        exportDiagnosticsButton = findViewById(R.id.button_export_diagnostics);
+        diagnosticsTextView = findViewById(R.id.textview_diagnostics);
+        backupButton.setEnabled(false); //until the tasks are loaded
+        restoreButton.setEnabled(false);
+        whenTasksLoaded(() ->
+        {
+            backupButton.setEnabled(true);
+            restoreButton.setEnabled(true);
+        });
 
         // Set up action buttons
         backupButton.setOnClickListener(new View.OnClickListener()
@@ -82,6 +107,37 @@ public class SettingsActivity extends ParentActivity
             }
         });
 
+        recordTraceCheckBox.setChecked(PerfTrace.isRecording());
+        exportTraceButton.setEnabled(PerfTrace.isRecording());
+        recordTraceCheckBox.setOnCheckedChangeListener((buttonView, isChecked) ->
+        {
+            AndroidTrace.setRecording(getApplicationContext(), isChecked);
+            exportTraceButton.setEnabled(isChecked);
+        });
+        exportTraceButton.setOnClickListener(v -> exportTrace());
+        exportDiagnosticsButton.setOnClickListener(v -> exportDiagnostics());
+
+        // Set up ready notifications (asking for permission to post them first, if needed)
+        notificationPermissionLauncher = registerForActivityResult(
+                new ActivityResultContracts.RequestPermission(),
+                granted ->
+                {
+                    ReadyNotifier.setEnabled(getApplicationContext(), granted);
+                    notifyReadyCheckBox.setChecked(granted);
+                });
+        notifyReadyCheckBox.setChecked(ReadyNotifier.isEnabled(this));
+        notifyReadyCheckBox.setOnCheckedChangeListener((buttonView, isChecked) ->
+        {
+            if (isChecked && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                    && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED)
+            {
+                notificationPermissionLauncher.launch(Manifest.permission.POST_NOTIFICATIONS);
+            } else
+            {
+                ReadyNotifier.setEnabled(getApplicationContext(), isChecked);
+            }
+        });
+
         // Set up file picker for restoring tasks
          restoreFileLauncher = registerForActivityResult(
                 new ActivityResultContracts.OpenDocument(),
@@ -162,10 +218,11 @@ public class SettingsActivity extends ParentActivity
                             public void onClick(DialogInterface dialog, int which)
                             {
                                 Tasks.getInstance().setTasksFromJson(finalJson);
-                                Tasks.getInstance().save(SettingsActivity.this);
+                                boolean saved = Util.saveTasks(SettingsActivity.this);
                                 Tasks.getInstance().setCurrentTaskId(null);
                                 dialog.dismiss();
-                                Toast.makeText(SettingsActivity.this,R.string.tasks_successfully_restored, Toast.LENGTH_SHORT).show();
+                                if (saved)
+                                    Toast.makeText(SettingsActivity.this,R.string.tasks_successfully_restored, Toast.LENGTH_SHORT).show();
                             }
                         })
                         .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener()
@@ -259,11 +316,54 @@ public class SettingsActivity extends ParentActivity
         restoreFileLauncher.launch(new String[]{"application/json"});
     }
 
+    /**
+     * Saves the recorded performance trace to a file in the Downloads folder.
+     * Displays a success dialog naming the file, or does nothing if an IOException occurs.
+     */
+    private void exportTrace()
+    {
+        try
+        {
+            int count = PerfTrace.getSize();
+            String name = AndroidTrace.export(this);
+            new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                    .setTitle(R.string.success)
+                    .setMessage(String.format(getString(R.string.trace_exported), count, name))
+                    .setPositiveButton(R.string.ok, null)
+                    .show();
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    /**
+     * Refreshes the diagnostics report and saves it to a file in the Downloads folder.
+     * Displays a success dialog naming the file, or does nothing if an IOException occurs.
+     */
+    private void exportDiagnostics()
+    {
+        String report = Diagnostics.getReport(this);
+        diagnosticsTextView.setText(report);
+        try
+        {
+            String name = Diagnostics.export(this, report);
+            new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                    .setTitle(R.string.success)
+                    .setMessage(String.format(getString(R.string.diagnostics_exported), name))
+                    .setPositiveButton(R.string.ok, null)
+                    .show();
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
     @Override
     protected void onResume()
     {
         super.onResume();
-
+        whenTasksLoaded(showDiagnostics);
     }
 
 
@@ -0,0 +1,82 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.app.Activity;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Measures how long the app takes to start.
+ * <p>
+ * Two times are recorded, both measured from when the process started:
+ * the time to the first frame drawn by {@link MainActivity}, and the time until the tasks have
+ * been loaded and shown. Each is recorded once per process and written to the log, so startup
+ * can be compared before and after a change, e.g. with
+ * {@code adb logcat -s StartupTiming}.
+ * </p>
+ */
+public class StartupTiming
+{
+    private static final String TAG = "StartupTiming";
+
+    private static long firstFrame = -1;
+    private static long dataReady = -1;
+
+    /**
+     * @return Milliseconds from process start to the first frame, or -1 if not drawn yet.
+     */
+    public static long getTimeToFirstFrame()
+    {
+        return firstFrame;
+    }
+
+    /**
+     * @return Milliseconds from process start until the tasks were shown, or -1 if not yet.
+     */
+    public static long getTimeToData()
+    {
+        return dataReady;
+    }
+
+    /**
+     * Records the time of the activity's first frame, if no first frame has been recorded yet.
+     *
+     * @param activity The activity being started.
+     */
+    public static void watchFirstFrame(Activity activity)
+    {
+        if (firstFrame >= 0) return;
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener()
+        {
+            @Override
+            public void onDraw()
+            {
+                if (firstFrame < 0)
+                {
+                    firstFrame = sinceProcessStart();
+                    Log.i(TAG, "First frame: " + firstFrame + " ms");
+                }
+                final ViewTreeObserver.OnDrawListener listener = this;
+                decorView.post(() -> decorView.getViewTreeObserver().removeOnDrawListener(listener)); //can't be removed while drawing
+            }
+        });
+    }
+
+    /**
+     * Records the time the tasks were loaded and shown, if it hasn't been recorded yet.
+     */
+    public static void markDataReady()
+    {
+        if (dataReady >= 0) return;
+        dataReady = sinceProcessStart();
+        Log.i(TAG, "Tasks shown: " + dataReady + " ms");
+    }
+
+    private static long sinceProcessStart()
+    {
+        return SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+    }
+}
@@ -0,0 +1,44 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The application.
+ * Starts loading the tasks in the background as soon as the process starts, so they're
+ * usually ready by the time {@link MainActivity} has drawn its first frame.
+ */
+public class TaskApplication extends Application
+{
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        AndroidTrace.init(this); //before loading, so the load can be traced
+        Tasks tasks = Tasks.getInstance();
+        tasks.addSavedListener(() -> ReadyNotifier.update(this, tasks)); //keep the notification schedule in step with the tasks
+        tasks.startLoading(getFilesDir(), getMainExecutor());
+        registerReceiver(new BroadcastReceiver()
+        {
+            @Override
+            public void onReceive(Context context, Intent intent)
+            {
+                Recurrence.resetCalendars(); //due times are worked out in the new time zone
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig)
+    {
+        super.onConfigurationChanged(newConfig);
+        Util.clearNames(); //the names of months, days etc. may be in a different language now
+        Recurrence.resetCalendars(); //the first day of the week may be different too
+    }
+}
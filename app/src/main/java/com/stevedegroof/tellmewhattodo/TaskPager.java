@@ -0,0 +1,312 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads {@link TaskRow}s from a {@link TaskSource} a page at a time, around the scroll position.
+ * <p>
+ * Only the count of tasks is needed up front. When a row is asked for and its page isn't
+ * loaded yet, {@link #getRow(int)} returns {@code null} (a placeholder) and the page is loaded:
+ * its rows are built on the UI thread (a page is small, and the availability checks read the
+ * task table), and handed to the adapter once the current bind is over. The neighboring page in
+ * the scroll direction is prefetched. At most {@link #MAX_PAGES} pages are kept; the least
+ * recently used page is dropped when that limit is reached. So memory use depends on the page
+ * size, not the number of tasks.
+ * </p>
+ * <p>
+ * When the tasks change, {@link #invalidate()} reloads the pages around the scroll position,
+ * diffs them against what was shown before on the background executor, and dispatches just the
+ * differences. Only the diff is done in the background: the tasks are never read there.
+ * </p>
+ */
+public class TaskPager
+{
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 8;
+    private static final int WINDOW_PAGES = 2; //pages either side of the scroll position reloaded by invalidate()
+
+    /**
+     * Receives changes to the rows. Calls are made on the UI thread.
+     */
+    public interface Callback extends ListUpdateCallback
+    {
+        /**
+         * Called when a page of rows that were placeholders has been loaded.
+         */
+        void onRowsLoaded(int position, int count);
+    }
+
+    private final Context context;
+    private final Executor executor;
+    private final Callback callback;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<Integer, List<TaskRow>> pages = new LinkedHashMap<>(16, 0.75f, true); //in access order
+    private final List<Integer> loadingPages = new ArrayList<>();
+    private TaskSource source;
+    private int count;
+    private int anchorPage = 0;
+    private int generation = 0;
+    private boolean invalidating = false;
+
+    public TaskPager(Context context, TaskSource source, Executor executor, Callback callback)
+    {
+        this.context = context.getApplicationContext();
+        this.source = source;
+        this.executor = executor;
+        this.callback = callback;
+        this.count = source.getCount();
+    }
+
+    /**
+     * @return The number of rows, including placeholders for rows that aren't loaded.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The task source the rows come from.
+     */
+    public TaskSource getSource()
+    {
+        return source;
+    }
+
+    /**
+     * Switches to a different source. The rows shown are diffed against the new source's rows.
+     */
+    public void setSource(TaskSource source)
+    {
+        this.source = source;
+        anchorPage = 0;
+        invalidate();
+    }
+
+    /**
+     * Gets the row at the given position, loading it (and the next page in the scroll direction)
+     * if needed.
+     *
+     * @param position The position of the row.
+     * @return The row, or {@code null} if it isn't loaded yet.
+     */
+    @Nullable
+    public TaskRow getRow(int position)
+    {
+        int page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+        int previousAnchor = anchorPage;
+        anchorPage = page;
+        List<TaskRow> rows = pages.get(page);
+        Metrics.count(rows == null ? Metrics.PAGE_MISS : Metrics.PAGE_HIT);
+        if (rows == null)
+            loadPage(page);
+        //prefetch the neighboring page in the direction of scrolling
+        if (page >= previousAnchor && offset >= PAGE_SIZE / 2)
+            loadPage(page + 1);
+        else if (page <= previousAnchor && offset < PAGE_SIZE / 2 && page > 0)
+            loadPage(page - 1);
+        return rows == null || offset >= rows.size() ? null : rows.get(offset);
+    }
+
+    /**
+     * Gets the row at the given position if it's loaded, without loading anything.
+     *
+     * @param position The position of the row.
+     * @return The row, or {@code null} if it isn't loaded.
+     */
+    @Nullable
+    public TaskRow peekRow(int position)
+    {
+        List<TaskRow> rows = pages.get(position / PAGE_SIZE);
+        int offset = position % PAGE_SIZE;
+        return rows == null || offset >= rows.size() ? null : rows.get(offset);
+    }
+
+    /**
+     * @return The rows that are currently loaded, by their starting position.
+     */
+    public Map<Integer, List<TaskRow>> getLoadedPages()
+    {
+        Map<Integer, List<TaskRow>> loaded = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<TaskRow>> entry : pages.entrySet())
+            loaded.put(entry.getKey() * PAGE_SIZE, entry.getValue());
+        return loaded;
+    }
+
+    private void loadPage(int page)
+    {
+        int start = page * PAGE_SIZE;
+        if (invalidating || start >= count || pages.containsKey(page) || loadingPages.contains(page)) return;
+        loadingPages.add(page);
+        List<TaskRow> rows = TaskRow.build(context, source.getTasks(start, PAGE_SIZE));
+        int loadGeneration = generation;
+        handler.post(() -> //not during the bind that asked for it
+        {
+            if (loadGeneration != generation) return; //tasks changed since this load started
+            loadingPages.remove(Integer.valueOf(page));
+            putPage(page, rows);
+            callback.onRowsLoaded(start, rows.size());
+        });
+    }
+
+    private void putPage(int page, List<TaskRow> rows)
+    {
+        pages.put(page, rows);
+        Iterator<Integer> iterator = pages.keySet().iterator();
+        while (pages.size() > MAX_PAGES && iterator.hasNext()) //drop the least recently used pages
+        {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reloads the rows after the tasks have changed.
+     * The rows of the pages around the scroll position are rebuilt, and diffed against the old
+     * ones in the background. Then the differences within that window are
+     * dispatched, followed by any change in the number of rows after it.
+     */
+    public void invalidate()
+    {
+        final int loadGeneration = ++generation;
+        invalidating = true; //no page loads until the new rows are in
+        loadingPages.clear();
+        final int oldCount = count;
+        final int newCount = source.getCount();
+        final int firstPage = Math.max(0, anchorPage - WINDOW_PAGES);
+        final int windowStart = Math.min(firstPage * PAGE_SIZE, Math.min(oldCount, newCount));
+        final int windowSize = (WINDOW_PAGES * 2 + 1) * PAGE_SIZE;
+        final List<TaskRow> oldRows = new ArrayList<>();
+        for (int position = windowStart; position < Math.min(oldCount, windowStart + windowSize); position++)
+        {
+            List<TaskRow> rows = pages.get(position / PAGE_SIZE);
+            int offset = position % PAGE_SIZE;
+            oldRows.add(rows == null || offset >= rows.size() ? null : rows.get(offset));
+        }
+        final List<TaskRow> newRows = TaskRow.build(context, source.getTasks(windowStart, windowSize));
+        executor.execute(() ->
+        {
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new WindowDiff(oldRows, newRows), true);
+            handler.post(() ->
+            {
+                if (loadGeneration != generation) return; //tasks changed again
+                invalidating = false;
+                pages.clear();
+                for (int i = 0; i < newRows.size(); i += PAGE_SIZE)
+                {
+                    int position = windowStart + i;
+                    if (position % PAGE_SIZE != 0) continue; //only keep whole pages
+                    pages.put(position / PAGE_SIZE, new ArrayList<>(newRows.subList(i, Math.min(i + PAGE_SIZE, newRows.size()))));
+                }
+                count = newCount;
+                diff.dispatchUpdatesTo(new OffsetCallback(windowStart));
+                //rows after the window: adjust the count to match
+                int currentCount = oldCount - oldRows.size() + newRows.size();
+                if (newCount > currentCount)
+                    callback.onInserted(currentCount, newCount - currentCount);
+                else if (newCount < currentCount)
+                    callback.onRemoved(newCount, currentCount - newCount);
+            });
+        });
+    }
+
+    /**
+     * Compares the old and new rows in a window.
+     * Old rows that weren't loaded (placeholders) never match anything.
+     */
+    private static class WindowDiff extends DiffUtil.Callback
+    {
+        private final List<TaskRow> oldRows;
+        private final List<TaskRow> newRows;
+
+        WindowDiff(List<TaskRow> oldRows, List<TaskRow> newRows)
+        {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize()
+        {
+            return oldRows.size();
+        }
+
+        @Override
+        public int getNewListSize()
+        {
+            return newRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition)
+        {
+            TaskRow oldRow = oldRows.get(oldPosition);
+            return oldRow != null && oldRow.getId().equals(newRows.get(newPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition)
+        {
+            return oldRows.get(oldPosition).equals(newRows.get(newPosition));
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition)
+        {
+            //if only the status changed, just rebind the status
+            return oldRows.get(oldPosition).getDescription().equals(newRows.get(newPosition).getDescription()) ? ViewTaskAdapter.PAYLOAD_STATUS : null;
+        }
+    }
+
+    /**
+     * Shifts the positions of window updates to adapter positions.
+     */
+    private class OffsetCallback implements ListUpdateCallback
+    {
+        private final int offset;
+
+        OffsetCallback(int offset)
+        {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count)
+        {
+            callback.onInserted(position + offset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count)
+        {
+            callback.onRemoved(position + offset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition)
+        {
+            callback.onMoved(fromPosition + offset, toPosition + offset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload)
+        {
+            callback.onChanged(position + offset, count, payload);
+        }
+    }
+}
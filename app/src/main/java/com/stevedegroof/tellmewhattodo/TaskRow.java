@@ -0,0 +1,133 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.Context;
+import android.graphics.Color;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * An immutable, ready-to-display row for the task list.
+ * <p>
+ * Rows are built a page at a time (see {@link #build(Context, List)}), so that working out
+ * whether a task is available happens once per refresh rather than every time a row is bound
+ * while scrolling. {@link ViewTaskAdapter} only copies the values into its views.
+ * </p>
+ */
+public final class TaskRow
+{
+    private static final int MAX_DESCRIPTION_LENGTH = 50;
+
+    /**
+     * Gets the text shown for a status.
+     *
+     * @param status The status.
+     * @return The string resource ID of its text.
+     */
+    public static int getTextResId(TaskStatus status)
+    {
+        switch (status)
+        {
+            case DONE:
+                return R.string.donemc;
+            case WAITING:
+                return R.string.waiting;
+            default:
+                return R.string.ready;
+        }
+    }
+
+    private final UUID id;
+    private final String description;
+    private final TaskStatus status;
+    private final int color;
+
+    public TaskRow(UUID id, String description, TaskStatus status, int color)
+    {
+        this.id = id;
+        this.description = description;
+        this.status = status;
+        this.color = color;
+    }
+
+    public UUID getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return The task description, truncated for display if it's too long.
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public TaskStatus getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return The background color for the row's status.
+     */
+    public int getColor()
+    {
+        return color;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof TaskRow)) return false;
+        TaskRow other = (TaskRow) o;
+        return color == other.color && status == other.status
+                && id.equals(other.id) && description.equals(other.description);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(id, description, status, color);
+    }
+
+    /**
+     * Builds display rows for the given tasks.
+     * This must be called on the UI thread, since it reads the tasks as they are now. The
+     * availability checks read the task table (see {@link Tasks#isAvailable(Task, long)}), so
+     * they're cheap.
+     *
+     * @param context The context to use for looking up colors and checking availability.
+     * @param tasks   The tasks to build rows for.
+     * @return A list of rows, in the same order as the tasks.
+     */
+    public static List<TaskRow> build(Context context, List<Task> tasks)
+    {
+        long section = PerfTrace.begin(PerfTrace.BUILD_ROWS);
+        int doneColor = Color.RED;
+        int waitingColor = ContextCompat.getColor(context, R.color.orange);
+        int readyColor = ContextCompat.getColor(context, R.color.green);
+        List<TaskRow> rows = new ArrayList<>(tasks.size());
+        Tasks owner = Tasks.getInstance();
+        long now = System.currentTimeMillis();
+        for (Task task : tasks)
+        {
+            String description = task.getDescription();
+            if (description.length() > MAX_DESCRIPTION_LENGTH)
+                description = description.substring(0, MAX_DESCRIPTION_LENGTH) + "...";
+            if (task.isDone())
+                rows.add(new TaskRow(task.getId(), description, TaskStatus.DONE, doneColor));
+            else if (!owner.isAvailable(task, now))
+                rows.add(new TaskRow(task.getId(), description, TaskStatus.WAITING, waitingColor));
+            else
+                rows.add(new TaskRow(task.getId(), description, TaskStatus.READY, readyColor));
+        }
+        PerfTrace.end(PerfTrace.BUILD_ROWS, section);
+        return rows;
+    }
+}
@@ -0,0 +1,355 @@
+package com.stevedegroof.tellmewhattodo;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.LocaleList;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders the human-readable summary of a task (see {@link #getSummary(Context, Task)}).
+ * <p>
+ * The format strings used in the summary are read from the resources once per locale and split
+ * into their literal text and placeholders ahead of time, so rendering a summary just appends
+ * the pieces and the task's values to a single builder, which is reused from one summary to the
+ * next. Times are written straight into the builder too.
+ * </p>
+ * <p>
+ * Digits are only written directly when the locale uses the ASCII digits; otherwise each
+ * format string is formatted with {@link String#format}, as before, so the output doesn't change.
+ * </p>
+ * <p>
+ * The rendered summary is cached in the task itself, along with the version of the task and the
+ * templates it was rendered with. Changing any field shown in the summary changes the version,
+ * and changing the locale changes the templates, so a stale summary is never returned.
+ * </p>
+ */
+public class TaskSummaryRenderer
+{
+    private static final TaskSummaryRenderer instance = new TaskSummaryRenderer();
+
+    private volatile Templates templates;
+    private final StringBuilder builder = new StringBuilder(128);
+    private final StringBuilder firstTime = new StringBuilder(16);
+    private final StringBuilder secondTime = new StringBuilder(16);
+
+    private TaskSummaryRenderer()
+    {
+    }
+
+    public static TaskSummaryRenderer getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * A format string, split into its literal text and placeholders.
+     * Only {@code %s} and {@code %d} (optionally with an argument index, as in {@code %1$s}),
+     * {@code %%} and {@code %n} are understood; anything else is formatted with
+     * {@link String#format}.
+     */
+    static final class Template
+    {
+        private final String format;
+        private final String[] literals; //one more than there are placeholders, or null if not parsed
+        private final int[] args; //the argument shown by each placeholder
+
+        Template(String format, boolean parse)
+        {
+            this.format = format;
+            List<String> literals = new ArrayList<>();
+            List<Integer> args = new ArrayList<>();
+            boolean parsed = parse;
+            StringBuilder literal = new StringBuilder();
+            int next = 0;
+            for (int i = 0; parsed && i < format.length(); i++)
+            {
+                char c = format.charAt(i);
+                if (c != '%')
+                {
+                    literal.append(c);
+                    continue;
+                }
+                int j = i + 1;
+                int index = -1;
+                while (j < format.length() && Character.isDigit(format.charAt(j)))
+                    j++;
+                if (j > i + 1 && j < format.length() && format.charAt(j) == '$')
+                {
+                    index = Integer.parseInt(format.substring(i + 1, j)) - 1;
+                    j++;
+                } else
+                {
+                    j = i + 1;
+                }
+                char conversion = j < format.length() ? format.charAt(j) : 0;
+                if (conversion == '%' && index < 0)
+                    literal.append('%');
+                else if (conversion == 'n' && index < 0)
+                    literal.append('\n');
+                else if (conversion == 's' || conversion == 'd')
+                {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    args.add(index < 0 ? next++ : index);
+                } else
+                    parsed = false; //widths, flags etc. are left to String.format
+                i = j;
+            }
+            if (parsed)
+            {
+                literals.add(literal.toString());
+                this.literals = literals.toArray(new String[0]);
+                this.args = new int[args.size()];
+                for (int i = 0; i < this.args.length; i++)
+                    this.args[i] = args.get(i);
+            } else
+            {
+                this.literals = null;
+                this.args = null;
+            }
+        }
+
+        /**
+         * Appends the formatted template to a builder.
+         *
+         * @param sb   The builder to append to.
+         * @param args The values of the placeholders.
+         */
+        void append(StringBuilder sb, Object... args)
+        {
+            if (literals == null)
+            {
+                sb.append(String.format(format, args));
+                return;
+            }
+            sb.append(literals[0]);
+            for (int i = 0; i < this.args.length; i++)
+            {
+                Object arg = args[this.args[i]];
+                if (arg instanceof Integer)
+                    sb.append(((Integer) arg).intValue());
+                else if (arg instanceof CharSequence)
+                    sb.append((CharSequence) arg);
+                else
+                    sb.append(arg);
+                sb.append(literals[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * The templates and names used in summaries, for one locale.
+     */
+    static final class Templates
+    {
+        final LocaleList locales;
+        final Locale formatLocale;
+        final boolean asciiDigits;
+        final String priorityLow;
+        final String priorityMedium;
+        final String priorityHigh;
+        final String priorityUrgent;
+        final String am;
+        final String pm;
+        final String setTime;
+        final Template everyHours;
+        final Template everyDays;
+        final Template everyWeeks;
+        final Template everyMonths;
+        final Template everyYears;
+        final Template between;
+        final Template from;
+        final Template until;
+        final Template at;
+        final Template on;
+        final Template onThe;
+        final Template in;
+
+        Templates(Resources resources)
+        {
+            locales = resources.getConfiguration().getLocales();
+            formatLocale = Locale.getDefault(Locale.Category.FORMAT);
+            asciiDigits = DecimalFormatSymbols.getInstance(formatLocale).getZeroDigit() == '0';
+            priorityLow = resources.getString(R.string.priority_low);
+            priorityMedium = resources.getString(R.string.priority_medium);
+            priorityHigh = resources.getString(R.string.priority_high);
+            priorityUrgent = resources.getString(R.string.priority_urgent);
+            am = resources.getString(R.string.am);
+            pm = resources.getString(R.string.pm);
+            setTime = resources.getString(R.string.set_time);
+            everyHours = new Template(resources.getString(R.string.repeat_every_d_hour_s), asciiDigits);
+            everyDays = new Template(resources.getString(R.string.repeat_every_d_day_s), asciiDigits);
+            everyWeeks = new Template(resources.getString(R.string.repeat_every_d_week_s), asciiDigits);
+            everyMonths = new Template(resources.getString(R.string.repeat_every_d_month_s), asciiDigits);
+            everyYears = new Template(resources.getString(R.string.repeat_every_d_year_s), asciiDigits);
+            between = new Template(resources.getString(R.string.between_s_and_s), asciiDigits);
+            from = new Template(resources.getString(R.string.from_s), asciiDigits);
+            until = new Template(resources.getString(R.string.until_s), asciiDigits);
+            at = new Template(resources.getString(R.string.at_s), asciiDigits);
+            on = new Template(resources.getString(R.string.on_s), asciiDigits);
+            onThe = new Template(resources.getString(R.string.on_the_s), asciiDigits);
+            in = new Template(resources.getString(R.string.in_s), asciiDigits);
+        }
+
+        boolean isCurrent(Resources resources)
+        {
+            return locales.equals(resources.getConfiguration().getLocales())
+                    && formatLocale.equals(Locale.getDefault(Locale.Category.FORMAT));
+        }
+    }
+
+    /**
+     * Gets a human-readable summary of the task's properties.
+     * The summary includes the task description, priority, and repetition details (if any).
+     * It's kept in the task until a field shown in it changes, or the locale changes.
+     *
+     * @param context The context, for the names of days and months.
+     * @param task    The task to summarize.
+     * @return A string containing the task summary.
+     */
+    public String getSummary(Context context, Task task)
+    {
+        Templates templates = getTemplates(context);
+        String summary = task.getSummary(templates);
+        if (summary == null)
+        {
+            Metrics.count(Metrics.SUMMARY_MISS);
+            summary = render(context, templates, task);
+            task.setSummary(summary, templates);
+        } else
+        {
+            Metrics.count(Metrics.SUMMARY_HIT);
+        }
+        return summary;
+    }
+
+    /**
+     * Gets the templates for the current locale, building them if this is the first call, or if
+     * the locale has changed since they were built.
+     */
+    Templates getTemplates(Context context)
+    {
+        Resources resources = context.getResources();
+        Templates current = templates;
+        if (current == null || !current.isCurrent(resources))
+        {
+            current = new Templates(resources);
+            templates = current;
+        }
+        return current;
+    }
+
+    /**
+     * Renders the summary of a task.
+     * This doesn't use or update the cached summary; see {@link #getSummary(Context, Task)}.
+     *
+     * @param context   The context, for the names of days and months.
+     * @param templates The templates to render with.
+     * @param task      The task to summarize.
+     * @return The summary.
+     */
+    synchronized String render(Context context, Templates templates, Task task)
+    {
+        StringBuilder sb = builder;
+        sb.setLength(0);
+        String description = task.getDescription();
+        if (description != null && !description.isEmpty())
+            sb.append(description).append('\n');
+        switch (task.getWeight())
+        {
+            case Task.PRIORITY_LOW:
+                sb.append(templates.priorityLow);
+                break;
+            case Task.PRIORITY_MEDIUM:
+                sb.append(templates.priorityMedium);
+                break;
+            case Task.PRIORITY_HIGH:
+                sb.append(templates.priorityHigh);
+                break;
+            case Task.PRIORITY_URGENT:
+                sb.append(templates.priorityUrgent);
+                break;
+        }
+        int interval = task.getRepeatInterval();
+        int minute = task.getMinute();
+        int minMinute = task.getMinMinute();
+        int maxMinute = task.getMaxMinute();
+        int dayOfWeek = task.getDayOfWeek();
+        int dayOfMonth = task.getDayOfMonth();
+        int month = task.getMonth();
+        switch (task.getRepeatType())
+        {
+            case Task.REPEAT_TYPE_HOURLY:
+                templates.everyHours.append(sb, interval);
+                if (minMinute != Task.START_OF_DAY && maxMinute != Task.END_OF_DAY)
+                    templates.between.append(sb, time(context, templates, firstTime, minMinute), time(context, templates, secondTime, maxMinute));
+                else if (minMinute != Task.START_OF_DAY)
+                    templates.from.append(sb, time(context, templates, firstTime, minMinute));
+                else if (maxMinute != Task.END_OF_DAY)
+                    templates.until.append(sb, time(context, templates, firstTime, maxMinute));
+                break;
+            case Task.REPEAT_TYPE_DAILY:
+                templates.everyDays.append(sb, interval);
+                if (minute != Task.ANY_TIME)
+                    templates.at.append(sb, time(context, templates, firstTime, minute));
+                break;
+            case Task.REPEAT_TYPE_WEEKLY:
+                templates.everyWeeks.append(sb, interval);
+                if (dayOfWeek != Task.ANY_DAY_OF_WEEK)
+                    templates.on.append(sb, Util.getDayOfWeekName(context, dayOfWeek));
+                if (minute != Task.ANY_TIME)
+                    templates.at.append(sb, time(context, templates, firstTime, minute));
+                break;
+            case Task.REPEAT_TYPE_MONTHLY:
+                templates.everyMonths.append(sb, interval);
+                if (dayOfMonth != Task.ANY_DAY_OF_MONTH)
+                    templates.onThe.append(sb, Util.getDayOfMonthNameShort(context, dayOfMonth));
+                if (minute != Task.ANY_TIME)
+                    templates.at.append(sb, time(context, templates, firstTime, minute));
+                break;
+            case Task.REPEAT_TYPE_YEARLY:
+                templates.everyYears.append(sb, interval);
+                if (dayOfMonth != Task.ANY_DAY_OF_MONTH)
+                    templates.onThe.append(sb, Util.getDayOfMonthNameShort(context, dayOfMonth));
+                if (month != Task.ANY_MONTH)
+                    templates.in.append(sb, Util.getMonthName(context, month));
+                if (minute != Task.ANY_TIME)
+                    templates.at.append(sb, time(context, templates, firstTime, minute));
+                break;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a time into a scratch builder, the same as {@link Util#getTimeString(Context, int)}.
+     *
+     * @return The scratch builder, holding the time.
+     */
+    private static CharSequence time(Context context, Templates templates, StringBuilder sb, int minutes)
+    {
+        sb.setLength(0);
+        if (!templates.asciiDigits)
+            return sb.append(Util.getTimeString(context, minutes));
+        if (minutes == Task.ANY_TIME)
+            return sb.append(templates.setTime);
+        int hour = minutes / 60;
+        int minute = minutes % 60;
+        String ap = (hour < 12) ? templates.am : templates.pm;
+        if (hour > 12) hour -= 12;
+        if (hour == 0) hour = 12;
+        appendTwoDigits(sb, hour);
+        sb.append(':');
+        appendTwoDigits(sb, minute);
+        return sb.append(' ').append(ap);
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value)
+    {
+        if (value < 10) sb.append('0');
+        sb.append(value);
+    }
+}
@@ -1,25 +1,38 @@
 package com.stevedegroof.tellmewhattodo;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.os.LocaleList;
+import android.util.Log;
+import android.widget.Toast;
 
-import com.google.gson.Gson;
-
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * Utility class for common date and time operations, as well as task-related string conversions.
  * This class provides methods for:
  * <ul>
  *     <li>Getting names and integer representations of months, days of the week, and days of the month.</li>
- *     <li>Calculating the due time and default last run time for tasks.</li>
  *     <li>Converting task priority levels and repeat types to human-readable strings.</li>
  *     <li>Formatting time values into strings.</li>
  * </ul>
+ * <p>
+ * The names of months, days, priorities and repeat types are read from the resources once per
+ * locale, and kept in lookup tables that go both ways (see {@link Names}). So converting between
+ * a name and its {@link Task} constant is a single lookup, rather than reading the string array
+ * and searching it on every call.
+ * </p>
  */
 public class Util
 {
+    private static final String TAG = "Util";
+
+    /**
+     * The name of the app's shared preferences, where its settings are kept.
+     */
+    public static final String PREFS_NAME = "settings";
 
     private static final int[] DAYS_OF_MONTH_SHORT_INT = new int[]{Task.ANY_DAY_OF_MONTH, Task.LAST_DAY_OF_MONTH, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28};
     private static final int[] DAYS_OF_MONTH_LONG_INT = new int[]{Task.ANY_DAY_OF_MONTH, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31};
@@ -28,226 +41,177 @@ public class Util
     private static final int[] PRIORITY_INT = new int[]{Task.PRIORITY_LOW, Task.PRIORITY_MEDIUM, Task.PRIORITY_HIGH, Task.PRIORITY_URGENT};
     private static final int[] REPEAT_TYPE_INT = new int[]{Task.REPEAT_TYPE_HOURLY, Task.REPEAT_TYPE_DAILY, Task.REPEAT_TYPE_WEEKLY, Task.REPEAT_TYPE_MONTHLY, Task.REPEAT_TYPE_YEARLY};
 
+    private static volatile Names names;
+
+    /**
+     * The localized names used by the conversions in this class, for one set of locales.
+     * <p>
+     * Each string array is read from the resources once. Names are looked up by their
+     * {@link Task} constant through arrays indexed by the constant, and constants are looked up
+     * by name through hash maps of each name to its position in the string array.
+     * A table is never changed once built; when the locale changes, a new one is built.
+     * </p>
+     */
+    private static final class Names
+    {
+        final LocaleList locales;
+        final String[] months;
+        final String[] daysOfWeek;
+        final String[] daysOfMonth;
+        final String[] daysOfMonthShort;
+        final String[] daysOfMonthLong;
+        final String[] priorities;
+        final String[] repeatTypes;
+        final String[] daysOfMonthShortByDay = new String[Task.LAST_DAY_OF_MONTH + 1];
+        final String[] daysOfMonthLongByDay = new String[Task.LAST_DAY_OF_MONTH + 1];
+        final HashMap<Integer, String> priorityByWeight = new HashMap<>();
+        final HashMap<Integer, String> repeatTypeByType = new HashMap<>();
+        final HashMap<String, Integer> monthIndex;
+        final HashMap<String, Integer> dayOfWeekIndex;
+        final HashMap<String, Integer> dayOfMonthIndex;
+        final HashMap<String, Integer> dayOfMonthShortIndex;
+        final HashMap<String, Integer> dayOfMonthLongIndex;
+        final HashMap<String, Integer> priorityIndex;
+        final HashMap<String, Integer> repeatTypeIndex;
+
+        Names(Resources resources)
+        {
+            locales = resources.getConfiguration().getLocales();
+            months = resources.getStringArray(R.array.months_array);
+            daysOfWeek = resources.getStringArray(R.array.days_of_week_array);
+            daysOfMonth = resources.getStringArray(R.array.days_of_month_array);
+            daysOfMonthShort = resources.getStringArray(R.array.days_of_month_short_array);
+            daysOfMonthLong = resources.getStringArray(R.array.days_of_month_long_array);
+            priorities = resources.getStringArray(R.array.priority_array);
+            repeatTypes = resources.getStringArray(R.array.repeat_type_array);
+            for (int i = 0; i < DAYS_OF_MONTH_SHORT_INT.length; i++)
+                daysOfMonthShortByDay[DAYS_OF_MONTH_SHORT_INT[i]] = daysOfMonthShort[i];
+            for (int i = 0; i < DAYS_OF_MONTH_LONG_INT.length; i++)
+                daysOfMonthLongByDay[DAYS_OF_MONTH_LONG_INT[i]] = daysOfMonthLong[i];
+            priorityByWeight.put(Task.PRIORITY_LOW, resources.getString(R.string.Low));
+            priorityByWeight.put(Task.PRIORITY_MEDIUM, resources.getString(R.string.Medium));
+            priorityByWeight.put(Task.PRIORITY_HIGH, resources.getString(R.string.High));
+            priorityByWeight.put(Task.PRIORITY_URGENT, resources.getString(R.string.Urgent));
+            repeatTypeByType.put(Task.REPEAT_TYPE_HOURLY, resources.getString(R.string.repeat_hours));
+            repeatTypeByType.put(Task.REPEAT_TYPE_DAILY, resources.getString(R.string.repeat_days));
+            repeatTypeByType.put(Task.REPEAT_TYPE_WEEKLY, resources.getString(R.string.repeat_weeks));
+            repeatTypeByType.put(Task.REPEAT_TYPE_MONTHLY, resources.getString(R.string.repeat_months));
+            repeatTypeByType.put(Task.REPEAT_TYPE_YEARLY, resources.getString(R.string.repeat_years));
+            monthIndex = indexOf(months);
+            dayOfWeekIndex = indexOf(daysOfWeek);
+            dayOfMonthIndex = indexOf(daysOfMonth);
+            dayOfMonthShortIndex = indexOf(daysOfMonthShort);
+            dayOfMonthLongIndex = indexOf(daysOfMonthLong);
+            priorityIndex = indexOf(priorities);
+            repeatTypeIndex = indexOf(repeatTypes);
+        }
+
+        /**
+         * Maps each name to its position in the array.
+         * If a name appears more than once, the first position is kept, as with {@link java.util.List#indexOf}.
+         */
+        private static HashMap<String, Integer> indexOf(String[] array)
+        {
+            HashMap<String, Integer> index = new HashMap<>(array.length * 2);
+            for (int i = 0; i < array.length; i++)
+                index.putIfAbsent(array[i], i);
+            return index;
+        }
+
+        /**
+         * @return The position of the name in its array, or -1 if it isn't there.
+         */
+        static int find(HashMap<String, Integer> index, String name)
+        {
+            Integer i = index.get(name);
+            return i == null ? -1 : i;
+        }
+    }
+
+    /**
+     * Gets the names for the current locale, building them if this is the first call, or if
+     * the locale has changed since they were built.
+     */
+    private static Names getNames(Context context)
+    {
+        Resources resources = context.getResources();
+        Names current = names;
+        if (current == null || !current.locales.equals(resources.getConfiguration().getLocales()))
+        {
+            current = new Names(resources);
+            names = current;
+        }
+        return current;
+    }
+
+    /**
+     * Discards the cached names, so they're read again from the resources on the next call.
+     * Called when the configuration changes.
+     */
+    public static void clearNames()
+    {
+        names = null;
+    }
+
     public static String getMonthName(Context context, int month)
     {
         if (month == 0) return null;
-        return context.getResources().getStringArray(R.array.months_array)[month - 1];
+        return getNames(context).months[month - 1];
     }
 
     public static String getDayOfWeekName(Context context, int dayOfWeek)
     {
-        return context.getResources().getStringArray(R.array.days_of_week_array)[dayOfWeek];
+        return getNames(context).daysOfWeek[dayOfWeek];
     }
 
     public static String getDayOfMonthNameShort(Context context, int dayOfMonth)
     {
-        int index = -1;
-        for (int i = 0; i < DAYS_OF_MONTH_SHORT_INT.length; i++)
-        {
-            if (DAYS_OF_MONTH_SHORT_INT[i] == dayOfMonth)
-            {
-                index = i;
-                break;
-            }
-        }
-        return context.getResources().getStringArray(R.array.days_of_month_short_array)[index];
+        return getNames(context).daysOfMonthShortByDay[dayOfMonth];
     }
 
     public static String getDayOfMonthNameLong(Context context, int dayOfMonth)
     {
-        int index = -1;
-        for (int i = 0; i < DAYS_OF_MONTH_LONG_INT.length; i++)
-        {
-            if (DAYS_OF_MONTH_LONG_INT[i] == dayOfMonth)
-            {
-                index = i;
-                break;
-            }
-        }
-        return context.getResources().getStringArray(R.array.days_of_month_long_array)[index];
+        return getNames(context).daysOfMonthLongByDay[dayOfMonth];
     }
 
     public static int getDayOfMonthIntShort(Context context, String dayOfMonth)
     {
-        int index = Arrays.asList(context.getResources().getStringArray(R.array.days_of_month_short_array)).indexOf(dayOfMonth);
-        return DAYS_OF_MONTH_SHORT_INT[index];
+        return DAYS_OF_MONTH_SHORT_INT[Names.find(getNames(context).dayOfMonthShortIndex, dayOfMonth)];
     }
 
     public static int getDayOfMonthIntLong(Context context, String dayOfMonth)
     {
-        int index = Arrays.asList(context.getResources().getStringArray(R.array.days_of_month_long_array)).indexOf(dayOfMonth);
-        return DAYS_OF_MONTH_LONG_INT[index];
+        return DAYS_OF_MONTH_LONG_INT[Names.find(getNames(context).dayOfMonthLongIndex, dayOfMonth)];
     }
 
     public static int getDayOfWeekInt(Context context, String dayOfWeek)
     {
-        return Arrays.asList(context.getResources().getStringArray(R.array.days_of_week_array)).indexOf(dayOfWeek);
+        return Names.find(getNames(context).dayOfWeekIndex, dayOfWeek);
     }
 
     public static int getMonthInt(Context context, String month)
     {
-        return Arrays.asList(context.getResources().getStringArray(R.array.months_array)).indexOf(month) + 1;
+        return Names.find(getNames(context).monthIndex, month) + 1;
     }
 
     public static String[] getMonths(Context context)
     {
-        return context.getResources().getStringArray(R.array.months_array);
+        return getNames(context).months.clone();
     }
 
     public static String[] getDaysOfWeek(Context context)
     {
-        return context.getResources().getStringArray(R.array.days_of_week_array);
+        return getNames(context).daysOfWeek.clone();
     }
 
     public static String[] getDaysOfMonthShort(Context context)
     {
-        return context.getResources().getStringArray(R.array.days_of_month_short_array);
+        return getNames(context).daysOfMonthShort.clone();
     }
 
     public static String[] getDaysOfMonthLong(Context context)
     {
-        return context.getResources().getStringArray(R.array.days_of_month_long_array);
-    }
-
-    public static long getDueTime(Context context, Task task)
-    {
-        Calendar due = Calendar.getInstance(); //start with current date and time
-        if (task.getLastRun() > 0)
-            due.setTimeInMillis(task.getLastRun()); //if there is a last run, use that instead
-        int minute = (task.getMinute() == Task.ANY_TIME) ? 0 : task.getMinute() % 60;
-        int hour = (task.getMinute() == Task.ANY_TIME) ? 0 : task.getMinute() / 60;
-        int dayOfMonth = task.getDayOfMonth();
-        int dayOfWeek = task.getDayOfWeek();
-        switch (task.getRepeatType())
-        {
-            case Task.REPEAT_TYPE_HOURLY: //repeating 1 or more hours
-                //add the number of hours
-                due.add(Calendar.HOUR, task.getRepeatInterval());
-                int dueMinute = due.get(Calendar.HOUR_OF_DAY) * 60 + due.get(Calendar.MINUTE);
-                if (dueMinute > task.getMaxMinute()) //if after the end of the day, go to next day
-                {
-                    due.add(Calendar.DAY_OF_MONTH, 1);
-                    due.set(Calendar.HOUR_OF_DAY, task.getMinMinute() / 60);
-                    due.set(Calendar.MINUTE, task.getMinMinute() % 60);
-                } else if (dueMinute < task.getMinMinute()) //if before the start of the day, set to start of day
-                {
-                    due.set(Calendar.HOUR_OF_DAY, task.getMinMinute() / 60);
-                    due.set(Calendar.MINUTE, task.getMinMinute() % 60);
-                }
-                break;
-            case Task.REPEAT_TYPE_DAILY: //repeating 1 or more days
-                due.add(Calendar.DAY_OF_MONTH, task.getRepeatInterval());
-                due.set(Calendar.HOUR_OF_DAY, hour);
-                due.set(Calendar.MINUTE, minute);
-                break;
-            case Task.REPEAT_TYPE_WEEKLY: //repeating 1 or more weeks
-                due.add(Calendar.WEEK_OF_YEAR, task.getRepeatInterval());
-                if (dayOfWeek != Task.ANY_DAY_OF_WEEK)
-                    due.set(Calendar.DAY_OF_WEEK, task.getDayOfWeek());
-                due.set(Calendar.HOUR_OF_DAY, hour);
-                due.set(Calendar.MINUTE, minute);
-                break;
-            case Task.REPEAT_TYPE_MONTHLY: //repeating 1 or more months
-                due.set(Calendar.DAY_OF_MONTH, 1);
-                due.add(Calendar.MONTH, task.getRepeatInterval()); //add the number of months
-                if (dayOfMonth == Task.LAST_DAY_OF_MONTH) //if last day of month, end of month
-                    dayOfMonth = due.getActualMaximum(Calendar.DAY_OF_MONTH);
-                else if (dayOfMonth != Task.ANY_DAY_OF_MONTH) //if not any day, use day
-                    dayOfMonth = task.getDayOfMonth();
-                due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
-                due.set(Calendar.HOUR_OF_DAY, hour);
-                due.set(Calendar.MINUTE, minute);
-                break;
-            case Task.REPEAT_TYPE_YEARLY: //repeating 1 or more years
-                due.add(Calendar.YEAR, task.getRepeatInterval());
-                due.set(Calendar.MONTH, task.getMonth()-1);
-                if (dayOfMonth == Task.LAST_DAY_OF_MONTH) //if last day of month, end of month
-                    dayOfMonth = due.getActualMaximum(Calendar.DAY_OF_MONTH);
-                else if (dayOfMonth != Task.ANY_DAY_OF_MONTH) //if not any day, use day
-                    dayOfMonth = task.getDayOfMonth();
-                due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
-                due.set(Calendar.HOUR_OF_DAY, hour);
-                due.set(Calendar.MINUTE, minute);
-                break;
-            default:
-                break;
-        }
-        Date lastRunDate = new Date(task.getLastRun());
-        return due.getTimeInMillis();
-    }
-
-    /**
-     * Calculates the default last run time for a task.
-     * This is used when a task is first created and doesn't have a last run time yet.
-     * The default last run time is calculated based on the task's repeat type and interval.
-     * For example, if a task repeats daily, the default last run time will be yesterday.
-     * If the calculated last run time is in the future, it will be adjusted to be in the past.
-     * If the task is non-repeating, the default last run time will be the current time.
-     *
-     * @param task The task for which to calculate the default last run time.
-     * @return The default last run time in milliseconds.
-     */
-    public static long getDefaultLastRun(Context context, Task task)
-    {
-        Calendar lastRun = Calendar.getInstance();
-        long now = System.currentTimeMillis();
-        int interval = task.getRepeatInterval();
-        switch (task.getRepeatType())
-        {
-            case Task.REPEAT_TYPE_HOURLY:
-                break;
-            case Task.REPEAT_TYPE_DAILY:
-                if (task.getMinute() != Task.ANY_TIME)
-                {
-                    lastRun.set(Calendar.HOUR_OF_DAY, task.getMinute() / 60);
-                    lastRun.set(Calendar.MINUTE, task.getMinute() % 60);
-                    lastRun.add(Calendar.DAY_OF_MONTH, ((lastRun.getTimeInMillis() > now) ? 0 : 1) - interval);
-                }
-                break;
-            case Task.REPEAT_TYPE_WEEKLY:
-                if (task.getMinute() != Task.ANY_TIME)
-                {
-                    lastRun.set(Calendar.HOUR_OF_DAY, task.getMinute() / 60);
-                    lastRun.set(Calendar.MINUTE, task.getMinute() % 60);
-                }
-                if (task.getDayOfWeek() != Task.ANY_DAY_OF_WEEK)
-                {
-                    lastRun.set(Calendar.DAY_OF_WEEK, task.getDayOfWeek());
-                }
-                lastRun.add(Calendar.WEEK_OF_YEAR, ((lastRun.getTimeInMillis() > now) ? 0 : 1) - interval);
-                break;
-            case Task.REPEAT_TYPE_MONTHLY:
-                if (task.getMinute() != Task.ANY_TIME)
-                {
-                    lastRun.set(Calendar.HOUR_OF_DAY, task.getMinute() / 60);
-                    lastRun.set(Calendar.MINUTE, task.getMinute() % 60);
-                }
-                if (task.getDayOfMonth() != Task.ANY_DAY_OF_MONTH)
-                {
-                    lastRun.set(Calendar.DAY_OF_MONTH, task.getDayOfMonth());
-                }
-                lastRun.add(Calendar.MONTH, ((lastRun.getTimeInMillis() > now) ? 0 : 1) - interval);
-                break;
-            case Task.REPEAT_TYPE_YEARLY:
-                if (task.getMinute() != Task.ANY_TIME)
-                {
-                    lastRun.set(Calendar.HOUR_OF_DAY, task.getMinute() / 60);
-                    lastRun.set(Calendar.MINUTE, task.getMinute() % 60);
-                }
-                if (task.getDayOfMonth() != Task.ANY_DAY_OF_MONTH)
-                {
-                    lastRun.set(Calendar.DAY_OF_MONTH, task.getDayOfMonth());
-                }
-                if (task.getMonth() != Task.ANY_MONTH)
-                {
-                    lastRun.set(Calendar.MONTH, task.getMonth()-1);
-                }
-                lastRun.add(Calendar.YEAR, ((lastRun.getTimeInMillis() > now) ? 0 : 1) - interval);
-                break;
-            default:
-                break;
-        }
-        return lastRun.getTimeInMillis();
+        return getNames(context).daysOfMonthLong.clone();
     }
 
 
@@ -259,18 +223,8 @@ public class Util
      */
     public static String getPriorityString(Context context, int weight)
     {
-        switch (weight)
-        {
-            case Task.PRIORITY_LOW:
-                return context.getString(R.string.Low);
-            case Task.PRIORITY_MEDIUM:
-                return context.getString(R.string.Medium);
-            case Task.PRIORITY_HIGH:
-                return context.getString(R.string.High);
-            case Task.PRIORITY_URGENT:
-                return context.getString(R.string.Urgent);
-        }
-        return "";
+        String priority = getNames(context).priorityByWeight.get(weight);
+        return priority == null ? "" : priority;
     }
 
     /**
@@ -281,20 +235,8 @@ public class Util
      */
     public static String getRepeatTypeString(Context context, int repeatType)
     {
-        switch (repeatType)
-        {
-            case Task.REPEAT_TYPE_HOURLY:
-                return context.getString(R.string.repeat_hours);
-            case Task.REPEAT_TYPE_DAILY:
-                return context.getString(R.string.repeat_days);
-            case Task.REPEAT_TYPE_WEEKLY:
-                return context.getString(R.string.repeat_weeks);
-            case Task.REPEAT_TYPE_MONTHLY:
-                return context.getString(R.string.repeat_months);
-            case Task.REPEAT_TYPE_YEARLY:
-                return context.getString(R.string.repeat_years);
-        }
-        return "";
+        String name = getNames(context).repeatTypeByType.get(repeatType);
+        return name == null ? "" : name;
     }
 
     /**
@@ -324,8 +266,7 @@ public class Util
      */
     public static int getDayOfMonthInt(Context context, String string)
     {
-        int index = Arrays.asList(context.getResources().getStringArray(R.array.days_of_month_array)).indexOf(string);
-        return DAYS_OF_MONTH_INT[index];
+        return DAYS_OF_MONTH_INT[Names.find(getNames(context).dayOfMonthIndex, string)];
     }
 
     /**
@@ -364,27 +305,54 @@ public class Util
             {
                 throw new IllegalArgumentException("Invalid JSON");
             }
-            Tasks tasks = new Gson().fromJson(json, Tasks.class);
-            String descriptions = "";
+            Tasks tasks = Tasks.GSON.fromJson(json, Tasks.class);
+            StringBuilder descriptions = new StringBuilder();
             for (Task task : tasks.getTasks())
-                descriptions += task.getDescription() + "||";
-            return descriptions;
+                descriptions.append(task.getDescription()).append("||");
+            return descriptions.toString();
         } catch (Exception e)
         {
             throw new IllegalArgumentException("Invalid JSON");
         }
     }
 
+    /**
+     * Saves the tasks, telling the user if they couldn't be saved.
+     * The tasks stay as they are in memory, and the tasks file stays as it was, so the next
+     * save can still succeed.
+     *
+     * @return {@code true} if the tasks were saved.
+     */
+    /**
+     * @return The app's shared preferences, where its settings are kept.
+     */
+    public static SharedPreferences getPreferences(Context context)
+    {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static boolean saveTasks(Context context)
+    {
+        try
+        {
+            Tasks.getInstance().save();
+            return true;
+        } catch (IOException e)
+        {
+            Log.e(TAG, "Tasks not saved", e);
+            Toast.makeText(context, R.string.tasks_not_saved, Toast.LENGTH_LONG).show();
+            return false;
+        }
+    }
+
     public static int getPriorityInt(Context context, String priority)
     {
-        int index = Arrays.asList(context.getResources().getStringArray(R.array.priority_array)).indexOf(priority);
-        return PRIORITY_INT[index];
+        return PRIORITY_INT[Names.find(getNames(context).priorityIndex, priority)];
     }
 
     public static int getRepeatTypeInt(Context applicationContext, String repeatType)
     {
-        int index = Arrays.asList(applicationContext.getResources().getStringArray(R.array.repeat_type_array)).indexOf(repeatType);
-        return Util.REPEAT_TYPE_INT[index];
+        return Util.REPEAT_TYPE_INT[Names.find(getNames(applicationContext).repeatTypeIndex, repeatType)];
     }
 
     public static boolean isDayOfMonthValid(int dayOfMonth, int month)
@@ -7,17 +7,23 @@ import android.graphics.drawable.GradientDrawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.checkbox.MaterialCheckBox;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
  * Adapter class for displaying tasks in a RecyclerView.
@@ -25,41 +31,283 @@ import java.util.Set;
  * and selection state (checkbox). It also manages interactions with the tasks, such as
  * selection and clicks, through the {@link OnTaskInteractionListener}.
  * <p>
- * The adapter internally maintains a set of selected tasks to manage the selection state
- * of checkboxes. The status of a task (Done, Waiting, Ready) determines the background
- * color of the item view.
+ * The adapter displays precomputed {@link TaskRow}s, so binding a row never has to work out
+ * a task's status. Rows are loaded a page at a time from a {@link TaskSource} by a
+ * {@link TaskPager}, so only the rows around the scroll position are ever in memory; rows that
+ * aren't loaded yet are shown as blank placeholders. When the tasks change, the reloaded rows
+ * are diffed against the old ones on a background thread, so only rows that actually changed
+ * are rebound, and rows whose status is all that changed are only partially rebound.
+ * Item IDs are stable and derived from the task IDs.
+ * <p>
+ * The tasks are either shown as one flat list (see {@link #setSource(TaskSource)}), or in
+ * sections by status from a {@link SortedTaskIndex} (see {@link #setIndex(SortedTaskIndex)}).
+ * Each section has a header showing its count, which can be tapped to collapse or expand it,
+ * and its own pager, so each section is loaded and diffed independently.
+ * <p>
+ * The adapter keeps the selection as a {@link TaskSelection}, keyed by task ID, to manage the
+ * selection state of checkboxes. Bulk changes to the selection only rebind the loaded rows.
+ * The status of a task (Done, Waiting, Ready) determines the background color of the item view.
  */
-public class ViewTaskAdapter extends RecyclerView.Adapter<ViewTaskAdapter.TaskViewHolder> {
+public class ViewTaskAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    static final Object PAYLOAD_STATUS = new Object();
+    private static final Object PAYLOAD_SELECTION = new Object();
+    private static final Object PAYLOAD_HEADER = new Object();
 
-    private final List<Task> tasksList;
+    private static final int VIEW_TYPE_TASK = 0;
+    private static final int VIEW_TYPE_HEADER = 1;
+    private static final TaskSource EMPTY_SOURCE = new TaskIdSource(Collections.emptyList());
+
+    private final Context context;
+    private final Executor executor;
     private final OnTaskInteractionListener listener;
-    private final Set<Task> selectedTasks = new HashSet<>(); // To manage selection state internally
+    private final List<Section> sections = new ArrayList<>();
+    private final TaskSelection selection = new TaskSelection(); // To manage selection state internally
+    private final Set<TaskStatus> collapsedStatuses = EnumSet.noneOf(TaskStatus.class);
+    private SortedTaskIndex index;
 
     public interface OnTaskInteractionListener {
-        void onTaskSelected(Task task, boolean isSelected);
+        void onSelectionChanged(TaskSelection selection);
         void onTaskClicked(Task task);
     }
 
-    public ViewTaskAdapter(List<Task> tasksList, OnTaskInteractionListener listener) {
-        this.tasksList = tasksList;
+    /**
+     * A group of rows, loaded by its own pager, under an optional header.
+     */
+    private class Section {
+        final TaskStatus status; // null for a flat list with no header
+        TaskSource source;
+        final TaskPager pager;
+
+        Section(TaskStatus status, TaskSource source) {
+            this.status = status;
+            this.source = source;
+            TaskSource shown = status != null && collapsedStatuses.contains(status) ? EMPTY_SOURCE : source;
+            this.pager = new TaskPager(context, shown, executor, new SectionCallback(this));
+        }
+
+        int getHeaderCount() {
+            return status == null ? 0 : 1;
+        }
+
+        int getItemCount() {
+            return getHeaderCount() + pager.getCount();
+        }
+
+        boolean isCollapsed() {
+            return status != null && collapsedStatuses.contains(status);
+        }
+    }
+
+    /**
+     * Shifts a section's row positions to adapter positions.
+     * Updates from a section that's no longer shown are ignored.
+     */
+    private class SectionCallback implements TaskPager.Callback {
+        private final Section section;
+
+        SectionCallback(Section section) {
+            this.section = section;
+        }
+
+        @Override
+        public void onRowsLoaded(int position, int count) {
+            int start = getRowStart(section);
+            if (start >= 0) notifyItemRangeChanged(start + position, count);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            int start = getRowStart(section);
+            if (start >= 0) notifyItemRangeInserted(start + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            int start = getRowStart(section);
+            if (start >= 0) notifyItemRangeRemoved(start + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            int start = getRowStart(section);
+            if (start >= 0) notifyItemMoved(start + fromPosition, start + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            int start = getRowStart(section);
+            if (start >= 0) notifyItemRangeChanged(start + position, count, payload);
+        }
+    }
+
+    /**
+     * @param context  The context to use for building rows.
+     * @param source   The tasks to display, as a flat list.
+     * @param executor The executor to diff rows on (off the UI thread).
+     * @param listener Notified when tasks are selected or clicked.
+     */
+    public ViewTaskAdapter(Context context, TaskSource source, Executor executor, OnTaskInteractionListener listener) {
+        this.context = context.getApplicationContext();
+        this.executor = executor;
         this.listener = listener;
+        sections.add(new Section(null, source));
+        setHasStableIds(true);
+    }
+
+    /**
+     * Reloads the rows after the tasks have changed.
+     * The reloaded rows are diffed against the current ones in the background, and only the
+     * changes are dispatched to the RecyclerView. Section headers are rebound with their new counts.
+     */
+    public void refresh() {
+        for (Section section : sections) {
+            if (section.status != null) {
+                notifyItemChanged(getRowStart(section) - 1, PAYLOAD_HEADER);
+            }
+            section.pager.invalidate();
+        }
+    }
+
+    /**
+     * Switches to displaying a different set of tasks, as a flat list.
+     * If a flat list is already shown, the new rows are diffed against it.
+     *
+     * @param source The tasks to display.
+     */
+    public void setSource(TaskSource source) {
+        if (index == null) {
+            Section section = sections.get(0);
+            section.source = source;
+            section.pager.setSource(source);
+            return;
+        }
+        index = null;
+        sections.clear();
+        sections.add(new Section(null, source));
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @return The tasks being displayed as a flat list, or {@code null} if they're shown in sections.
+     */
+    public TaskSource getSource() {
+        return index == null ? sections.get(0).source : null;
+    }
+
+    /**
+     * Switches to displaying the tasks in sections by status, sorted by the given index.
+     * If the same index is already shown, this just refreshes it.
+     *
+     * @param index The index to display.
+     */
+    public void setIndex(SortedTaskIndex index) {
+        if (index == this.index) {
+            refresh();
+            return;
+        }
+        this.index = index;
+        sections.clear();
+        for (TaskStatus status : SortedTaskIndex.SECTIONS) {
+            sections.add(new Section(status, index.getSection(status)));
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @return The index being displayed, or {@code null} if the tasks are shown as a flat list.
+     */
+    public SortedTaskIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Collapses a section if it's expanded, or expands it if it's collapsed.
+     */
+    private void toggleSection(Section section) {
+        if (section.isCollapsed()) {
+            collapsedStatuses.remove(section.status);
+            section.pager.setSource(section.source);
+        } else {
+            collapsedStatuses.add(section.status);
+            section.pager.setSource(EMPTY_SOURCE);
+        }
+        notifyItemChanged(getRowStart(section) - 1, PAYLOAD_HEADER);
+    }
+
+    /**
+     * Gets the adapter position of a section's first row (after its header).
+     *
+     * @return The position, or -1 if the section isn't shown any more.
+     */
+    private int getRowStart(Section section) {
+        int position = 0;
+        for (Section s : sections) {
+            if (s == section) return position + s.getHeaderCount();
+            position += s.getItemCount();
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the section containing an adapter position.
+     */
+    private Section getSection(int position) {
+        for (Section section : sections) {
+            if (position < section.getItemCount()) return section;
+            position -= section.getItemCount();
+        }
+        return sections.get(sections.size() - 1);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        Section section = getSection(position);
+        return section.status != null && position == getRowStart(section) - 1 ? VIEW_TYPE_HEADER : VIEW_TYPE_TASK;
     }
 
     @NonNull
     @Override
-    public TaskViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_HEADER) {
+            View itemView = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_section_header, parent, false);
+            return new HeaderViewHolder(itemView);
+        }
         View itemView = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_view_task, parent, false);
         return new TaskViewHolder(itemView);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        Section section = getSection(position);
+        int start = getRowStart(section);
+        if (holder instanceof HeaderViewHolder) {
+            bindHeader((HeaderViewHolder) holder, section);
+        } else {
+            bindTask((TaskViewHolder) holder, section, position - start);
+        }
+    }
+
+    /**
+     * Shows a section's status, its count, and whether it's collapsed.
+     * Tapping the header collapses or expands the section.
+     */
+    private void bindHeader(HeaderViewHolder holder, Section section) {
+        holder.titleTextView.setText(TaskRow.getTextResId(section.status));
+        holder.countTextView.setText(String.valueOf(section.source.getCount()));
+        holder.indicatorTextView.setText(section.isCollapsed() ? "▶" : "▼");
+        holder.itemView.setOnClickListener(v -> toggleSection(section));
+    }
+
     /**
      * Called by RecyclerView to display the data at the specified position.
      * This method updates the contents of the {@link TaskViewHolder#itemView} to reflect the item at the
      * given position.
      *
-     * It sets the task description, truncating it if it's too long.
-     * It also sets the background color and status text of the item view based on the task's status:
+     * It sets the (already truncated) task description, and the background color and status text
+     * of the item view based on the row's precomputed status:
      * - "Done" (Red) if the task is completed.
      * - "Waiting" (Orange) if the task is not available.
      * - "Ready" (Green) if the task is available and not done.
@@ -72,79 +320,154 @@ public class ViewTaskAdapter extends RecyclerView.Adapter<ViewTaskAdapter.TaskVi
      *
      * @param holder   The ViewHolder which should be updated to represent the contents of the
      *                 item at the given position in the data set.
-     * @param position The position of the item within the adapter's data set.
+     * @param section  The section the row is in.
+     * @param position The position of the row within its section.
      */
-    @Override
-    public void onBindViewHolder(@NonNull TaskViewHolder holder, int position) {
-        Task currentTask = tasksList.get(position);
-        Context context = holder.itemView.getContext();
-
-        String fullDescription = currentTask.getDescription();
-        int maxLength = 50;
-        if (fullDescription.length() > maxLength) {
-            holder.descriptionTextView.setText(fullDescription.substring(0, maxLength) + "...");
-        } else {
-            holder.descriptionTextView.setText(fullDescription);
-        }
-        Drawable background = holder.itemView.getBackground().mutate();
-        if (background instanceof GradientDrawable) {
-            GradientDrawable gradientDrawable = (GradientDrawable) background;
-
-            if (currentTask.isDone()) {
-                holder.statusTextView.setText(R.string.donemc);
-                gradientDrawable.setColor(Color.RED);
-            } else if (!currentTask.isAvailable(context)) {
-                holder.statusTextView.setText(R.string.waiting);
-                gradientDrawable.setColor(ContextCompat.getColor(context, R.color.orange));
-            } else {
-                holder.statusTextView.setText(R.string.ready);
-                gradientDrawable.setColor(ContextCompat.getColor(context, R.color.green));
-            }
+    private void bindTask(@NonNull TaskViewHolder holder, Section section, int position) {
+        long start = Metrics.start();
+        TaskRow row = section.pager.getRow(position);
+        UUID taskId = getTaskId(section, position);
+
+        if (row == null) { // not loaded yet, so show a placeholder
+            holder.descriptionTextView.setText("");
+            holder.statusTextView.setText("");
+            holder.setColor(Color.TRANSPARENT);
         } else {
-            if (currentTask.isDone()) {
-                holder.statusTextView.setText(R.string.donemc);
-                holder.itemView.setBackgroundColor(Color.RED);
-            } else if (!currentTask.isAvailable(context)) {
-                holder.statusTextView.setText(R.string.waiting);
-                holder.itemView.setBackgroundColor(ContextCompat.getColor(context, R.color.orange));
-            } else {
-                holder.statusTextView.setText(R.string.ready);
-                holder.itemView.setBackgroundColor(ContextCompat.getColor(context, R.color.green));
-            }
+            holder.descriptionTextView.setText(row.getDescription());
+            holder.statusTextView.setText(TaskRow.getTextResId(row.getStatus()));
+            holder.setColor(row.getColor());
         }
 
-
         // Manage checkbox state
-        holder.taskSelectedCheckBox.setOnCheckedChangeListener(null);
-        holder.taskSelectedCheckBox.setChecked(selectedTasks.contains(currentTask));
-        holder.taskSelectedCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                selectedTasks.add(currentTask);
-            } else {
-                selectedTasks.remove(currentTask);
-            }
+        holder.checkedChangeListener = null;
+        holder.setCheckedSilently(taskId != null && selection.isSelected(taskId));
+        holder.checkedChangeListener = (buttonView, isChecked) -> {
+            if (taskId == null) return;
+            selection.setSelected(taskId, isChecked);
             if (listener != null) {
-                listener.onTaskSelected(currentTask, isChecked);
+                listener.onSelectionChanged(selection);
             }
-        });
+        };
+        holder.taskSelectedCheckBox.setOnCheckedChangeListener(holder.checkedChangeListener);
 
         // Handle item click
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onTaskClicked(currentTask);
+            Task task = taskId == null ? null : Tasks.getInstance().getTask(taskId);
+            if (listener != null && task != null) {
+                listener.onTaskClicked(task);
             }
         });
+        Metrics.stop(Metrics.BIND_TASK, start);
+    }
+
+    /**
+     * Rebinds only the parts of a row named by the payloads (status, selection or header count),
+     * falling back to a full bind when there are none.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        Section section = getSection(position);
+        if (holder instanceof HeaderViewHolder) {
+            bindHeader((HeaderViewHolder) holder, section);
+            return;
+        }
+        TaskRow row = section.pager.peekRow(position - getRowStart(section));
+        if (payloads.isEmpty() || row == null) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        TaskViewHolder taskHolder = (TaskViewHolder) holder;
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_STATUS) {
+                taskHolder.statusTextView.setText(TaskRow.getTextResId(row.getStatus()));
+                taskHolder.setColor(row.getColor());
+            } else if (payload == PAYLOAD_SELECTION) {
+                taskHolder.setCheckedSilently(selection.isSelected(row.getId()));
+            }
+        }
     }
 
     @Override
     public int getItemCount() {
-        return tasksList != null ? tasksList.size() : 0;
+        int count = 0;
+        for (Section section : sections) {
+            count += section.getItemCount();
+        }
+        return count;
     }
 
+    /**
+     * Item IDs are derived from the task ID and the section, so a task that moves to another
+     * section is treated as a new row there. Headers have fixed IDs.
+     */
+    @Override
+    public long getItemId(int position) {
+        Section section = getSection(position);
+        int sectionIndex = sections.indexOf(section);
+        int start = getRowStart(section);
+        if (position < start) return Long.MIN_VALUE + sectionIndex; // header
+        UUID id = getTaskId(section, position - start);
+        return id == null ? RecyclerView.NO_ID : 31 * (id.getMostSignificantBits() ^ id.getLeastSignificantBits()) + sectionIndex;
+    }
+
+    /**
+     * Gets the ID of the task at a position, from its row if it's loaded or else from the source.
+     *
+     * @return The task ID, or {@code null} if it isn't known (while the tasks are being reloaded).
+     */
+    @Nullable
+    private UUID getTaskId(Section section, int position) {
+        TaskRow row = section.pager.peekRow(position);
+        if (row != null) return row.getId();
+        TaskSource source = section.pager.getSource();
+        return position < source.getCount() ? source.getId(position) : null;
+    }
 
+
+    /**
+     * @return The selection. After changing it, call {@link #notifySelectionChanged()}.
+     */
+    public TaskSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Rebinds the checkboxes of the loaded rows after the selection has been changed in bulk,
+     * and notifies the listener. Rows that aren't loaded will pick up the change when they're bound.
+     */
+    public void notifySelectionChanged() {
+        for (Section section : sections) {
+            int start = getRowStart(section);
+            for (Map.Entry<Integer, List<TaskRow>> page : section.pager.getLoadedPages().entrySet()) {
+                notifyItemRangeChanged(start + page.getKey(), page.getValue().size(), PAYLOAD_SELECTION);
+            }
+        }
+        if (listener != null) {
+            listener.onSelectionChanged(selection);
+        }
+    }
+
+    /**
+     * Clears all selections, rebinding only the checkboxes of the loaded rows that were selected.
+     * Rows that aren't loaded will pick up the change when they're bound.
+     */
     public void clearSelections() {
-        selectedTasks.clear();
-        notifyDataSetChanged(); // Could be optimized if you know which items were selected
+        if (selection.isEmpty()) return;
+        for (Section section : sections) {
+            int start = getRowStart(section);
+            for (Map.Entry<Integer, List<TaskRow>> page : section.pager.getLoadedPages().entrySet()) {
+                List<TaskRow> rows = page.getValue();
+                for (int i = 0; i < rows.size(); i++) {
+                    if (selection.isSelected(rows.get(i).getId())) {
+                        notifyItemChanged(start + page.getKey() + i, PAYLOAD_SELECTION);
+                    }
+                }
+            }
+        }
+        selection.clear();
+        if (listener != null) {
+            listener.onSelectionChanged(selection);
+        }
     }
 
 
@@ -153,6 +476,9 @@ public class ViewTaskAdapter extends RecyclerView.Adapter<ViewTaskAdapter.TaskVi
         TextView descriptionTextView;
         TextView statusTextView;
         View itemView;
+        CompoundButton.OnCheckedChangeListener checkedChangeListener;
+        GradientDrawable background; // mutated once here, rather than on every bind
+        int color;
 
         TaskViewHolder(View view) {
             super(view);
@@ -160,6 +486,45 @@ public class ViewTaskAdapter extends RecyclerView.Adapter<ViewTaskAdapter.TaskVi
             taskSelectedCheckBox = view.findViewById(R.id.checkbox_task_selected);
             descriptionTextView = view.findViewById(R.id.textview_task_item_description);
             statusTextView = view.findViewById(R.id.textview_task_item_status);
+            Drawable drawable = view.getBackground();
+            if (drawable != null && drawable.mutate() instanceof GradientDrawable) {
+                background = (GradientDrawable) drawable.mutate();
+            }
+        }
+
+        /**
+         * Sets the checkbox state without notifying its listener.
+         */
+        void setCheckedSilently(boolean checked) {
+            taskSelectedCheckBox.setOnCheckedChangeListener(null);
+            taskSelectedCheckBox.setChecked(checked);
+            taskSelectedCheckBox.setOnCheckedChangeListener(checkedChangeListener);
+        }
+
+        /**
+         * Sets the background color of the row, if it isn't already that color.
+         */
+        void setColor(int color) {
+            if (color == this.color) return;
+            this.color = color;
+            if (background != null) {
+                background.setColor(color);
+            } else {
+                itemView.setBackgroundColor(color);
+            }
+        }
+    }
+
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        TextView indicatorTextView;
+        TextView titleTextView;
+        TextView countTextView;
+
+        HeaderViewHolder(View view) {
+            super(view);
+            indicatorTextView = view.findViewById(R.id.textview_section_indicator);
+            titleTextView = view.findViewById(R.id.textview_section_title);
+            countTextView = view.findViewById(R.id.textview_section_count);
         }
     }
 }
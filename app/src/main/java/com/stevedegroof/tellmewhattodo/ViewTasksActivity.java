@@ -2,35 +2,74 @@ package com.stevedegroof.tellmewhattodo;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.Button;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Activity for viewing, managing, and interacting with a list of tasks.
  * This activity displays all tasks in a RecyclerView, allowing users to:
  * - View task details.
- * - Select multiple tasks for batch operations.
+ * - Select multiple tasks for batch operations, one at a time or all at once, by status,
+ *   or by inverting the selection.
  * - Delete selected tasks.
  * - Requeue (mark as not done) selected tasks.
+ * - Change the priority of selected tasks, or restart their repeat intervals.
  * - Navigate to add a new task.
  * - Navigate to edit an existing task.
+ *
+ * The list is paged (see {@link TaskPager}), so it opens in the same time however many tasks
+ * there are. Rows are built a page at a time on the UI thread, from the task table, and reloaded
+ * whenever the tasks change; only the diff against the rows already shown is worked out on a
+ * background thread.
+ *
+ * The tasks are shown in sections by status (see {@link SortedTaskIndex}), sorted within each
+ * section by the order chosen from the menu, which is remembered between visits.
+ * The sections are sorted in the background, so until they're ready the tasks are shown
+ * unsorted.
+ *
+ * The search box filters the list as you type, using the search index in {@link Tasks}.
+ * Search results are shown as a single list, best match first.
+ *
+ * Bulk operations change all the selected tasks together (see {@link Tasks#updateTasks}), then
+ * save once and refresh the list once, however many tasks are selected.
+ * Searches wait until typing pauses, so a fast typist doesn't trigger a search per letter.
  */
 public class ViewTasksActivity extends ParentActivity
 {
     private RecyclerView recyclerViewAllTasks;
     private ViewTaskAdapter viewTaskAdapter;
-    private List<Task> allTasksList;
-    private List<Task> selectedTasksList;
+
+    private final ExecutorService rowExecutor = Executors.newSingleThreadExecutor();
+    private boolean resumed = false;
+
+    private static final String KEY_TASK_ORDER = "task_order";
+    private static final long SEARCH_DELAY_MS = 150;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::search;
+    private SortedTaskIndex waitingFor = null; //the index being built, which searches again once it's ready
+    private EditText editTextSearch;
 
     private Button buttonDeleteTasks;
     private Button buttonRequeueTasks;
@@ -52,8 +91,7 @@ public class ViewTasksActivity extends ParentActivity
         buttonRequeueTasks = findViewById(R.id.button_requeue_tasks);
         buttonCancelViewTasks = findViewById(R.id.button_cancel_view_tasks);
         buttonAddTask = findViewById(R.id.button_add_tasks);
-        selectedTasksList = new ArrayList<>();
-        allTasksList = Tasks.getInstance().getTasks();
+        editTextSearch = findViewById(R.id.edittext_search_tasks);
         // Set up RecyclerView
         LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerViewAllTasks.getLayoutManager();
         if (layoutManager != null)
@@ -66,21 +104,11 @@ public class ViewTasksActivity extends ParentActivity
         }
 
         // Set up adapter
-        viewTaskAdapter = new ViewTaskAdapter(allTasksList, new ViewTaskAdapter.OnTaskInteractionListener()
+        viewTaskAdapter = new ViewTaskAdapter(this, Tasks.getInstance(), rowExecutor, new ViewTaskAdapter.OnTaskInteractionListener()
         {
             @Override
-            public void onTaskSelected(Task task, boolean isSelected)
+            public void onSelectionChanged(TaskSelection selection)
             {
-                if (isSelected)
-                {
-                    if (!selectedTasksList.contains(task))
-                    {
-                        selectedTasksList.add(task);
-                    }
-                } else
-                {
-                    selectedTasksList.remove(task);
-                }
                 updateActionButtonsState();
             }
 
@@ -93,7 +121,11 @@ public class ViewTasksActivity extends ParentActivity
             }
         });
         recyclerViewAllTasks.setLayoutManager(new LinearLayoutManager(this));
-        recyclerViewAllTasks.setAdapter(viewTaskAdapter);
+        whenTasksLoaded(() ->
+        {
+            search(); //anything typed while loading is searched for now
+            recyclerViewAllTasks.setAdapter(viewTaskAdapter);
+        });
 
         // Set up action buttons
         buttonDeleteTasks.setOnClickListener(v -> confirmDeleteSelectedTasks());
@@ -101,7 +133,152 @@ public class ViewTasksActivity extends ParentActivity
         buttonCancelViewTasks.setOnClickListener(v -> finish());
         buttonAddTask.setOnClickListener(this::buttonAddClick);
 
+        // Set up search
+        editTextSearch.addTextChangedListener(new TextWatcher()
+        {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after)
+            {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count)
+            {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s)
+            {
+                //wait for typing to pause
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+            }
+        });
+
+    }
+
+    /**
+     * Gets the sorted index of the tasks, in the order chosen by the user.
+     */
+    private SortedTaskIndex getSortedIndex()
+    {
+        SortedTaskIndex.Order order = SortedTaskIndex.Order.PRIORITY;
+        String name = Util.getPreferences(this).getString(KEY_TASK_ORDER, order.name());
+        try
+        {
+            order = SortedTaskIndex.Order.valueOf(name);
+        } catch (IllegalArgumentException e)
+        {
+        }
+        return Tasks.getInstance().getSortedIndex(order);
+    }
+
+    /**
+     * Lets the user choose the order of the tasks within each section, and remembers it.
+     */
+    private void chooseOrder()
+    {
+        int checked = getSortedIndex().getOrder().ordinal();
+        new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                .setTitle(R.string.sort_by)
+                .setSingleChoiceItems(R.array.task_order_array, checked, (dialog, which) ->
+                {
+                    SortedTaskIndex.Order order = SortedTaskIndex.Order.values()[which];
+                    Util.getPreferences(this).edit().putString(KEY_TASK_ORDER, order.name()).apply();
+                    search();
+                    dialog.dismiss();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu)
+    {
+        super.onCreateOptionsMenu(menu);
+        getMenuInflater().inflate(R.menu.view_tasks_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item)
+    {
+        int id = item.getItemId();
+        if (id == R.id.action_sort)
+        {
+            chooseOrder();
+            return true;
+        } else if (id == R.id.action_select_all)
+        {
+            selectAll();
+            return true;
+        } else if (id == R.id.action_invert_selection)
+        {
+            viewTaskAdapter.getSelection().invert();
+            viewTaskAdapter.notifySelectionChanged();
+            return true;
+        } else if (id == R.id.action_select_ready || id == R.id.action_select_waiting || id == R.id.action_select_done)
+        {
+            TaskStatus status = id == R.id.action_select_ready ? TaskStatus.READY
+                    : id == R.id.action_select_waiting ? TaskStatus.WAITING : TaskStatus.DONE;
+            viewTaskAdapter.getSelection().select(getSortedIndex().getIds(status));
+            viewTaskAdapter.notifySelectionChanged();
+            return true;
+        } else if (id == R.id.action_change_priority)
+        {
+            changePriorityOfSelectedTasks();
+            return true;
+        } else if (id == R.id.action_reschedule)
+        {
+            rescheduleSelectedTasks();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Shows the tasks matching the search box, or all tasks if it's empty.
+     * The rows already shown are diffed against the results, so this is also how the
+     * results are refreshed after the tasks change.
+     */
+    private void search()
+    {
+        searchHandler.removeCallbacks(searchRunnable);
+        if (!Tasks.getInstance().isLoaded()) return; //searched once they are
+        String query = editTextSearch.getText() == null ? "" : editTextSearch.getText().toString().trim();
+        if (query.isEmpty())
+        {
+            setSelectionScope(null);
+            SortedTaskIndex index = getSortedIndex();
+            if (index.isReady())
+            {
+                waitingFor = null;
+                viewTaskAdapter.setIndex(index);
+            } else
+            {
+                waitingFor = index; //shown once it's built
+                index.whenReady(searchRunnable);
+            }
+        } else
+        {
+            List<UUID> results = Tasks.getInstance().search(query);
+            setSelectionScope(results);
+            viewTaskAdapter.setSource(new TaskIdSource(results));
+        }
+    }
 
+    /**
+     * Limits the selection to the tasks shown, unselecting any that aren't.
+     *
+     * @param ids The IDs of the tasks shown, or {@code null} if every task is.
+     */
+    private void setSelectionScope(List<UUID> ids)
+    {
+        TaskSelection selection = viewTaskAdapter.getSelection();
+        boolean empty = selection.isEmpty();
+        selection.setScope(ids);
+        if (!empty)
+            viewTaskAdapter.notifySelectionChanged();
     }
 
     /**
@@ -112,7 +289,7 @@ public class ViewTasksActivity extends ParentActivity
      */
     private void updateActionButtonsState()
     {
-        boolean hasSelections = !selectedTasksList.isEmpty();
+        boolean hasSelections = !viewTaskAdapter.getSelection().isEmpty();
         buttonDeleteTasks.setEnabled(hasSelections);
         buttonRequeueTasks.setEnabled(hasSelections);
     }
@@ -126,7 +303,7 @@ public class ViewTasksActivity extends ParentActivity
     private void confirmDeleteSelectedTasks()
     {
 
-        if (selectedTasksList.isEmpty())
+        if (viewTaskAdapter.getSelection().isEmpty())
         {
             Toast.makeText(this, R.string.no_tasks_selected_to_delete, Toast.LENGTH_SHORT).show();
             return;
@@ -135,7 +312,7 @@ public class ViewTasksActivity extends ParentActivity
 
         new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
                 .setTitle(R.string.confirm_delete)
-                .setMessage(String.format(getString(R.string.are_you_sure_you_want_to_delete_d_task_s), selectedTasksList.size()))
+                .setMessage(String.format(getString(R.string.are_you_sure_you_want_to_delete_d_task_s), viewTaskAdapter.getSelection().getCount()))
                 .setPositiveButton(R.string.delete, (dialog, which) -> deleteSelectedTasks())
                 .setNegativeButton(R.string.cancel, null)
                 .show();
@@ -145,25 +322,21 @@ public class ViewTasksActivity extends ParentActivity
      * Deletes the tasks that are currently selected by the user.
      * This method performs the following actions:
      * 1. Checks if any tasks are selected. If not, it returns immediately.
-     * 2. Iterates through the {@code selectedTasksList} and removes each task from the main {@code Tasks} singleton instance.
-     * 3. Removes all selected tasks from the {@code allTasksList} which is used by the adapter.
-     * 4. Clears the {@code selectedTasksList}.
-     * 5. Notifies the {@code viewTaskAdapter} that the data set has changed to update the UI.
-     * 6. Saves the current state of tasks using {@code Tasks.getInstance().save(this)}.
-     * 7. Calls {@code updateActionButtonsState()} to enable/disable action buttons based on selections.
+     * 2. Removes the selected tasks from the main {@code Tasks} singleton instance, all together.
+     * 3. Clears the selection.
+     * 4. Refreshes the rows shown (and any search results) to update the UI.
+     * 5. Saves the current state of tasks using {@link Util#saveTasks}.
+     * 6. Calls {@code updateActionButtonsState()} to enable/disable action buttons based on selections.
      */
     private void deleteSelectedTasks()
     {
-        if (selectedTasksList.isEmpty()) return;
+        if (viewTaskAdapter.getSelection().isEmpty()) return;
 
-        for (Task task : selectedTasksList)
-        {
-            Tasks.getInstance().removeTask(task.getId());
-        }
-        allTasksList.removeAll(selectedTasksList);
-        selectedTasksList.clear();
-        viewTaskAdapter.notifyDataSetChanged();
-        Tasks.getInstance().save(this);
+        Tasks.getInstance().removeTasks(viewTaskAdapter.getSelection().getSelectedIds());
+        viewTaskAdapter.clearSelections();
+        getSortedIndex().revalidate(); //tasks that depended on them may be ready now
+        search();
+        Util.saveTasks(this);
         updateActionButtonsState();
     }
 
@@ -190,32 +363,106 @@ public class ViewTasksActivity extends ParentActivity
     private void requeueSelectedTasks()
     {
         //TODO: It only makes sense to requeue non-repeating tasks that are not done. Not sure if it matters, though.
-        if (selectedTasksList.isEmpty())
+        if (viewTaskAdapter.getSelection().isEmpty())
         {
             Toast.makeText(this, "No tasks selected to requeue.", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        for (Task task : selectedTasksList)
-        {
-            task.setDone(false);
-        }
-        viewTaskAdapter.notifyDataSetChanged();
-        Tasks.getInstance().save(this);
+        updateSelectedTasks(task -> task.setDone(false), true); //dependents of the requeued tasks may be waiting again
 
+    }
+
+    /**
+     * Applies a change to all the selected tasks together, then saves once, clears the
+     * selection, and refreshes the list.
+     *
+     * @param change              The change to make to each task.
+     * @param affectsDependents   {@code true} if the change can make tasks that depend on the
+     *                            changed ones ready or waiting, so their statuses are checked again.
+     */
+    private void updateSelectedTasks(Consumer<Task> change, boolean affectsDependents)
+    {
+        Set<UUID> ids = viewTaskAdapter.getSelection().getSelectedIds();
+        Tasks.getInstance().updateTasks(ids, change);
+        if (affectsDependents)
+            getSortedIndex().revalidate();
         viewTaskAdapter.clearSelections();
-        selectedTasksList.clear();
+        search();
+        Util.saveTasks(this);
         updateActionButtonsState();
+    }
 
+    /**
+     * Lets the user choose a new priority for all the selected tasks.
+     */
+    private void changePriorityOfSelectedTasks()
+    {
+        if (viewTaskAdapter.getSelection().isEmpty())
+        {
+            Toast.makeText(this, R.string.no_tasks_selected, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] priorities = getResources().getStringArray(R.array.priority_array);
+        new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                .setTitle(R.string.change_priority)
+                .setItems(priorities, (dialog, which) ->
+                {
+                    int weight = Util.getPriorityInt(this, priorities[which]);
+                    updateSelectedTasks(task -> task.setWeight(weight), false);
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Restarts the repeat interval of the selected repeating tasks from now, as if they had just
+     * been done. Tasks that don't repeat are left alone.
+     */
+    private void rescheduleSelectedTasks()
+    {
+        if (viewTaskAdapter.getSelection().isEmpty())
+        {
+            Toast.makeText(this, R.string.no_tasks_selected, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        updateSelectedTasks(task ->
+        {
+            if (task.getRepeatType() != Task.REPEAT_TYPE_NONE)
+                task.setLastRun(now);
+        }, true);
+    }
+
+    /**
+     * Selects every task shown: all tasks, or all the search results when searching.
+     */
+    private void selectAll()
+    {
+        viewTaskAdapter.getSelection().selectAll();
+        viewTaskAdapter.notifySelectionChanged();
     }
 
     @Override
     protected void onResume()
     {
         super.onResume();
-        allTasksList.clear();
-        allTasksList.addAll(Tasks.getInstance().getTasks());
-        viewTaskAdapter.notifyDataSetChanged();
+        if (resumed && Tasks.getInstance().isLoaded()) //tasks may have been completed, or come due, since the list was shown
+        {
+            getSortedIndex().revalidate();
+            search();
+        }
+        resumed = true;
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        searchHandler.removeCallbacks(searchRunnable);
+        if (waitingFor != null)
+            waitingFor.removeReadyListener(searchRunnable);
+        rowExecutor.shutdownNow();
     }
 
 }
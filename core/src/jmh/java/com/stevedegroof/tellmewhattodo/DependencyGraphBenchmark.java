@@ -0,0 +1,97 @@
+package com.stevedegroof.tellmewhattodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding the candidate dependencies of a task (see
+ * {@code DependencyCandidateLoader}), against 10,000 tasks in chains of dependencies up to a
+ * thousand long.
+ * <p>
+ * {@link #getDependencyGraph()} is the part done on the UI thread when the candidates are
+ * loaded, with nothing changed since the last one; {@link #getDependencyGraphAfterChange()}
+ * is the same after a task's dependencies have changed, so the table's arrays have to be
+ * copied. {@link #findDependents()} is the part done in the background, starting from the
+ * last task of a chain, which the rest of the chain depends on.
+ * </p>
+ * <p>
+ * Run with {@code gradle :core:jmh -Pjmh.includes=DependencyGraphBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DependencyGraphBenchmark
+{
+    /**
+     * The number of tasks.
+     */
+    @Param({"10000"})
+    public int size;
+
+    /**
+     * The number of tasks in each chain of dependencies.
+     */
+    @Param({"16", "256", "1000"})
+    public int depth;
+
+    private Tasks tasks;
+    private TaskTable.DependencyGraph graph;
+    private Task changed;
+    private int start;
+
+    @Setup
+    public void setUp()
+    {
+        tasks = new TaskStoreGenerator().setCount(size).setSeed(size)
+                .setDependencies(1, depth, TaskStoreGenerator.Shape.CHAINS).generate(System.currentTimeMillis());
+        graph = tasks.getDependencyGraph();
+        //start from the first task of the chain with the most tasks depending on it
+        int most = -1;
+        for (int row = 0; row < graph.getSize(); row++)
+        {
+            Task task = graph.getTask(row);
+            if (task == null) continue;
+            if (task.getDependencyCount() == 0)
+            {
+                int dependents = graph.findDependents(row).cardinality();
+                if (dependents > most)
+                {
+                    most = dependents;
+                    start = row;
+                }
+            } else if (changed == null)
+                changed = task;
+        }
+    }
+
+    @Benchmark
+    public TaskTable.DependencyGraph getDependencyGraph()
+    {
+        return tasks.getDependencyGraph();
+    }
+
+    @Benchmark
+    public TaskTable.DependencyGraph getDependencyGraphAfterChange()
+    {
+        //the same dependency each time, so the graph doesn't change shape
+        changed.removeDependency(changed.getDependencyIds().get(0));
+        changed.addDependency(graph.getTask(start).getId());
+        return tasks.getDependencyGraph();
+    }
+
+    @Benchmark
+    public BitSet findDependents()
+    {
+        return graph.findDependents(start);
+    }
+}
@@ -0,0 +1,76 @@
+package com.stevedegroof.tellmewhattodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the scan for ready tasks done one row after another against the same scan split
+ * across the common {@link ForkJoinPool} (see {@link TaskTable}), to find the number of tasks
+ * from which the parallel scan pays off.
+ * <p>
+ * Each size is run both ways. The speedup at a size is the sequential time divided by the
+ * parallel time, and the break-even is the smallest size at which it's above 1, which is where
+ * {@link TaskTable#PARALLEL_THRESHOLD} should be. The sizes go from well below the threshold to a
+ * million tasks, so the break-even falls between two of them.
+ * </p>
+ * <p>
+ * Run with {@code gradle :core:jmh -Pjmh.includes=ParallelScanBenchmark}. The speedup depends on
+ * the number of threads in the common pool, which is one less than the number of cores unless
+ * it's set with e.g. {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism=4}; with one
+ * thread both ways scan sequentially.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelScanBenchmark
+{
+    /**
+     * The number of tasks.
+     */
+    @Param({"10000", "25000", "50000", "100000", "250000", "500000", "1000000"})
+    public int size;
+
+    /**
+     * Whether the scan is split across threads, whatever the number of tasks.
+     */
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Tasks tasks;
+    private long now;
+
+    @Setup
+    public void setUp()
+    {
+        now = System.currentTimeMillis();
+        tasks = new TaskStoreGenerator().setCount(size).setSeed(size)
+                .setDependencies(0.2, 4, TaskStoreGenerator.Shape.CHAINS).generate(now);
+        tasks.getTable().setParallelThreshold(parallel ? 0 : Integer.MAX_VALUE);
+        if (parallel && ForkJoinPool.getCommonPoolParallelism() < 2)
+            System.err.println("The common pool has one thread, so the parallel scan runs sequentially");
+        tasks.getAvailableTasks(now); //work the due times and handles out, as the app's first scan does
+    }
+
+    @Benchmark
+    public List<Task> getAvailableTasks()
+    {
+        return tasks.getAvailableTasks(now);
+    }
+
+    @Benchmark
+    public Task getNextTask()
+    {
+        return tasks.getNextTask(now);
+    }
+}
@@ -0,0 +1,82 @@
+package com.stevedegroof.tellmewhattodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks keeping the {@link SortedTaskIndex} up to date: moving one changed task, and
+ * {@link SortedTaskIndex#revalidate()} after one change and after none, which is what the task
+ * list does every time it's shown again. Moving a task, and revalidating when nothing has
+ * changed, should grow no faster than the log of the number of tasks. Revalidating after a change
+ * also looks through the task table's dependency handles once for the tasks that depend on the
+ * changed one, which grows with the number of tasks but reads only arrays of ints.
+ * <p>
+ * Run with {@code gradle :core:jmh -Pjmh.includes=SortedIndexBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortedIndexBenchmark
+{
+    /**
+     * The number of tasks.
+     */
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private Tasks tasks;
+    private SortedTaskIndex index;
+    private List<Task> all;
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+    {
+        tasks = new TaskStoreGenerator().setCount(size).setSeed(size)
+                .setDependencies(0.2, 4, TaskStoreGenerator.Shape.CHAINS).generate(System.currentTimeMillis());
+        index = tasks.getSortedIndex(SortedTaskIndex.Order.PRIORITY);
+        all = tasks.getTasks();
+    }
+
+    /**
+     * Changes the next task's priority, which moves it in the index.
+     */
+    private Task change()
+    {
+        Task task = all.get(next++ % all.size());
+        task.setWeight((task.getWeight() + 1) % 10);
+        return task;
+    }
+
+    @Benchmark
+    public SortedTaskIndex put()
+    {
+        index.put(change());
+        return index;
+    }
+
+    @Benchmark
+    public SortedTaskIndex revalidateAfterChange()
+    {
+        change();
+        index.revalidate();
+        return index;
+    }
+
+    @Benchmark
+    public SortedTaskIndex revalidateUnchanged()
+    {
+        index.revalidate();
+        return index;
+    }
+}
@@ -0,0 +1,142 @@
+package com.stevedegroof.tellmewhattodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the scheduling and storage code against generated stores of tasks
+ * (see {@link TaskStoreGenerator}).
+ * <p>
+ * Each benchmark is run for every combination of the number of tasks, the mix of repeat types
+ * and the length of the dependency chains, and reports both the throughput and the sampled
+ * latency percentiles. The build runs them with the gc profiler, so the allocation rate is
+ * reported too, and writes the results to build/results/jmh/results.json, which can be kept
+ * and compared between commits.
+ * </p>
+ * <p>
+ * Run with {@code gradle :core:jmh}. Other combinations can be chosen with e.g.
+ * {@code -Pjmh.includes=getNextTask -Pjmh.size=100,1000000}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TasksBenchmark
+{
+    /**
+     * The number of tasks.
+     */
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    /**
+     * The mix of repeat types: ONCE has no repeating tasks, MIXED is a realistic mix, and
+     * REPEATING has only repeating tasks.
+     */
+    @Param({"MIXED", "ONCE", "REPEATING"})
+    public String mix;
+
+    /**
+     * The number of tasks in each chain of dependencies.
+     */
+    @Param({"2", "16"})
+    public int depth;
+
+    private Tasks tasks;
+    private Task[] all;
+    private Task[] dependents; //tasks that depend on others
+    private String json;
+    private long now;
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+    {
+        now = System.currentTimeMillis();
+        TaskStoreGenerator generator = new TaskStoreGenerator().setCount(size).setSeed(size)
+                .setDependencies(0.2, depth, TaskStoreGenerator.Shape.CHAINS);
+        switch (mix)
+        {
+            case "ONCE":
+                generator.setRepeatTypeWeights(1, 0, 0, 0, 0, 0);
+                break;
+            case "REPEATING":
+                generator.setRepeatTypeWeights(0, 1, 2, 2, 1, 1);
+                break;
+            default:
+                break;
+        }
+        json = generator.generate(now).getTasksJson();
+        tasks = Tasks.getInstance(); //dependencies are looked up in the app's tasks
+        tasks.setTasksFromJson(json);
+        all = tasks.getTasks().toArray(new Task[0]);
+        List<Task> withDependencies = new ArrayList<>();
+        for (Task task : all)
+            if (task.getDependencyCount() > 0) withDependencies.add(task);
+        dependents = withDependencies.isEmpty() ? all : withDependencies.toArray(new Task[0]);
+    }
+
+    /**
+     * @return The next of the tasks, going round them in a fixed order that's spread across the
+     * store, so successive calls don't keep hitting the same few in the cache.
+     */
+    private Task nextTask(Task[] from)
+    {
+        next = (next + 7919) % from.length;
+        return from[next];
+    }
+
+    @Benchmark
+    public Task getNextTask()
+    {
+        return tasks.getNextTask(now);
+    }
+
+    @Benchmark
+    public List<Task> getAvailableTasks()
+    {
+        return tasks.getAvailableTasks(now);
+    }
+
+    @Benchmark
+    public boolean isAvailable()
+    {
+        return nextTask(all).isAvailable(tasks, now);
+    }
+
+    @Benchmark
+    public boolean isDependentOn()
+    {
+        return nextTask(dependents).isDependentOn(nextTask(all));
+    }
+
+    @Benchmark
+    public long getDueTime()
+    {
+        return Recurrence.getDueTime(nextTask(all), now);
+    }
+
+    @Benchmark
+    public String getTasksJson()
+    {
+        return tasks.getTasksJson();
+    }
+
+    @Benchmark
+    public Tasks setTasksFromJson()
+    {
+        Tasks restored = new Tasks(); //not the app's, which the other benchmarks use
+        restored.setTasksFromJson(json);
+        return restored;
+    }
+}
@@ -0,0 +1,212 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events and records how long operations take, so there's something to look at when the
+ * app is reported to be slow. The results are shown (and can be exported) from the diagnostics
+ * section of the settings screen.
+ * <p>
+ * Counters are looked up by name, and created the first time they're used. Timings are kept in
+ * {@link Histogram}s, which use a fixed amount of memory however many times are recorded. Each
+ * timing is made once, as a constant below, so recording one is a single call with no lookup
+ * and no allocation, even in hot paths such as {@link Recurrence#getDueTime}. Everything is
+ * safe to record from any thread, and nothing is saved: the metrics start again from zero each
+ * time the process starts.
+ * </p>
+ * <p>
+ * To time an operation:
+ * <pre>
+ *     long start = Metrics.start();
+ *     ...
+ *     Metrics.stop(Metrics.SAVE, start);
+ * </pre>
+ * </p>
+ */
+public class Metrics
+{
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    //timings
+    public static final Histogram LOAD = getHistogram("Tasks.load");
+    public static final Histogram SAVE = getHistogram("Tasks.save");
+    public static final Histogram SNAPSHOT = getHistogram("TaskSnapshot.save");
+    public static final Histogram AVAILABLE_TASKS = getHistogram("Tasks.getAvailableTasks");
+    public static final Histogram NEXT_TASK = getHistogram("Tasks.getNextTask");
+    public static final Histogram DUE_TIME = getHistogram("Recurrence.getDueTime");
+    public static final Histogram BIND_TASK = getHistogram("ViewTaskAdapter.bind");
+    public static final Histogram BIND_DEPENDENCY = getHistogram("DependencyTaskAdapter.bind");
+
+    //counters
+    public static final String SUMMARY_HIT = "summary.hit";
+    public static final String SUMMARY_MISS = "summary.miss";
+    public static final String PAGE_HIT = "page.hit";
+    public static final String PAGE_MISS = "page.miss";
+
+    /**
+     * The caches whose hit rates are reported, as {name, hit counter, miss counter}.
+     */
+    static final String[][] CACHES = {
+            {"Task summaries", SUMMARY_HIT, SUMMARY_MISS},
+            {"Task list pages", PAGE_HIT, PAGE_MISS}
+    };
+
+    /**
+     * A histogram of durations in nanoseconds, with buckets whose width grows with their value
+     * (as in HdrHistogram): each power of two is split into {@link #SUB_BUCKETS} equal buckets,
+     * so any recorded value is known to within about 6%. Values up to {@link Long#MAX_VALUE}
+     * fit in under a thousand buckets.
+     */
+    public static class Histogram
+    {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value)
+        {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value))
+            {
+                //another thread changed the max; try again
+            }
+        }
+
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        public long getMax()
+        {
+            return max.get();
+        }
+
+        /**
+         * @return The mean of the recorded values, or 0 if there are none.
+         */
+        public long getMean()
+        {
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+
+        /**
+         * Gets the value below which the given fraction of the recorded values fall.
+         *
+         * @param fraction The fraction, e.g. 0.99 for the 99th percentile.
+         * @return The highest value in the bucket holding that percentile (but no more than the
+         *         maximum recorded), or 0 if nothing has been recorded.
+         */
+        public long getPercentile(double fraction)
+        {
+            long n = count.get();
+            if (n == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++)
+            {
+                seen += buckets.get(i);
+                if (seen >= target)
+                    return Math.min(highestValueOf(i), max.get());
+            }
+            return max.get();
+        }
+
+        private static int bucketOf(long value)
+        {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value); //at least SUB_BUCKET_BITS
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long highestValueOf(int bucket)
+        {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int shift = exponent - SUB_BUCKET_BITS;
+            long lowest = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+            long highest = lowest + (1L << shift) - 1;
+            return highest < 0 ? Long.MAX_VALUE : highest; //the top bucket overflows
+        }
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param name The name of the counter.
+     */
+    public static void count(String name)
+    {
+        AtomicLong counter = counters.get(name);
+        if (counter == null)
+            counter = counters.computeIfAbsent(name, k -> new AtomicLong());
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @return The start time of an operation, to pass to {@link #stop(Histogram, long)}.
+     */
+    public static long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records how long an operation took.
+     *
+     * @param timing The timing of the operation, one of the constants above.
+     * @param start  The time returned by {@link #start()} when the operation started.
+     */
+    public static void stop(Histogram timing, long start)
+    {
+        timing.record(System.nanoTime() - start);
+    }
+
+    public static long getCount(String name)
+    {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public static Histogram getHistogram(String name)
+    {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null)
+            histogram = histograms.computeIfAbsent(name, k -> new Histogram());
+        return histogram;
+    }
+
+    /**
+     * @return All the counters, by name, in alphabetical order.
+     */
+    public static Map<String, Long> getCounters()
+    {
+        TreeMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        return snapshot;
+    }
+
+    /**
+     * @return All the timings, by name, in alphabetical order.
+     */
+    public static Map<String, Histogram> getHistograms()
+    {
+        return new TreeMap<>(histograms);
+    }
+}
@@ -0,0 +1,193 @@
+package com.stevedegroof.tellmewhattodo;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Named trace sections around the app's expensive operations.
+ * <p>
+ * Each section is passed to the platform's {@link Tracer}, if one is set, so on Android it's shown
+ * in system traces (Perfetto, or Android Studio's profiler) while they're being captured. When
+ * recording is turned on (from the settings screen), each section is also kept in an in-app ring
+ * buffer holding the last {@link #CAPACITY} sections, which can be exported as a Chrome trace
+ * file (open it in {@code chrome://tracing} or Perfetto) and attached to a bug report.
+ * </p>
+ * <p>
+ * When neither a system trace is being captured nor recording is on, a section costs two
+ * flag checks and nothing else, so the sections stay in release builds. A section must be ended on
+ * the thread it was begun on:
+ * <pre>
+ *     long section = PerfTrace.begin(PerfTrace.SAVE);
+ *     try
+ *     {
+ *         ...
+ *     } finally
+ *     {
+ *         PerfTrace.end(PerfTrace.SAVE, section);
+ *     }
+ * </pre>
+ * </p>
+ */
+public class PerfTrace
+{
+    public static final String LOAD = "Tasks.load";
+    public static final String SAVE = "Tasks.save";
+    public static final String JSON_DECODE = "json.decode";
+    public static final String JSON_ENCODE = "json.encode";
+    public static final String SNAPSHOT = "TaskSnapshot.save";
+    public static final String AVAILABLE_TASKS = "Tasks.getAvailableTasks";
+    public static final String NEXT_TASK = "Tasks.getNextTask";
+    public static final String REVALIDATE = "SortedTaskIndex.revalidate";
+    public static final String BUILD_INDEX = "SortedTaskIndex.build";
+    public static final String BUILD_ROWS = "TaskRow.build";
+    public static final String SELECTED_IDS = "TaskSelection.getSelectedIds";
+    public static final String DEPENDENCY_CANDIDATES = "DependencyCandidateLoader.findDependents";
+
+    static final int CAPACITY = 4096;
+    private static final long SYSTEM_SECTION = 1; //set in a section's token if a system trace section was begun
+
+    /**
+     * The platform's own tracing, which sections are also sent to while a system trace is
+     * being captured.
+     */
+    public interface Tracer
+    {
+        boolean isEnabled();
+
+        void beginSection(String name);
+
+        void endSection();
+
+        /**
+         * @return The ID the platform's traces use for the current thread.
+         */
+        int getThreadId();
+    }
+
+    private static volatile Tracer tracer = null;
+    private static volatile boolean recording = false;
+
+    //the ring buffer; next is where the next section goes, size is how many are kept
+    private static final String[] names = new String[CAPACITY];
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final int[] threadIds = new int[CAPACITY];
+    private static int next = 0;
+    private static int size = 0;
+
+    /**
+     * Sets the platform's tracing, which sections are also sent to. Set when the process starts.
+     */
+    public static void setTracer(Tracer tracer)
+    {
+        PerfTrace.tracer = tracer;
+    }
+
+    public static boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * Turns recording into the ring buffer on or off.
+     * Turning recording off discards what was recorded.
+     */
+    public static void setRecording(boolean recording)
+    {
+        PerfTrace.recording = recording;
+        if (!recording) clear();
+    }
+
+    /**
+     * Begins a section.
+     *
+     * @param name The name of the section; one of the constants in this class.
+     * @return A token to pass to {@link #end(String, long)}, or 0 if the section isn't traced.
+     */
+    public static long begin(String name)
+    {
+        Tracer tracer = PerfTrace.tracer;
+        boolean system = tracer != null && tracer.isEnabled();
+        if (!system && !recording) return 0;
+        if (system) tracer.beginSection(name);
+        long start = System.nanoTime() & ~SYSTEM_SECTION;
+        return system ? start | SYSTEM_SECTION : start;
+    }
+
+    /**
+     * Ends a section.
+     *
+     * @param name  The name the section was begun with.
+     * @param token The token returned by {@link #begin(String)}.
+     */
+    public static void end(String name, long token)
+    {
+        if (token == 0) return;
+        if ((token & SYSTEM_SECTION) != 0) tracer.endSection();
+        if (recording) record(name, token & ~SYSTEM_SECTION, System.nanoTime());
+    }
+
+    private static synchronized void record(String name, long start, long end)
+    {
+        names[next] = name;
+        starts[next] = start;
+        durations[next] = end - start;
+        Tracer tracer = PerfTrace.tracer;
+        threadIds[next] = tracer != null ? tracer.getThreadId() : (int) Thread.currentThread().getId();
+        next = (next + 1) % CAPACITY;
+        if (size < CAPACITY) size++;
+    }
+
+    private static synchronized void clear()
+    {
+        next = 0;
+        size = 0;
+        Arrays.fill(names, null);
+    }
+
+    /**
+     * @return The number of sections in the ring buffer.
+     */
+    public static synchronized int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the recorded sections, oldest first, in the Chrome trace event format.
+     *
+     * @param out       Where to write them. It's closed when they've been written.
+     * @param processId The ID of this process, as shown in the trace.
+     * @throws IOException If they can't be written.
+     */
+    public static void export(Writer out, int processId) throws IOException
+    {
+        try (JsonWriter writer = new JsonWriter(out))
+        {
+            writer.beginObject();
+            writer.name("displayTimeUnit").value("ms");
+            writer.name("traceEvents").beginArray();
+            synchronized (PerfTrace.class)
+            {
+                int first = (next - size + CAPACITY) % CAPACITY;
+                for (int i = 0; i < size; i++)
+                {
+                    int index = (first + i) % CAPACITY;
+                    writer.beginObject();
+                    writer.name("name").value(names[index]);
+                    writer.name("ph").value("X"); //a complete event, with a duration
+                    writer.name("ts").value(starts[index] / 1000.0); //microseconds
+                    writer.name("dur").value(durations[index] / 1000.0);
+                    writer.name("pid").value(processId);
+                    writer.name("tid").value(threadIds[index]);
+                    writer.endObject();
+                }
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+}
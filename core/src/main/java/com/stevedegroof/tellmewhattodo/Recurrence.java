@@ -0,0 +1,123 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.Calendar;
+
+/**
+ * The recurrence calculations for repeating tasks: when a task next comes due, and what its
+ * last run should default to when it's first created.
+ * <p>
+ * These only depend on the task and the current time, which is passed in rather than read
+ * from the clock, and not on anything from Android. So the same answers come out for the same
+ * inputs, and this class (along with {@link Task}'s availability checks) can be run and timed
+ * on a plain JVM.
+ * </p>
+ * <p>
+ * The calculations are on the hot path of picking a task, so they don't allocate: each thread
+ * reuses its own {@link Calendar} (and a second one, for working on a copy of the first). Since
+ * a calendar takes its time zone and first day of the week from the defaults when it's created,
+ * the calendars are replaced after either changes (see {@link #resetCalendars()}).
+ * </p>
+ * <p>
+ * The steps for each kind of schedule are in {@link RecurrenceRule}, which each task compiles
+ * its schedule into, so they aren't chosen again on every call.
+ * </p>
+ */
+public class Recurrence
+{
+    private static volatile int calendarGeneration = 0;
+    private static final ThreadLocal<CachedCalendar> calendars = ThreadLocal.withInitial(CachedCalendar::new);
+
+    private static final class CachedCalendar
+    {
+        int generation = -1;
+        Calendar calendar;
+        Calendar second;
+    }
+
+    /**
+     * Replaces every thread's calendar the next time it's used, so the calendars pick up a new
+     * default time zone or locale. Called when either changes.
+     */
+    public static void resetCalendars()
+    {
+        calendarGeneration++;
+    }
+
+    /**
+     * @return A number that changes whenever the calendars are reset, so due times worked out
+     *         before then (see {@link TaskTable}) can be worked out again.
+     */
+    static int getCalendarGeneration()
+    {
+        return calendarGeneration;
+    }
+
+    /**
+     * Gets this thread's calendar, set to the given time.
+     * It's only valid until the next call on this thread, so it must not be kept.
+     */
+    static Calendar getCalendar(long millis)
+    {
+        CachedCalendar cached = getCached();
+        cached.calendar.setTimeInMillis(millis);
+        return cached.calendar;
+    }
+
+    /**
+     * Gets this thread's second calendar, set to the given time, for working something out
+     * alongside the calendar from {@link #getCalendar(long)} without changing it.
+     * It's only valid until the next call on this thread, so it must not be kept.
+     */
+    static Calendar getSecondCalendar(long millis)
+    {
+        CachedCalendar cached = getCached();
+        cached.second.setTimeInMillis(millis);
+        return cached.second;
+    }
+
+    private static CachedCalendar getCached()
+    {
+        CachedCalendar cached = calendars.get();
+        int generation = calendarGeneration;
+        if (cached.generation != generation)
+        {
+            cached.calendar = Calendar.getInstance();
+            cached.second = Calendar.getInstance();
+            cached.generation = generation;
+        }
+        return cached;
+    }
+
+    /**
+     * Calculates when a task next comes due: one repeat interval after its last run (or after
+     * now, if it has never run), moved to the task's chosen time, day and month.
+     *
+     * @param task The task.
+     * @param now  The current time in milliseconds, used if the task has never run.
+     * @return The due time in milliseconds.
+     */
+    public static long getDueTime(Task task, long now)
+    {
+        long start = Metrics.start();
+        long due = task.getRecurrenceRule().nextDue(task.getLastRun() > 0 ? task.getLastRun() : now); //start from the last run, if there is one
+        Metrics.stop(Metrics.DUE_TIME, start);
+        return due;
+    }
+
+    /**
+     * Calculates the default last run time for a task.
+     * This is used when a task is first created and doesn't have a last run time yet.
+     * The default last run time is calculated based on the task's repeat type and interval.
+     * For example, if a task repeats daily, the default last run time will be yesterday.
+     * If the calculated last run time is in the future, it will be adjusted to be in the past.
+     * If the task is non-repeating, the default last run time will be the current time.
+     *
+     * @param task The task for which to calculate the default last run time.
+     * @param now  The current time in milliseconds.
+     * @return The default last run time in milliseconds.
+     */
+    public static long getDefaultLastRun(Task task, long now)
+    {
+        return task.getRecurrenceRule().defaultLastRun(now);
+    }
+}
@@ -0,0 +1,370 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * A task's schedule, compiled into the steps for working out its due times.
+ * <p>
+ * {@link #compile(Task)} looks at the repeat type and the constraints (any time or a set time,
+ * any day of the week or a set one, the last day of the month, an hourly window) once, and picks
+ * the kind of rule for that case, with the hour, minute and so on already worked out. So working
+ * out a due time is the calendar arithmetic and nothing else, rather than a switch on the repeat
+ * type and checks of each constraint every time. An hourly task that can run at any time of day
+ * doesn't need a calendar at all.
+ * </p>
+ * <p>
+ * Every kind is the same final class, and {@link #nextDue(long)} switches on the kind to a
+ * private method for it. So the call from the scans of the {@link TaskTable}, which see every
+ * kind of rule, always goes to the one method and can be inlined, where a subclass per kind
+ * would make it a virtual call to one of many.
+ * </p>
+ * <p>
+ * Rules are immutable, so they can be shared between threads. A {@link Task} compiles its rule
+ * the first time it's needed, and again only after one of its schedule fields is changed
+ * (see {@link Task#getRecurrenceRule()}). The rules give exactly the same answers as
+ * the {@code ReferenceScheduler} in the tests; {@code SchedulerFuzzer} checks they do.
+ * </p>
+ */
+final class RecurrenceRule
+{
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * The most times {@link #occurrences(long, long)} lists, however long the range.
+     */
+    static final int MAX_OCCURRENCES = 10000;
+
+    //the kinds of rule
+    private static final int NONE = 0; //non-repeating tasks: due from when they last ran
+    private static final int HOURLY = 1; //every so many hours, at any time of day
+    private static final int HOURLY_IN_WINDOW = 2; //every so many hours, but only between two times of day
+    private static final int DAILY = 3;
+    private static final int WEEKLY = 4; //on the same day of the week as the last run
+    private static final int WEEKLY_ON_DAY = 5;
+    private static final int MONTHLY = 6; //on a set day of the month, or any
+    private static final int MONTHLY_ON_LAST_DAY = 7;
+    private static final int YEARLY = 8;
+
+    private static final RecurrenceRule NEVER = new RecurrenceRule(NONE, 0, Task.ANY_TIME, 0, 0, 0, 0, 0);
+
+    private final int kind;
+    private final int interval; //in days, weeks, months or years
+    private final long hours; //the interval of the hourly kinds, in milliseconds
+    private final boolean anyTime;
+    private final int hour; //the chosen time of day (midnight if any time will do)
+    private final int minute;
+    private final int minMinute; //the hourly window
+    private final int maxMinute;
+    private final int startHour;
+    private final int startMinute;
+    private final int dayOfWeek;
+    private final int dayOfMonth;
+    private final int month;
+    private final boolean lastDay;
+
+    private RecurrenceRule(int kind, int interval, int minute, int minMinute, int maxMinute, int dayOfWeek, int dayOfMonth, int month)
+    {
+        this.kind = kind;
+        this.interval = interval;
+        this.hours = interval * HOUR;
+        this.anyTime = minute == Task.ANY_TIME;
+        this.hour = anyTime ? 0 : minute / 60;
+        this.minute = anyTime ? 0 : minute % 60;
+        this.minMinute = minMinute;
+        this.maxMinute = maxMinute;
+        this.startHour = minMinute / 60;
+        this.startMinute = minMinute % 60;
+        this.dayOfWeek = dayOfWeek;
+        this.dayOfMonth = dayOfMonth;
+        this.month = month;
+        this.lastDay = dayOfMonth == Task.LAST_DAY_OF_MONTH;
+    }
+
+    /**
+     * Picks the rule for a task's schedule, as it is now.
+     */
+    static RecurrenceRule compile(Task task)
+    {
+        int interval = task.getRepeatInterval();
+        int minute = task.getMinute();
+        switch (task.getRepeatType())
+        {
+            case Task.REPEAT_TYPE_HOURLY:
+                if (task.getMinMinute() <= Task.START_OF_DAY && task.getMaxMinute() >= Task.END_OF_DAY)
+                    return new RecurrenceRule(HOURLY, interval, Task.ANY_TIME, 0, 0, 0, 0, 0);
+                return new RecurrenceRule(HOURLY_IN_WINDOW, interval, Task.ANY_TIME, task.getMinMinute(), task.getMaxMinute(), 0, 0, 0);
+            case Task.REPEAT_TYPE_DAILY:
+                return new RecurrenceRule(DAILY, interval, minute, 0, 0, 0, 0, 0);
+            case Task.REPEAT_TYPE_WEEKLY:
+                if (task.getDayOfWeek() == Task.ANY_DAY_OF_WEEK)
+                    return new RecurrenceRule(WEEKLY, interval, minute, 0, 0, 0, 0, 0);
+                return new RecurrenceRule(WEEKLY_ON_DAY, interval, minute, 0, 0, task.getDayOfWeek(), 0, 0);
+            case Task.REPEAT_TYPE_MONTHLY:
+                if (task.getDayOfMonth() == Task.LAST_DAY_OF_MONTH)
+                    return new RecurrenceRule(MONTHLY_ON_LAST_DAY, interval, minute, 0, 0, 0, 0, 0);
+                return new RecurrenceRule(MONTHLY, interval, minute, 0, 0, 0, task.getDayOfMonth(), 0);
+            case Task.REPEAT_TYPE_YEARLY:
+                return new RecurrenceRule(YEARLY, interval, minute, 0, 0, 0, task.getDayOfMonth(), task.getMonth());
+            default:
+                return NEVER;
+        }
+    }
+
+    /**
+     * Calculates when the task next comes due after it ran at the given time.
+     *
+     * @param lastRun The time it last ran (or now, if it never has), in milliseconds.
+     * @return The due time in milliseconds.
+     */
+    long nextDue(long lastRun)
+    {
+        switch (kind)
+        {
+            case HOURLY:
+                return lastRun + hours; //adding hours to a calendar adds them to the time in milliseconds
+            case HOURLY_IN_WINDOW:
+                return nextDueInWindow(lastRun);
+            case DAILY:
+                return nextDueDaily(lastRun);
+            case WEEKLY:
+                return nextDueWeekly(lastRun);
+            case WEEKLY_ON_DAY:
+                return nextDueWeeklyOnDay(lastRun);
+            case MONTHLY:
+                return nextDueMonthly(lastRun);
+            case MONTHLY_ON_LAST_DAY:
+                return nextDueMonthlyOnLastDay(lastRun);
+            case YEARLY:
+                return nextDueYearly(lastRun);
+            default:
+                return lastRun;
+        }
+    }
+
+    /**
+     * Lists the times the task would come due from one time up to another, if it were done as
+     * soon as it came due each time, up to {@link #MAX_OCCURRENCES} of them.
+     *
+     * @param from The time it last ran, in milliseconds.
+     * @param to   The end of the range (not included), in milliseconds.
+     * @return The due times, in order.
+     * @throws IllegalArgumentException If the range ends before it starts.
+     */
+    long[] occurrences(long from, long to)
+    {
+        return occurrences(from, to, MAX_OCCURRENCES);
+    }
+
+    /**
+     * Lists the times the task would come due from one time up to another, if it were done as
+     * soon as it came due each time. A task that doesn't repeat never comes due again, so it
+     * has none.
+     *
+     * @param from The time it last ran, in milliseconds.
+     * @param to   The end of the range (not included), in milliseconds.
+     * @param max  The most times to list.
+     * @return The due times, in order.
+     * @throws IllegalArgumentException If the range ends before it starts, or max is negative.
+     */
+    long[] occurrences(long from, long to, int max)
+    {
+        if (to < from)
+            throw new IllegalArgumentException("The range ends before it starts: " + from + " to " + to);
+        if (max < 0)
+            throw new IllegalArgumentException("The most occurrences can't be negative: " + max);
+        long[] times = new long[Math.min(max, 16)];
+        int count = 0;
+        long due = nextDue(from);
+        while (due < to && due > from && count < max) //due > from stops a rule that doesn't move on
+        {
+            if (count == times.length)
+                times = Arrays.copyOf(times, (int) Math.min(max, count * 2L)); //count * 2 could overflow an int
+            times[count++] = due;
+            from = due;
+            due = nextDue(from);
+        }
+        return count == times.length ? times : Arrays.copyOf(times, count);
+    }
+
+    /**
+     * Calculates the default last run time for a new task, so that it's due at its next chosen
+     * time after now (see {@link Recurrence#getDefaultLastRun(Task, long)}).
+     *
+     * @param now The current time in milliseconds.
+     * @return The last run time in milliseconds.
+     */
+    long defaultLastRun(long now)
+    {
+        Calendar lastRun;
+        switch (kind)
+        {
+            case DAILY:
+                if (anyTime) return now;
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                return backOneInterval(lastRun, Calendar.DAY_OF_MONTH, now);
+            case WEEKLY:
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                return backOneInterval(lastRun, Calendar.WEEK_OF_YEAR, now);
+            case WEEKLY_ON_DAY:
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                lastRun.set(Calendar.DAY_OF_WEEK, dayOfWeek);
+                return backOneInterval(lastRun, Calendar.WEEK_OF_YEAR, now);
+            case MONTHLY:
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                if (dayOfMonth != Task.ANY_DAY_OF_MONTH)
+                    lastRun.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+                return backOneInterval(lastRun, Calendar.MONTH, now);
+            case MONTHLY_ON_LAST_DAY:
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                lastRun.set(Calendar.DAY_OF_MONTH, Task.LAST_DAY_OF_MONTH);
+                return backOneInterval(lastRun, Calendar.MONTH, now);
+            case YEARLY:
+                lastRun = Recurrence.getCalendar(now);
+                setChosenTime(lastRun);
+                if (dayOfMonth != Task.ANY_DAY_OF_MONTH)
+                    lastRun.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+                if (month != Task.ANY_MONTH)
+                    lastRun.set(Calendar.MONTH, month - 1);
+                return backOneInterval(lastRun, Calendar.YEAR, now);
+            default: //non-repeating and hourly tasks are due from now
+                return now;
+        }
+    }
+
+    /**
+     * Gets the last day of the calendar's month.
+     * The calendar's fields are brought up to date first: otherwise, after a field has been set,
+     * {@link Calendar#getActualMaximum(int)} works it out on a copy of the calendar.
+     */
+    static int getLastDayOfMonth(Calendar calendar)
+    {
+        calendar.get(Calendar.DAY_OF_MONTH); //updates all the fields
+        return calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Moves the calendar to the chosen time of day, unless any time will do.
+     */
+    private void setChosenTime(Calendar calendar)
+    {
+        if (!anyTime)
+        {
+            calendar.set(Calendar.HOUR_OF_DAY, hour);
+            calendar.set(Calendar.MINUTE, minute);
+        }
+    }
+
+    /**
+     * Moves the calendar back by the interval, less one if it's already past now,
+     * so the next due time is the first chosen time after now.
+     */
+    private long backOneInterval(Calendar calendar, int field, long now)
+    {
+        calendar.add(field, ((calendar.getTimeInMillis() > now) ? 0 : 1) - interval);
+        return calendar.getTimeInMillis();
+    }
+
+    private long nextDueInWindow(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun + hours);
+        int dueMinute = due.get(Calendar.HOUR_OF_DAY) * 60 + due.get(Calendar.MINUTE);
+        if (dueMinute > maxMinute) //after the window, so the start of the next day's
+        {
+            due.add(Calendar.DAY_OF_MONTH, 1);
+            due.set(Calendar.HOUR_OF_DAY, startHour);
+            due.set(Calendar.MINUTE, startMinute);
+        } else if (dueMinute < minMinute) //before the window, so the start of it
+        {
+            due.set(Calendar.HOUR_OF_DAY, startHour);
+            due.set(Calendar.MINUTE, startMinute);
+        } else
+            return lastRun + hours;
+        return due.getTimeInMillis();
+    }
+
+    private long nextDueDaily(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.add(Calendar.DAY_OF_MONTH, interval);
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+
+    private long nextDueWeekly(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.add(Calendar.WEEK_OF_YEAR, interval);
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+
+    private long nextDueWeeklyOnDay(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.add(Calendar.WEEK_OF_YEAR, interval);
+        due.set(Calendar.DAY_OF_WEEK, dayOfWeek);
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+
+    /**
+     * Any day of the month is day 0, which the calendar takes as the last day of the month
+     * before.
+     */
+    private long nextDueMonthly(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.set(Calendar.DAY_OF_MONTH, 1);
+        due.add(Calendar.MONTH, interval);
+        due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+
+    private long nextDueMonthlyOnLastDay(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.set(Calendar.DAY_OF_MONTH, 1);
+        due.add(Calendar.MONTH, interval);
+        due.set(Calendar.DAY_OF_MONTH, getLastDayOfMonth(due));
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+
+    /**
+     * As with the monthly rule, any day is day 0, and any month is month 0, which the calendar
+     * takes as December of the year before.
+     */
+    private long nextDueYearly(long lastRun)
+    {
+        Calendar due = Recurrence.getCalendar(lastRun);
+        due.add(Calendar.YEAR, interval);
+        due.set(Calendar.MONTH, month - 1);
+        if (lastDay)
+        {
+            //the last day of the month the date comes to once it's worked out, worked out
+            //on a copy made by the same steps, as due itself isn't worked out until the end
+            Calendar copy = Recurrence.getSecondCalendar(lastRun);
+            copy.add(Calendar.YEAR, interval);
+            copy.set(Calendar.MONTH, month - 1);
+            due.set(Calendar.DAY_OF_MONTH, getLastDayOfMonth(copy));
+        } else
+        {
+            due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+        }
+        due.set(Calendar.HOUR_OF_DAY, hour);
+        due.set(Calendar.MINUTE, minute);
+        return due.getTimeInMillis();
+    }
+}
@@ -0,0 +1,677 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the tasks sorted into sections by status (Ready, then Waiting, then Done), and sorted
+ * within each section by the chosen {@link Order}.
+ * <p>
+ * Each task's sort key (its status, priority, due time, last run and description) is worked out
+ * once, when the task is put into the index, and kept alongside its ID in a balanced search tree
+ * (a treap) that also knows the size of each subtree. So putting or removing a task, and finding
+ * the task at a position, each take time in proportion to the log of the number of tasks, and one
+ * change never re-sorts or shifts the whole list. The number of tasks in each section is kept as
+ * a running count.
+ * </p>
+ * <p>
+ * Building the index, or changing its order, is done in the background: the keys are read from
+ * the tasks on the UI thread (their status and due time come from the {@link TaskTable}, so this
+ * is quick), and the descriptions' collation keys, the sort and the tree are made on the
+ * background executor. Until it's ready (see {@link #whenReady(Runnable)}), the index reads as it
+ * was before, and tasks put or removed are kept and applied once it is.
+ * </p>
+ * <p>
+ * Statuses also change without the index being told: a repeating task comes due, a task is
+ * changed through its setters, or a dependency is completed. {@link #revalidate()} only looks at
+ * those: the tasks whose rows in the task table have changed since it was last called, the tasks
+ * that depend on them, and the waiting tasks whose due time has passed, which are kept in order
+ * of due time. A repeating task that has never run is given a due time after every other, since
+ * its real one moves with the current time.
+ * </p>
+ * <p>
+ * Each section can be read as a {@link TaskSource} (see {@link #getSection(TaskStatus)}),
+ * which always reflects the current contents of the index.
+ * </p>
+ */
+public class SortedTaskIndex
+{
+    /**
+     * The orderings available within a section.
+     */
+    public enum Order
+    {
+        PRIORITY, NEXT_DUE, LAST_RUN, ALPHABETICAL
+    }
+
+    /**
+     * The sections, in the order they're shown.
+     */
+    public static final TaskStatus[] SECTIONS = {TaskStatus.READY, TaskStatus.WAITING, TaskStatus.DONE};
+
+    private static final int WAITING = 1; //the section of waiting tasks
+
+    /**
+     * The sort key of a task, worked out once when it's put into the index.
+     */
+    private static final class Entry
+    {
+        final UUID id;
+        final int section;
+        final int weight;
+        final long due;
+        final long lastRun;
+        final String description;
+        final boolean comesDue; //waiting only until its due time
+        CollationKey name; //made from the description, in the background when the index is built
+
+        Entry(UUID id, int section, int weight, long due, long lastRun, String description, boolean comesDue)
+        {
+            this.id = id;
+            this.section = section;
+            this.weight = weight;
+            this.due = due;
+            this.lastRun = lastRun;
+            this.description = description;
+            this.comesDue = comesDue;
+        }
+
+        boolean sameKey(Entry other)
+        {
+            return section == other.section && weight == other.weight && due == other.due
+                    && lastRun == other.lastRun && comesDue == other.comesDue
+                    && description.equals(other.description);
+        }
+    }
+
+    /**
+     * A node of the tree. Each node has a random priority, higher than its children's, which
+     * keeps the tree balanced whatever order the entries are put in.
+     */
+    private static final class Node
+    {
+        final Entry entry;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1; //of the subtree
+
+        Node(Entry entry, int priority)
+        {
+            this.entry = entry;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Orders the waiting tasks that will come due by due time.
+     */
+    private static final Comparator<Entry> BY_DUE = (a, b) ->
+            a.due != b.due ? Long.compare(a.due, b.due) : a.id.compareTo(b.id);
+
+    private final Tasks tasks;
+    private final Executor background;
+    private final Executor uiThread;
+    private final BitSet changedRows; //rows of the task table changed since the last revalidate
+    private final Collator collator = Collator.getInstance();
+    private Node root = null;
+    private HashMap<UUID, Entry> entriesById = new HashMap<>();
+    private int[] sectionCounts = new int[SECTIONS.length];
+    private TreeSet<Entry> comingDue = new TreeSet<>(BY_DUE);
+    private Order order;
+    private Order buildOrder; //the order being built
+    private Comparator<Entry> comparator;
+    private int calendarGeneration;
+    private Node splitLeft; //the results of split()
+    private Node splitRight;
+
+    private int buildGeneration = 0;
+    private boolean building = false;
+    private final Set<UUID> pending = new HashSet<>(); //put or removed while building
+    private final List<Runnable> readyListeners = new ArrayList<>();
+
+    /**
+     * Starts building an index over the given tasks. It's ready once the build has finished
+     * (see {@link #whenReady(Runnable)}). This should be called on the UI thread.
+     *
+     * @param tasks      The tasks to index.
+     * @param order      The order of the tasks within each section.
+     * @param background Runs the build.
+     * @param uiThread   Runs code on the UI thread, where the built index is put in place.
+     */
+    public SortedTaskIndex(Tasks tasks, Order order, Executor background, Executor uiThread)
+    {
+        this.tasks = tasks;
+        this.background = background;
+        this.uiThread = uiThread;
+        this.order = order;
+        this.comparator = getComparator(order);
+        this.changedRows = tasks.getTable().trackChanges();
+        build(order, readKeys());
+    }
+
+    public Order getOrder()
+    {
+        return order;
+    }
+
+    /**
+     * @return {@code true} unless the index is being built.
+     */
+    public boolean isReady()
+    {
+        return !building;
+    }
+
+    /**
+     * Runs a listener on the UI thread once the index is ready: straight away if it is, or else
+     * when the build finishes. A listener that's already waiting isn't added again.
+     *
+     * @param listener The listener to run.
+     */
+    public void whenReady(Runnable listener)
+    {
+        if (!building)
+            listener.run();
+        else if (!readyListeners.contains(listener))
+            readyListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #whenReady(Runnable)} that hasn't run yet.
+     */
+    public void removeReadyListener(Runnable listener)
+    {
+        readyListeners.remove(listener);
+    }
+
+    /**
+     * Changes the order of the tasks within each section.
+     * This is the only change that sorts the whole list, which is done in the background, like
+     * the first build.
+     *
+     * @param order The new order.
+     */
+    public void setOrder(Order order)
+    {
+        if (order == (building ? buildOrder : this.order)) return;
+        //while building, the entries in the index are out of date, so they're read again
+        build(order, building ? readKeys() : new ArrayList<>(entriesById.values()));
+    }
+
+    /**
+     * Adds a task to the index, or moves it to its new place if it has changed.
+     *
+     * @param task The task to add or update.
+     */
+    public void put(Task task)
+    {
+        if (building)
+        {
+            pending.add(task.getId());
+            return;
+        }
+        Entry entry = createEntry(task, System.currentTimeMillis());
+        Entry old = entriesById.get(entry.id);
+        if (old != null)
+        {
+            if (old.sameKey(entry)) return; //still in the right place
+            removeEntry(old);
+        }
+        entry.name = collator.getCollationKey(entry.description);
+        insertEntry(entry);
+    }
+
+    /**
+     * Removes a task from the index.
+     *
+     * @param id The ID of the task to remove.
+     */
+    public void remove(UUID id)
+    {
+        if (building)
+        {
+            pending.add(id);
+            return;
+        }
+        Entry old = entriesById.get(id);
+        if (old != null)
+            removeEntry(old);
+    }
+
+    /**
+     * Adds or updates many tasks at once.
+     *
+     * @param tasks The tasks to add or update.
+     */
+    public void putAll(Collection<Task> tasks)
+    {
+        for (Task task : tasks)
+            put(task);
+    }
+
+    /**
+     * Removes many tasks at once.
+     *
+     * @param ids The IDs of the tasks to remove.
+     */
+    public void removeAll(Set<UUID> ids)
+    {
+        for (UUID id : ids)
+            remove(id);
+    }
+
+    /**
+     * Lists the IDs of the tasks in a section.
+     *
+     * @param status The status of the tasks in the section.
+     * @return The IDs, in the current order.
+     */
+    public List<UUID> getIds(TaskStatus status)
+    {
+        int section = sectionOf(status);
+        int start = getStart(section);
+        List<UUID> ids = new ArrayList<>(sectionCounts[section]);
+        for (int i = start; i < start + sectionCounts[section]; i++)
+            ids.add(get(i).id);
+        return ids;
+    }
+
+    /**
+     * Moves the tasks whose status, due time or other key may have changed since they were put
+     * into the index: those whose rows in the task table have changed, those that depend on them,
+     * and the waiting tasks that have come due. If the calendars have changed, every due time
+     * may have, so the whole index is built again.
+     */
+    public void revalidate()
+    {
+        if (building) return; //done when the build finishes
+        long section = PerfTrace.begin(PerfTrace.REVALIDATE);
+        if (calendarGeneration != Recurrence.getCalendarGeneration())
+        {
+            build(order, readKeys());
+            PerfTrace.end(PerfTrace.REVALIDATE, section);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        TaskTable table = tasks.getTable();
+        if (!changedRows.isEmpty())
+            table.addDependents(tasks, changedRows);
+        for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1))
+        {
+            Task task = table.getTask(row);
+            if (task != null)
+                put(task);
+        }
+        changedRows.clear();
+        while (!comingDue.isEmpty() && comingDue.first().due <= now)
+        {
+            Entry entry = comingDue.pollFirst();
+            Task task = tasks.getTask(entry.id);
+            if (task == null)
+                removeEntry(entry);
+            else
+                put(task);
+        }
+        PerfTrace.end(PerfTrace.REVALIDATE, section);
+    }
+
+    /**
+     * @return The number of tasks in a section.
+     */
+    public int getCount(TaskStatus status)
+    {
+        return sectionCounts[sectionOf(status)];
+    }
+
+    /**
+     * Gets a section as a task source.
+     * The source is a live view: it reflects changes to the index as they're made.
+     *
+     * @param status The status of the tasks in the section.
+     * @return The tasks in the section, in the current order.
+     */
+    public TaskSource getSection(TaskStatus status)
+    {
+        final int section = sectionOf(status);
+        return new TaskSource()
+        {
+            @Override
+            public int getCount()
+            {
+                return sectionCounts[section];
+            }
+
+            @Override
+            public UUID getId(int position)
+            {
+                return get(getStart(section) + position).id;
+            }
+
+            @Override
+            public List<Task> getTasks(int start, int count)
+            {
+                int first = getStart(section) + start;
+                int end = Math.min(first + count, getStart(section) + sectionCounts[section]);
+                List<Task> page = new ArrayList<>(Math.max(0, end - first));
+                for (int i = first; i < end; i++)
+                {
+                    Task task = tasks.getTask(get(i).id);
+                    if (task != null)
+                        page.add(task);
+                }
+                return page;
+            }
+        };
+    }
+
+    private int getStart(int section)
+    {
+        int start = 0;
+        for (int i = 0; i < section; i++)
+            start += sectionCounts[i];
+        return start;
+    }
+
+    /**
+     * Reads every task's key, without its collation key, which is made when it's built.
+     */
+    private List<Entry> readKeys()
+    {
+        calendarGeneration = Recurrence.getCalendarGeneration();
+        long now = System.currentTimeMillis();
+        List<Task> all = tasks.getTasks();
+        List<Entry> entries = new ArrayList<>(all.size());
+        for (Task task : all)
+            entries.add(createEntry(task, now));
+        return entries;
+    }
+
+    /**
+     * Makes the collation keys, sorts the entries and builds the tree in the background, and then
+     * puts it in place on the UI thread, along with anything put or removed in the meantime.
+     */
+    private void build(Order order, List<Entry> entries)
+    {
+        final int generation = ++buildGeneration;
+        building = true;
+        buildOrder = order;
+        final Comparator<Entry> comparator = getComparator(order);
+        final Collator collator = (Collator) this.collator.clone(); //a Collator isn't thread-safe
+        background.execute(() ->
+        {
+            long section = PerfTrace.begin(PerfTrace.BUILD_INDEX);
+            HashMap<UUID, Entry> byId = new HashMap<>(entries.size() * 2);
+            int[] counts = new int[SECTIONS.length];
+            TreeSet<Entry> due = new TreeSet<>(BY_DUE);
+            for (Entry entry : entries)
+            {
+                if (entry.name == null)
+                    entry.name = collator.getCollationKey(entry.description);
+                byId.put(entry.id, entry);
+                counts[entry.section]++;
+                if (entry.comesDue)
+                    due.add(entry);
+            }
+            Entry[] sorted = entries.toArray(new Entry[0]);
+            Arrays.sort(sorted, comparator);
+            Node tree = buildTree(sorted);
+            PerfTrace.end(PerfTrace.BUILD_INDEX, section);
+            uiThread.execute(() ->
+            {
+                if (generation != buildGeneration) return; //built again since
+                this.order = order;
+                this.comparator = comparator;
+                root = tree;
+                entriesById = byId;
+                sectionCounts = counts;
+                comingDue = due;
+                building = false;
+                for (UUID id : pending)
+                {
+                    Task task = tasks.getTask(id);
+                    if (task == null)
+                        remove(id);
+                    else
+                        put(task);
+                }
+                pending.clear();
+                revalidate();
+                List<Runnable> listeners = new ArrayList<>(readyListeners);
+                readyListeners.clear();
+                for (Runnable listener : listeners)
+                    listener.run();
+            });
+        });
+    }
+
+    private void insertEntry(Entry entry)
+    {
+        root = insert(root, new Node(entry, ThreadLocalRandom.current().nextInt()));
+        entriesById.put(entry.id, entry);
+        sectionCounts[entry.section]++;
+        if (entry.comesDue)
+            comingDue.add(entry);
+    }
+
+    private void removeEntry(Entry entry)
+    {
+        root = remove(root, entry);
+        entriesById.remove(entry.id);
+        sectionCounts[entry.section]--;
+        if (entry.comesDue)
+            comingDue.remove(entry);
+    }
+
+    /**
+     * @return The entry at a position in the whole list.
+     */
+    private Entry get(int position)
+    {
+        Node node = root;
+        while (true)
+        {
+            int left = size(node.left);
+            if (position < left)
+                node = node.left;
+            else if (position == left)
+                return node.entry;
+            else
+            {
+                position -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int size(Node node)
+    {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node resize(Node node)
+    {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private Node insert(Node node, Node added)
+    {
+        if (node == null)
+            return added;
+        if (added.priority > node.priority) //it goes here, with the subtree split around it
+        {
+            split(node, added.entry);
+            added.left = splitLeft;
+            added.right = splitRight;
+            return resize(added);
+        }
+        if (comparator.compare(added.entry, node.entry) < 0)
+            node.left = insert(node.left, added);
+        else
+            node.right = insert(node.right, added);
+        return resize(node);
+    }
+
+    /**
+     * Splits a subtree into the entries before the given one ({@link #splitLeft}) and the rest
+     * ({@link #splitRight}).
+     */
+    private void split(Node node, Entry entry)
+    {
+        if (node == null)
+        {
+            splitLeft = splitRight = null;
+        } else if (comparator.compare(node.entry, entry) < 0)
+        {
+            split(node.right, entry);
+            node.right = splitLeft;
+            splitLeft = resize(node);
+        } else
+        {
+            split(node.left, entry);
+            node.left = splitRight;
+            splitRight = resize(node);
+        }
+    }
+
+    private Node remove(Node node, Entry entry)
+    {
+        if (node == null)
+            return null;
+        int compared = comparator.compare(entry, node.entry);
+        if (compared == 0)
+            return merge(node.left, node.right);
+        if (compared < 0)
+            node.left = remove(node.left, entry);
+        else
+            node.right = remove(node.right, entry);
+        return resize(node);
+    }
+
+    /**
+     * Joins two subtrees, every entry of the first being before every entry of the second.
+     */
+    private static Node merge(Node first, Node second)
+    {
+        if (first == null) return second;
+        if (second == null) return first;
+        if (first.priority > second.priority)
+        {
+            first.right = merge(first.right, second);
+            return resize(first);
+        }
+        second.left = merge(first, second.left);
+        return resize(second);
+    }
+
+    /**
+     * Builds a tree from sorted entries in one pass, keeping the nodes down its right-hand edge
+     * on a stack.
+     */
+    private static Node buildTree(Entry[] sorted)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Node[] stack = new Node[sorted.length];
+        int top = 0;
+        for (Entry entry : sorted)
+        {
+            Node node = new Node(entry, random.nextInt());
+            Node last = null;
+            while (top > 0 && stack[top - 1].priority < node.priority)
+                last = stack[--top];
+            node.left = last;
+            if (top > 0)
+                stack[top - 1].right = node;
+            stack[top++] = node;
+        }
+        Node root = top == 0 ? null : stack[0];
+        setSizes(root);
+        return root;
+    }
+
+    private static int setSizes(Node node)
+    {
+        if (node == null) return 0;
+        node.size = 1 + setSizes(node.left) + setSizes(node.right);
+        return node.size;
+    }
+
+    /**
+     * Works out a task's key, apart from the collation key of its description.
+     */
+    private Entry createEntry(Task task, long now)
+    {
+        TaskStatus status;
+        if (task.isDone())
+            status = TaskStatus.DONE;
+        else if (!tasks.isAvailable(task, now))
+            status = TaskStatus.WAITING;
+        else
+            status = TaskStatus.READY;
+        //non-repeating tasks are always due, so they sort first by due time
+        long due;
+        if (task.getRepeatType() == Task.REPEAT_TYPE_NONE)
+            due = 0;
+        else if (task.getLastRun() <= 0)
+            due = Long.MAX_VALUE; //worked out from the current time, so it would keep changing
+        else
+            due = tasks.getDueTime(task, now);
+        int section = sectionOf(status);
+        return new Entry(task.getId(), section, task.getWeight(), due, task.getLastRun(), task.getDescription(),
+                section == WAITING && due > now && due != Long.MAX_VALUE);
+    }
+
+    private static int sectionOf(TaskStatus status)
+    {
+        for (int i = 0; i < SECTIONS.length; i++)
+        {
+            if (SECTIONS[i] == status) return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the comparator for an order. Every comparator sorts by section first and ends with
+     * the task ID, so that no two tasks compare equal and each one has exactly one place.
+     */
+    private static Comparator<Entry> getComparator(Order order)
+    {
+        Comparator<Entry> bySection = (a, b) -> Integer.compare(a.section, b.section);
+        Comparator<Entry> byPriority = (a, b) -> Integer.compare(b.weight, a.weight); //highest first
+        Comparator<Entry> byDue = (a, b) -> Long.compare(a.due, b.due);
+        Comparator<Entry> byLastRun = (a, b) -> Long.compare(b.lastRun, a.lastRun); //most recent first
+        Comparator<Entry> byName = (a, b) -> a.name.compareTo(b.name);
+        Comparator<Entry> comparator;
+        switch (order)
+        {
+            case NEXT_DUE:
+                comparator = bySection.thenComparing(byDue).thenComparing(byPriority);
+                break;
+            case LAST_RUN:
+                comparator = bySection.thenComparing(byLastRun).thenComparing(byName);
+                break;
+            case ALPHABETICAL:
+                comparator = bySection.thenComparing(byName);
+                break;
+            case PRIORITY:
+            default:
+                comparator = bySection.thenComparing(byPriority).thenComparing(byDue);
+                break;
+        }
+        return comparator.thenComparing((a, b) -> a.id.compareTo(b.id));
+    }
+}
@@ -1,8 +1,7 @@
 package com.stevedegroof.tellmewhattodo;
 
-import android.content.Context;
-
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.UUID;
 
@@ -28,6 +27,15 @@ import java.util.UUID;
  * <p>
  * Each task has a unique {@link UUID}.
  * </p>
+ * <p>
+ * The summary shown in the editor is cached in the task (see {@link #getSummary(Object)}). Every
+ * setter of a field shown in the summary increments the task's version, which makes the cached
+ * summary stale.
+ * </p>
+ * <p>
+ * A task in a {@link Tasks} also has a row in its {@link TaskTable}. Every setter of a field that
+ * availability depends on copies the change to the row.
+ * </p>
  */
 
 //TODO: Add a "snooze" feature (a snoozed task would not queue until unsnoozed)
@@ -61,7 +69,7 @@ public class Task
     private int repeatType = REPEAT_TYPE_NONE;
     private int repeatInterval = 0;
     private UUID id;
-    private final List<UUID> dependencies = new ArrayList<UUID>();
+    private final LinkedHashSet<UUID> dependencies = new LinkedHashSet<>(); //in the order they were added, no duplicates
     private long lastRun = 0;
     private int minute = ANY_TIME;
     private int dayOfMonth = ANY_DAY_OF_MONTH;
@@ -69,6 +77,13 @@ public class Task
     private int month = ANY_MONTH;
     private int minMinute = 0;
     private int maxMinute = 24 * 60 - 1;
+    private transient int version = 0; //incremented whenever a field shown in the summary changes
+    private transient String summary; //the cached summary
+    private transient int summaryVersion;
+    private transient Object summaryTemplates; //what the cached summary was rendered with
+    private transient TaskTable table; //the table this task has a row in, if any
+    private transient int row = -1;
+    private transient RecurrenceRule recurrenceRule; //compiled from the schedule fields when first needed
 
 
     public Task()
@@ -76,6 +91,14 @@ public class Task
         this.id = UUID.randomUUID();
     }
 
+    /**
+     * Creates a task with the given ID, e.g. so generated tasks can be reproduced exactly.
+     */
+    Task(UUID id)
+    {
+        this.id = id;
+    }
+
     public String getDescription()
     {
         return description;
@@ -84,6 +107,7 @@ public class Task
     public void setDescription(String description)
     {
         this.description = description;
+        version++;
     }
 
     public boolean isDone()
@@ -109,6 +133,7 @@ public class Task
                 this.done = false;
             }
         }
+        changed();
     }
 
     public UUID getId()
@@ -125,6 +150,8 @@ public class Task
     public void setRepeatInterval(int repeatInterval)
     {
         this.repeatInterval = repeatInterval;
+        version++;
+        scheduleChanged();
     }
 
     public int getRepeatType()
@@ -135,6 +162,8 @@ public class Task
     public void setRepeatType(int repeatType)
     {
         this.repeatType = repeatType;
+        version++;
+        scheduleChanged();
     }
 
     public int getWeight()
@@ -145,16 +174,45 @@ public class Task
     public void setWeight(int weight)
     {
         this.weight = weight;
+        version++;
+        changed();
     }
 
     public void addDependency(UUID id)
     {
         dependencies.add(id);
+        dependenciesChanged();
     }
 
     public void removeDependency(UUID id)
     {
         dependencies.remove(id);
+        dependenciesChanged();
+    }
+
+    public int getDependencyCount()
+    {
+        return dependencies.size();
+    }
+
+    /**
+     * Checks whether this task directly depends on the task with the given ID,
+     * without looking up any tasks.
+     *
+     * @param id The ID of the possible dependency.
+     * @return {@code true} if the ID is one of this task's dependencies.
+     */
+    public boolean hasDependency(UUID id)
+    {
+        return dependencies.contains(id);
+    }
+
+    /**
+     * @return A copy of the IDs of the tasks this task depends on, without looking up the tasks.
+     */
+    public List<UUID> getDependencyIds()
+    {
+        return new ArrayList<>(dependencies);
     }
 
     /**
@@ -188,6 +246,8 @@ public class Task
         {
             dependencies.remove(missingDependency);
         }
+        if (!missingDependencies.isEmpty())
+            dependenciesChanged();
         return tasks;
     }
 
@@ -202,31 +262,75 @@ public class Task
      *   - Repeating dependencies must have their last run time after this task's last run time.
      * This method also cleans up any missing dependencies (dependencies that no longer exist).
      *
+     * @param now The current time in milliseconds.
      * @return {@code true} if the task is available, {@code false} otherwise.
      */
-    public boolean isAvailable(Context context)
+    public boolean isAvailable(long now)
+    {
+        return isAvailable(Tasks.getInstance(), now);
+    }
+
+    /**
+     * Determines if a task is currently available to be done, looking its dependencies up in
+     * the given tasks rather than in the {@link Tasks} singleton.
+     *
+     * @param tasks The tasks the dependencies are in.
+     * @param now   The current time in milliseconds.
+     * @return {@code true} if the task is available, {@code false} otherwise.
+     * @see #isAvailable(long)
+     */
+    public boolean isAvailable(Tasks tasks, long now)
     {
         //TODO: Need to test all possible combinations of repeating anf non-repeating task dependencies
         boolean available = !done; //if done, not available
         if (repeatType != REPEAT_TYPE_NONE) //unless it repeats, then look at due date/time
         {
-            long due = Util.getDueTime(context,this);
-            long now = System.currentTimeMillis();
+            long due = Recurrence.getDueTime(this, now);
             available = (due <= now);
         }
+        return areDependenciesMet(tasks) && available;
+    }
+
+    /**
+     * Checks whether all of this task's dependencies are met, regardless of its own due time.
+     * - Non-repeating dependencies must be marked as 'done'.
+     * - Repeating dependencies must have their last run time on or after this task's last run time.
+     * Unlike due times, this doesn't change with the passage of time, only when tasks are changed.
+     * This method also cleans up any missing dependencies (dependencies that no longer exist).
+     *
+     * @return {@code true} if all dependencies are met, {@code false} otherwise.
+     */
+    public boolean areDependenciesMet()
+    {
+        return areDependenciesMet(Tasks.getInstance());
+    }
+
+    /**
+     * Checks whether all of this task's dependencies are met, looking them up in the given
+     * tasks rather than in the {@link Tasks} singleton.
+     *
+     * @param tasks The tasks the dependencies are in.
+     * @return {@code true} if all dependencies are met, {@code false} otherwise.
+     * @see #areDependenciesMet()
+     */
+    public boolean areDependenciesMet(Tasks tasks)
+    {
+        if (dependencies.isEmpty()) return true; //nothing to check, so don't make an iterator
+        boolean available = true;
         //check that all dependencies are done
-        List<UUID> missingDependencies = new ArrayList<>();
+        List<UUID> missingDependencies = null; //only made if there are any
         for (UUID dependency : dependencies)
         {
-            if (Tasks.getInstance().getTask(dependency) == null)
+            Task depTask = tasks.getTask(dependency);
+            if (depTask == null)
             {
+                if (missingDependencies == null) missingDependencies = new ArrayList<>();
                 missingDependencies.add(dependency);
             } else
             {
-                Task depTask = Tasks.getInstance().getTask(dependency);
                 if(depTask.getRepeatType() == REPEAT_TYPE_NONE) //dependency is non-repeating -> check done
                 {
-                    available = available && Tasks.getInstance().getTask(dependency).isDone();
+                    available = available && depTask.isDone();
                 }
                 else  //dependency is repeating -> check last run (repeating tasks are never done)
                 {
@@ -235,7 +339,11 @@ public class Task
                 }
             }
         }
-        dependencies.removeAll(missingDependencies);
+        if (missingDependencies != null)
+        {
+            dependencies.removeAll(missingDependencies);
+            dependenciesChanged();
+        }
         return available;
     }
 
@@ -253,6 +361,8 @@ public class Task
     public void setMinute(int minute)
     {
         this.minute = minute;
+        version++;
+        scheduleChanged();
     }
 
     public int getDayOfWeek()
@@ -263,6 +373,8 @@ public class Task
     public void setDayOfWeek(int dayOfWeek)
     {
         this.dayOfWeek = dayOfWeek;
+        version++;
+        scheduleChanged();
     }
 
     public int getDayOfMonth()
@@ -273,6 +385,8 @@ public class Task
     public void setDayOfMonth(int dayOfMonth)
     {
         this.dayOfMonth = dayOfMonth;
+        version++;
+        scheduleChanged();
     }
 
     public int getMaxMinute()
@@ -283,6 +397,8 @@ public class Task
     public void setMaxMinute(int maxMinute)
     {
         this.maxMinute = maxMinute;
+        version++;
+        scheduleChanged();
     }
 
     public int getMinMinute()
@@ -293,11 +409,15 @@ public class Task
     public void setMinMinute(int minMinute)
     {
         this.minMinute = minMinute;
+        version++;
+        scheduleChanged();
     }
 
     public void setMonth(int month)
     {
         this.month = month;
+        version++;
+        scheduleChanged();
     }
 
     public int getMonth()
@@ -308,6 +428,63 @@ public class Task
     public void setLastRun(long lastRun)
     {
         this.lastRun = lastRun;
+        changed();
+    }
+
+    /**
+     * Links this task to its row in a table, or unlinks it (with a null table).
+     */
+    void attach(TaskTable table, int row)
+    {
+        this.table = table;
+        this.row = row;
+    }
+
+    TaskTable getTable()
+    {
+        return table;
+    }
+
+    int getRow()
+    {
+        return row;
+    }
+
+    /**
+     * Gets the rule for working out this task's due times, compiling it from the schedule fields
+     * if they've changed since it was last needed. It's immutable, so if two threads compile it
+     * at once, either copy will do.
+     */
+    RecurrenceRule getRecurrenceRule()
+    {
+        RecurrenceRule rule = recurrenceRule;
+        if (rule == null)
+        {
+            rule = RecurrenceRule.compile(this);
+            recurrenceRule = rule;
+        }
+        return rule;
+    }
+
+    /**
+     * Copies the fields availability depends on to this task's row in its table, if it has one.
+     */
+    private void changed()
+    {
+        if (table != null)
+            table.update(row, this);
+    }
+
+    private void scheduleChanged()
+    {
+        recurrenceRule = null;
+        changed();
+    }
+
+    private void dependenciesChanged()
+    {
+        if (table != null)
+            table.updateDependencies(row, this);
     }
 
     /**
@@ -321,7 +498,7 @@ public class Task
     public boolean isDependentOn(Task task)
     {
         if (task == this) return true; //self dependency
-        if (dependencies.contains(task.getId())) return true; //direct dependency
+        if (hasDependency(task.getId())) return true; //direct dependency
         for (Task dependency : getDependencyTasks()) //recursive dependency
         {
             if (dependency.isDependentOn(task))
@@ -333,76 +510,31 @@ public class Task
     }
 
     /**
-     * Generates a human-readable summary of the task's properties.
-     * The summary includes the task description, priority, and repetition details (if any).
+     * Gets the cached summary of the task's properties, if it's still current.
      *
-     * @return A string containing the task summary.
+     * @param templates What the summary would be rendered with, such as the strings of the
+     *                  current locale.
+     * @return The summary kept by {@link #setSummary(String, Object)}, or {@code null} if there
+     *         isn't one, a field shown in it has changed since, or it was rendered with
+     *         different templates.
      */
-    public String getSummary(Context context)
+    String getSummary(Object templates)
     {
-        String summary = "";
-        if (description != null && !description.isEmpty())
-        {
-            summary += description + "\n";
-        }
-        switch (weight)
-        {
-            case PRIORITY_LOW:
-                summary += context.getString(R.string.priority_low);
-                break;
-            case PRIORITY_MEDIUM:
-                summary += context.getString(R.string.priority_medium);
-                break;
-            case PRIORITY_HIGH:
-                summary += context.getString(R.string.priority_high);
-                break;
-            case PRIORITY_URGENT:
-                summary += context.getString(R.string.priority_urgent);
-                break;
-        }
-        if (repeatType != REPEAT_TYPE_NONE)
-        {
-            switch (repeatType)
-            {
-                case REPEAT_TYPE_HOURLY:
-                    summary += String.format(context.getString(R.string.repeat_every_d_hour_s), repeatInterval);
-                    if (minMinute != START_OF_DAY && maxMinute != END_OF_DAY)
-                        summary += String.format(context.getString(R.string.between_s_and_s), Util.getTimeString(context,minMinute), Util.getTimeString(context,maxMinute));
-                    else if (minMinute != START_OF_DAY)
-                        summary += String.format(context.getString(R.string.from_s), Util.getTimeString(context,minMinute));
-                    else if (maxMinute != END_OF_DAY)
-                        summary += String.format(context.getString(R.string.until_s), Util.getTimeString(context,maxMinute));
-                    break;
-                case REPEAT_TYPE_DAILY:
-                    summary += String.format(context.getString(R.string.repeat_every_d_day_s), repeatInterval);
-                    if (minute != ANY_TIME)
-                        summary += String.format(context.getString(R.string.at_s), Util.getTimeString(context,minute));
-                    break;
-                case REPEAT_TYPE_WEEKLY:
-                    summary += String.format(context.getString(R.string.repeat_every_d_week_s), repeatInterval);
-                    if (dayOfWeek != ANY_DAY_OF_WEEK)
-                        summary += String.format(context.getString(R.string.on_s), Util.getDayOfWeekName(context,dayOfWeek));
-                    if (minute != ANY_TIME)
-                        summary += String.format(context.getString(R.string.at_s), Util.getTimeString(context,minute));
-                    break;
-                case REPEAT_TYPE_MONTHLY:
-                    summary += String.format(context.getString(R.string.repeat_every_d_month_s), repeatInterval);
-                    if (dayOfMonth != ANY_DAY_OF_MONTH)
-                        summary += String.format(context.getString(R.string.on_the_s), Util.getDayOfMonthNameShort(context,dayOfMonth));
-                    if (minute != ANY_TIME)
-                        summary += String.format(context.getString(R.string.at_s), Util.getTimeString(context,minute));
-                    break;
-                case REPEAT_TYPE_YEARLY:
-                    summary += String.format(context.getString(R.string.repeat_every_d_year_s), repeatInterval);
-                    if (dayOfMonth != ANY_DAY_OF_MONTH)
-                        summary += String.format(context.getString(R.string.on_the_s), Util.getDayOfMonthNameShort(context,dayOfMonth));
-                    if (month != ANY_MONTH)
-                        summary += String.format(context.getString(R.string.in_s), Util.getMonthName(context,month));
-                    if (minute != ANY_TIME)
-                        summary += String.format(context.getString(R.string.at_s), Util.getTimeString(context,minute));
-                    break;
-            }
-        }
+        if (summary == null || summaryVersion != version || summaryTemplates != templates)
+            return null;
         return summary;
     }
+
+    /**
+     * Keeps the summary of the task's properties, until a field shown in it changes.
+     *
+     * @param summary   The summary.
+     * @param templates What it was rendered with.
+     */
+    void setSummary(String summary, Object templates)
+    {
+        this.summary = summary;
+        this.summaryVersion = version;
+        this.summaryTemplates = templates;
+    }
 }
@@ -0,0 +1,57 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link TaskSource} over a fixed list of task IDs, such as search results.
+ * <p>
+ * The tasks themselves are looked up in {@link Tasks} as they're read, so they're always current.
+ * IDs of tasks that have since been removed are skipped.
+ * </p>
+ */
+public class TaskIdSource implements TaskSource
+{
+    private final List<UUID> ids;
+
+    public TaskIdSource(List<UUID> ids)
+    {
+        this.ids = ids;
+    }
+
+    /**
+     * @return The task IDs, in order.
+     */
+    public List<UUID> getIds()
+    {
+        return ids;
+    }
+
+    @Override
+    public int getCount()
+    {
+        return ids.size();
+    }
+
+    @Override
+    public UUID getId(int position)
+    {
+        return ids.get(position);
+    }
+
+    @Override
+    public List<Task> getTasks(int start, int count)
+    {
+        Tasks tasks = Tasks.getInstance();
+        int end = Math.min(start + count, ids.size());
+        List<Task> page = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++)
+        {
+            Task task = tasks.getTask(ids.get(i));
+            if (task != null)
+                page.add(task);
+        }
+        return page;
+    }
+}
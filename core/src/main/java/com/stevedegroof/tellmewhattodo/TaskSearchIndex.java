@@ -0,0 +1,207 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * An inverted index over task descriptions, for searching as you type.
+ * <p>
+ * Each description is split into lower case words. Every word is indexed as a whole (for
+ * exact and prefix matches) and as overlapping three letter sequences, or trigrams (for
+ * matches in the middle of a word, and for words that are slightly misspelled).
+ * The index is kept up to date one task at a time, as tasks are added, changed and removed,
+ * so it never has to be rebuilt.
+ * </p>
+ * <p>
+ * Results are ranked by how well every word in the query matches: an exact word scores
+ * highest, then a word that starts with the query word, then a word sharing enough trigrams
+ * with it. A task has to match every word in the query.
+ * </p>
+ */
+public class TaskSearchIndex
+{
+    private static final float EXACT_SCORE = 3f;
+    private static final float PREFIX_SCORE = 2f;
+    private static final float MIN_TRIGRAM_MATCH = 0.5f; //fraction of a query word's trigrams a task must share
+
+    private final TreeMap<String, Set<UUID>> words = new TreeMap<>();
+    private final HashMap<String, Set<UUID>> trigrams = new HashMap<>();
+    private final HashMap<UUID, String[]> taskWords = new HashMap<>(); //words indexed for each task, for removal
+
+    /**
+     * Adds a task to the index, or re-indexes it if its description has changed.
+     *
+     * @param task The task to index.
+     */
+    public void put(Task task)
+    {
+        String[] newWords = tokenize(task.getDescription());
+        String[] oldWords = taskWords.get(task.getId());
+        if (oldWords != null)
+        {
+            if (Arrays.equals(oldWords, newWords)) return; //nothing to do
+            remove(task.getId());
+        }
+        UUID id = task.getId();
+        taskWords.put(id, newWords);
+        for (String word : newWords)
+        {
+            add(words, word, id);
+            for (String trigram : trigramsOf(word))
+                add(trigrams, trigram, id);
+        }
+    }
+
+    /**
+     * Removes a task from the index.
+     *
+     * @param id The ID of the task to remove.
+     */
+    public void remove(UUID id)
+    {
+        String[] oldWords = taskWords.remove(id);
+        if (oldWords == null) return;
+        for (String word : oldWords)
+        {
+            remove(words, word, id);
+            for (String trigram : trigramsOf(word))
+                remove(trigrams, trigram, id);
+        }
+    }
+
+    /**
+     * Finds the tasks whose descriptions match the query, best matches first.
+     *
+     * @param query The text to search for.
+     * @param limit The maximum number of results.
+     * @return The IDs of the matching tasks, best match first.
+     *         Empty if there are no matches or the query has no words.
+     */
+    public List<UUID> search(String query, int limit)
+    {
+        String[] queryWords = tokenize(query);
+        if (queryWords.length == 0) return new ArrayList<>();
+        Map<UUID, Float> scores = null;
+        for (String queryWord : queryWords)
+        {
+            Map<UUID, Float> wordScores = scoreWord(queryWord);
+            if (scores == null)
+            {
+                scores = wordScores;
+            } else //keep only tasks that matched every word so far
+            {
+                Map<UUID, Float> combined = new HashMap<>();
+                for (Map.Entry<UUID, Float> entry : scores.entrySet())
+                {
+                    Float score = wordScores.get(entry.getKey());
+                    if (score != null)
+                        combined.put(entry.getKey(), entry.getValue() + score);
+                }
+                scores = combined;
+            }
+            if (scores.isEmpty()) break;
+        }
+        List<Map.Entry<UUID, Float>> ranked = new ArrayList<>(scores.entrySet());
+        Collections.sort(ranked, (a, b) -> Float.compare(b.getValue(), a.getValue()));
+        List<UUID> results = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++)
+            results.add(ranked.get(i).getKey());
+        return results;
+    }
+
+    /**
+     * Scores every task that matches a single query word.
+     */
+    private Map<UUID, Float> scoreWord(String queryWord)
+    {
+        Map<UUID, Float> scores = new HashMap<>();
+        //whole word and prefix matches
+        SortedMap<String, Set<UUID>> prefixed = words.subMap(queryWord, queryWord + Character.MAX_VALUE);
+        for (Map.Entry<String, Set<UUID>> entry : prefixed.entrySet())
+        {
+            float score = entry.getKey().equals(queryWord) ? EXACT_SCORE : PREFIX_SCORE;
+            for (UUID id : entry.getValue())
+                scores.merge(id, score, Math::max);
+        }
+        //substring and misspelled matches, by shared trigrams
+        List<String> queryTrigrams = trigramsOf(queryWord);
+        Map<UUID, Integer> hits = new HashMap<>();
+        for (String trigram : queryTrigrams)
+        {
+            Set<UUID> ids = trigrams.get(trigram);
+            if (ids == null) continue;
+            for (UUID id : ids)
+                hits.merge(id, 1, Integer::sum);
+        }
+        for (Map.Entry<UUID, Integer> entry : hits.entrySet())
+        {
+            float match = (float) entry.getValue() / queryTrigrams.size();
+            if (match >= MIN_TRIGRAM_MATCH)
+                scores.merge(entry.getKey(), match, Math::max);
+        }
+        return scores;
+    }
+
+    /**
+     * Splits text into distinct lower case words.
+     */
+    static String[] tokenize(String text)
+    {
+        if (text == null) return new String[0];
+        Set<String> tokens = new HashSet<>();
+        for (String token : text.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+"))
+        {
+            if (!token.isEmpty())
+                tokens.add(token);
+        }
+        String[] result = tokens.toArray(new String[0]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Gets the distinct trigrams of a word, padded so that its start and end count too.
+     */
+    private static List<String> trigramsOf(String word)
+    {
+        String padded = " " + word + " ";
+        List<String> result = new ArrayList<>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++)
+        {
+            String trigram = padded.substring(i, i + 3);
+            if (!result.contains(trigram))
+                result.add(trigram);
+        }
+        return result;
+    }
+
+    private static void add(Map<String, Set<UUID>> index, String key, UUID id)
+    {
+        Set<UUID> ids = index.get(key);
+        if (ids == null)
+        {
+            ids = new HashSet<>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void remove(Map<String, Set<UUID>> index, String key, UUID id)
+    {
+        Set<UUID> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty())
+            index.remove(key);
+    }
+}
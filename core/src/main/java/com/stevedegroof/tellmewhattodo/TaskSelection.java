@@ -0,0 +1,136 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The tasks selected in the task list, by ID.
+ * <p>
+ * The selection is stored as a set of IDs plus a flag saying whether that set lists the selected
+ * tasks or the unselected ones. So selecting all the tasks, or inverting the selection, just
+ * flips the flag, however many tasks there are; and checking whether one task is selected is a
+ * single lookup. The IDs are only listed out when a bulk operation needs them
+ * (see {@link #getSelectedIds()}).
+ * </p>
+ * <p>
+ * The selection only covers the tasks that are shown (see {@link #setScope(List)}): all the
+ * tasks in {@link Tasks}, or the results of a search. Selecting all, inverting and counting apply
+ * to those, and when the tasks shown change, any selected tasks no longer shown are unselected.
+ * </p>
+ */
+public class TaskSelection
+{
+    private boolean inverted = false; //if true, the exceptions are the unselected tasks
+    private final HashSet<UUID> exceptions = new HashSet<>();
+    private List<UUID> scope = null; //the IDs of the tasks shown, or null if they all are
+
+    public boolean isSelected(UUID id)
+    {
+        return inverted != exceptions.contains(id);
+    }
+
+    public void setSelected(UUID id, boolean selected)
+    {
+        if (selected != inverted)
+            exceptions.add(id);
+        else
+            exceptions.remove(id);
+    }
+
+    /**
+     * Selects the given tasks, in addition to any already selected.
+     *
+     * @param ids The IDs of the tasks to select.
+     */
+    public void select(Collection<UUID> ids)
+    {
+        if (inverted)
+            exceptions.removeAll(ids);
+        else
+            exceptions.addAll(ids);
+    }
+
+    public void selectAll()
+    {
+        inverted = true;
+        exceptions.clear();
+    }
+
+    public void invert()
+    {
+        inverted = !inverted;
+    }
+
+    /**
+     * Limits the selection to the tasks shown. The tasks that were selected and are still shown
+     * stay selected, and the rest are unselected.
+     *
+     * @param ids The IDs of the tasks shown, such as search results, or {@code null} if every
+     *            task is shown.
+     */
+    public void setScope(List<UUID> ids)
+    {
+        Set<UUID> selected = inverted || ids != null ? getSelectedIds() : null;
+        scope = ids;
+        if (selected == null) return; //all the selected tasks are still shown
+        if (ids != null)
+            selected.retainAll(new HashSet<>(ids));
+        inverted = false;
+        exceptions.clear();
+        exceptions.addAll(selected);
+    }
+
+    public void clear()
+    {
+        inverted = false;
+        exceptions.clear();
+    }
+
+    /**
+     * @return The number of selected tasks.
+     */
+    public int getCount()
+    {
+        if (!inverted)
+            return exceptions.size();
+        return (scope == null ? Tasks.getInstance().getCount() : scope.size()) - exceptions.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return getCount() == 0;
+    }
+
+    /**
+     * Lists the IDs of the selected tasks.
+     *
+     * @return A new set of the selected IDs.
+     */
+    public Set<UUID> getSelectedIds()
+    {
+        if (!inverted)
+            return new HashSet<>(exceptions);
+        long section = PerfTrace.begin(PerfTrace.SELECTED_IDS);
+        Set<UUID> ids;
+        if (scope == null)
+        {
+            Tasks tasks = Tasks.getInstance();
+            ids = new HashSet<>(tasks.getCount());
+            for (int i = 0; i < tasks.getCount(); i++)
+            {
+                UUID id = tasks.getId(i);
+                if (!exceptions.contains(id))
+                    ids.add(id);
+            }
+        } else
+        {
+            ids = new HashSet<>(scope);
+            ids.removeAll(exceptions);
+        }
+        PerfTrace.end(PerfTrace.SELECTED_IDS, section);
+        return ids;
+    }
+}
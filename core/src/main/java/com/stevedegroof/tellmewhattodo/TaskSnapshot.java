@@ -0,0 +1,379 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * A copy of the tasks in a fixed binary layout ("tasks.bin"), written alongside the tasks file
+ * each time the tasks are saved, and read through a memory-mapped buffer.
+ * <p>
+ * Opening it only maps the file, however many tasks there are, and nothing is read until it's
+ * asked for, so the current task can be shown as soon as the app starts, while the tasks file is
+ * still being parsed (by the main screen). Only the descriptions asked for are decoded into
+ * strings.
+ * </p>
+ * <p>
+ * The file is a header, then one fixed-size record per task (in position order), then the
+ * dependencies of every task (as record numbers), then the descriptions (UTF-8), which the
+ * records point into:
+ * <pre>
+ *     header:     magic, version, count, current task's record, tasks file length and
+ *                 stamp, offsets of the dependencies and descriptions
+ *     record:     ID, last run, weight, repeat type, repeat interval, minute, day of month,
+ *                 day of week, month, min minute, max minute, flags (done), description offset
+ *                 and length, first dependency, number of dependencies
+ * </pre>
+ * </p>
+ * <p>
+ * The tasks file is still the real data; this is only trusted if the tasks file's length and
+ * stamp (see {@link Tasks#readStamp(File)}) match the ones in its header. Every save gives the
+ * tasks file a new stamp, and the header is written last, after the rest of the file has been
+ * forced to the disk, so a snapshot that's out of date or only partly written is never trusted.
+ * </p>
+ * <p>
+ * When the tasks are saved and no task has been added, removed or put back since the file was
+ * written (such as when a task is marked done), only the records of the tasks whose fixed fields
+ * have changed (see {@link TaskTable#takeChangedRows()}) are rewritten, in place. Otherwise the
+ * whole file is written again: into the same mapping, if it fits, or else into a new, larger file
+ * that then replaces it. A file is never resized while it's mapped, and it's mapped once for each
+ * time it grows.
+ * </p>
+ */
+public class TaskSnapshot
+{
+    static final String FILE_NAME = "tasks.bin";
+    private static final int MAGIC = 0x544D5744; //"TMWD"
+    private static final int VERSION = 2;
+    private static final String TEMP_FILE_NAME = "tasks.bin.tmp";
+
+    //header layout
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_COUNT = 8;
+    private static final int H_CURRENT = 12;
+    private static final int H_JSON_LENGTH = 16;
+    private static final int H_STAMP = 24;
+    private static final int H_DEPENDENCIES = 32;
+    private static final int H_DESCRIPTIONS = 36;
+
+    //record layout
+    private static final int RECORD_SIZE = 80;
+    private static final int R_ID_MSB = 0;
+    private static final int R_ID_LSB = 8;
+    private static final int R_LAST_RUN = 16;
+    private static final int R_WEIGHT = 24;
+    private static final int R_REPEAT_TYPE = 28;
+    private static final int R_REPEAT_INTERVAL = 32;
+    private static final int R_MINUTE = 36;
+    private static final int R_DAY_OF_MONTH = 40;
+    private static final int R_DAY_OF_WEEK = 44;
+    private static final int R_MONTH = 48;
+    private static final int R_MIN_MINUTE = 52;
+    private static final int R_MAX_MINUTE = 56;
+    private static final int R_FLAGS = 60;
+    private static final int R_DESCRIPTION_OFFSET = 64;
+    private static final int R_DESCRIPTION_LENGTH = 68;
+    private static final int R_FIRST_DEPENDENCY = 72;
+    private static final int R_DEPENDENCY_COUNT = 76;
+    private static final int FLAG_DONE = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int descriptions;
+    //only for a snapshot written by this process:
+    private int structureVersion = -1; //of the tasks it was written from
+    private int[] records = null; //the record number of each row of the task table, or -1
+
+    private TaskSnapshot(MappedByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.count = buffer.getInt(H_COUNT);
+        this.descriptions = buffer.getInt(H_DESCRIPTIONS);
+    }
+
+    /**
+     * Maps the file for reading, if it's there and matches the tasks file.
+     *
+     * @param directory The directory the tasks file and the snapshot are in.
+     * @return The snapshot, or {@code null} if there isn't one that can be trusted.
+     */
+    public static TaskSnapshot open(File directory)
+    {
+        File file = new File(directory, FILE_NAME);
+        File json = new File(directory, Tasks.TASKS_FILE_NAME);
+        if (!file.exists() || file.length() < HEADER_SIZE) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION) return null;
+            long stamp = buffer.getLong(H_STAMP);
+            if (stamp == 0 || stamp != Tasks.readStamp(json) || buffer.getLong(H_JSON_LENGTH) != json.length())
+                return null; //out of date, or only partly written
+            return new TaskSnapshot(buffer);
+        } catch (IOException e)
+        {
+        }
+        return null;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The record number of the current task, or -1 if there isn't one.
+     */
+    public int getCurrentIndex()
+    {
+        return buffer.getInt(H_CURRENT);
+    }
+
+    public UUID getId(int index)
+    {
+        int record = recordAt(index);
+        return new UUID(buffer.getLong(record + R_ID_MSB), buffer.getLong(record + R_ID_LSB));
+    }
+
+    public long getLastRun(int index)
+    {
+        return buffer.getLong(recordAt(index) + R_LAST_RUN);
+    }
+
+    public boolean isDone(int index)
+    {
+        return (buffer.getInt(recordAt(index) + R_FLAGS) & FLAG_DONE) != 0;
+    }
+
+    /**
+     * Decodes a task's description. This is the only way a string is made from the file.
+     */
+    public String getDescription(int index)
+    {
+        int record = recordAt(index);
+        byte[] bytes = new byte[buffer.getInt(record + R_DESCRIPTION_LENGTH)];
+        for (int i = 0, offset = descriptions + buffer.getInt(record + R_DESCRIPTION_OFFSET); i < bytes.length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int recordAt(int index)
+    {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /**
+     * Brings the file up to date with the tasks, after they've been saved to the tasks file:
+     * in place if only the fixed fields can have changed since the previous snapshot was written,
+     * otherwise by writing the whole file again.
+     *
+     * @param directory        The directory the tasks file and the snapshot are in.
+     * @param tasks            The tasks.
+     * @param structureVersion The tasks' structure version (see {@link Tasks}); tasks haven't been
+     *                         added, removed or put back while it stays the same.
+     * @param changedRows      The rows of the task table whose fields have changed since the
+     *                         previous save.
+     * @param stamp            The stamp the tasks file was just saved with.
+     * @param previous         The snapshot last returned by this method, or {@code null}.
+     * @return The up-to-date snapshot, or {@code null} if it couldn't be written.
+     */
+    static TaskSnapshot save(File directory, Tasks tasks, int structureVersion, BitSet changedRows, long stamp, TaskSnapshot previous)
+    {
+        File json = new File(directory, Tasks.TASKS_FILE_NAME);
+        long start = Metrics.start();
+        long section = PerfTrace.begin(PerfTrace.SNAPSHOT);
+        try
+        {
+            if (previous != null && previous.records != null && previous.structureVersion == structureVersion
+                    && previous.count == tasks.getCount() && previous.update(tasks, changedRows))
+            {
+                previous.validate(stamp, json.length());
+                return previous;
+            }
+            TaskSnapshot snapshot = write(directory, tasks, previous);
+            snapshot.structureVersion = structureVersion;
+            snapshot.validate(stamp, json.length());
+            return snapshot;
+        } catch (IOException | RuntimeException e)
+        {
+            new File(directory, FILE_NAME).delete(); //don't leave a file that might be trusted
+            return null;
+        } finally
+        {
+            PerfTrace.end(PerfTrace.SNAPSHOT, section);
+            Metrics.stop(Metrics.SNAPSHOT, start);
+        }
+    }
+
+    /**
+     * Rewrites the fixed fields of the records of the changed rows, and the current task, in place.
+     * Like a whole write, this isn't trusted until it's validated, since the stamp in the header is
+     * the previous save's.
+     *
+     * @return {@code false} if a changed row has no record, so the whole file must be written.
+     */
+    private boolean update(Tasks tasks, BitSet changedRows)
+    {
+        TaskTable table = tasks.getTable();
+        for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1))
+        {
+            Task task = row < records.length && records[row] >= 0 ? table.getTask(row) : null;
+            if (task == null) return false;
+            putFields(buffer, recordAt(records[row]), task);
+        }
+        buffer.putInt(H_CURRENT, recordOf(tasks, tasks.getCurrentTaskId()));
+        return true;
+    }
+
+    /**
+     * Forces what's been written to the disk, and then marks the file as matching the tasks file,
+     * and forces that too.
+     */
+    private void validate(long stamp, long jsonLength)
+    {
+        buffer.force();
+        buffer.putLong(H_JSON_LENGTH, jsonLength);
+        buffer.putLong(H_STAMP, stamp);
+        buffer.force();
+    }
+
+    /**
+     * Writes the whole file, except the tasks file's length and stamp (see {@link #validate}).
+     * If the previous snapshot's mapping is big enough it's written into, otherwise a new file
+     * half as big again as needed is written and mapped, and then replaces the old one.
+     */
+    private static TaskSnapshot write(File directory, Tasks tasks, TaskSnapshot previous) throws IOException
+    {
+        int count = tasks.getCount();
+        HashMap<UUID, Integer> indexes = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++)
+            indexes.put(tasks.getId(i), i);
+        //work out the size of each region first, so the file can be mapped once
+        byte[][] descriptionBytes = new byte[count][];
+        long descriptionsSize = 0;
+        long dependencyCount = 0;
+        for (int i = 0; i < count; i++)
+        {
+            Task task = tasks.getTask(tasks.getId(i));
+            descriptionBytes[i] = task.getDescription().getBytes(StandardCharsets.UTF_8);
+            descriptionsSize += descriptionBytes[i].length;
+            dependencyCount += task.getDependencyCount();
+        }
+        long dependencies = HEADER_SIZE + (long) count * RECORD_SIZE;
+        long descriptions = dependencies + 4 * dependencyCount;
+        long size = descriptions + descriptionsSize;
+        if (size > Integer.MAX_VALUE) throw new IOException("Too many tasks for a snapshot");
+
+        MappedByteBuffer buffer;
+        File temp = null;
+        if (previous != null && previous.records != null && size <= previous.buffer.capacity())
+        {
+            //its header still has the previous save's stamp, which the tasks file no longer has,
+            //so it isn't trusted until it's validated
+            buffer = previous.buffer;
+        } else
+        {
+            temp = new File(directory, TEMP_FILE_NAME);
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"))
+            {
+                raf.setLength(0); //in case an old one was left behind
+                raf.setLength(Math.min(Integer.MAX_VALUE, size + size / 2)); //room to grow, before it's mapped
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+        }
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_COUNT, count);
+        buffer.putInt(H_DEPENDENCIES, (int) dependencies);
+        buffer.putInt(H_DESCRIPTIONS, (int) descriptions);
+        int nextDependency = 0;
+        int nextDescription = 0;
+        for (int i = 0; i < count; i++)
+        {
+            Task task = tasks.getTask(tasks.getId(i));
+            int record = recordAt(i);
+            buffer.putLong(record + R_ID_MSB, task.getId().getMostSignificantBits());
+            buffer.putLong(record + R_ID_LSB, task.getId().getLeastSignificantBits());
+            putFields(buffer, record, task);
+            buffer.putInt(record + R_DESCRIPTION_OFFSET, nextDescription);
+            buffer.putInt(record + R_DESCRIPTION_LENGTH, descriptionBytes[i].length);
+            buffer.position((int) descriptions + nextDescription);
+            buffer.put(descriptionBytes[i]);
+            nextDescription += descriptionBytes[i].length;
+            //the dependencies that exist, as record numbers
+            int first = nextDependency;
+            for (UUID id : task.getDependencyIds())
+            {
+                Integer index = indexes.get(id);
+                if (index != null)
+                    buffer.putInt((int) dependencies + 4 * nextDependency++, index);
+            }
+            buffer.putInt(record + R_FIRST_DEPENDENCY, first);
+            buffer.putInt(record + R_DEPENDENCY_COUNT, nextDependency - first);
+        }
+        TaskSnapshot snapshot = new TaskSnapshot(buffer);
+        snapshot.records = findRecords(tasks);
+        buffer.putInt(H_CURRENT, snapshot.recordOf(tasks, tasks.getCurrentTaskId()));
+        if (temp != null)
+        {
+            buffer.force(); //all of it, before it replaces the old file
+            Files.move(temp.toPath(), new File(directory, FILE_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The record number of each row of the task table, or -1 for a free row.
+     */
+    private static int[] findRecords(Tasks tasks)
+    {
+        TaskTable table = tasks.getTable();
+        int[] records = new int[table.getSize()];
+        Arrays.fill(records, -1);
+        for (int i = 0; i < tasks.getCount(); i++)
+        {
+            Task task = tasks.getTask(tasks.getId(i));
+            if (task.getTable() == table && task.getRow() >= 0)
+                records[task.getRow()] = i;
+        }
+        return records;
+    }
+
+    private static void putFields(MappedByteBuffer buffer, int record, Task task)
+    {
+        buffer.putLong(record + R_LAST_RUN, task.getLastRun());
+        buffer.putInt(record + R_WEIGHT, task.getWeight());
+        buffer.putInt(record + R_REPEAT_TYPE, task.getRepeatType());
+        buffer.putInt(record + R_REPEAT_INTERVAL, task.getRepeatInterval());
+        buffer.putInt(record + R_MINUTE, task.getMinute());
+        buffer.putInt(record + R_DAY_OF_MONTH, task.getDayOfMonth());
+        buffer.putInt(record + R_DAY_OF_WEEK, task.getDayOfWeek());
+        buffer.putInt(record + R_MONTH, task.getMonth());
+        buffer.putInt(record + R_MIN_MINUTE, task.getMinMinute());
+        buffer.putInt(record + R_MAX_MINUTE, task.getMaxMinute());
+        buffer.putInt(record + R_FLAGS, task.isDone() ? FLAG_DONE : 0);
+    }
+
+    /**
+     * @return The record number of the task with the given ID, or -1 if there's no such task.
+     */
+    private int recordOf(Tasks tasks, UUID id)
+    {
+        Task task = id == null ? null : tasks.getTask(id);
+        if (task == null || task.getTable() != tasks.getTable()) return -1;
+        int row = task.getRow();
+        return row >= 0 && row < records.length ? records[row] : -1;
+    }
+}
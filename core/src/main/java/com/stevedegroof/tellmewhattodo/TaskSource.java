@@ -0,0 +1,42 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A positional view of a set of tasks, read a window at a time.
+ * <p>
+ * This lets the task list show very large sets of tasks without copying all of them:
+ * only the count is needed up front, and tasks are fetched a page at a time as the list
+ * is scrolled. {@link Tasks} is the in-memory source; other
+ * sources (such as a disk-backed store or a filtered view) can be used the same way.
+ * </p>
+ * <p>
+ * Positions are only stable until the underlying tasks change.
+ * </p>
+ */
+public interface TaskSource
+{
+    /**
+     * @return The number of tasks in the source.
+     */
+    int getCount();
+
+    /**
+     * Gets the ID of the task at the given position, without materializing the task.
+     *
+     * @param position The position of the task, from 0 to {@link #getCount()} - 1.
+     * @return The ID of the task at that position.
+     */
+    UUID getId(int position);
+
+    /**
+     * Gets a window of tasks.
+     *
+     * @param start The position of the first task to get.
+     * @param count The maximum number of tasks to get.
+     * @return The tasks from {@code start} up to {@code start + count}, or fewer if the end
+     *         of the source is reached.
+     */
+    List<Task> getTasks(int start, int count);
+}
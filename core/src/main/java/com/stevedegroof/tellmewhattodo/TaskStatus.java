@@ -0,0 +1,12 @@
+package com.stevedegroof.tellmewhattodo;
+
+/**
+ * The status of a task, as shown in the task list: done, waiting for its due time or its
+ * dependencies, or ready to be done.
+ */
+public enum TaskStatus
+{
+    DONE,
+    WAITING,
+    READY
+}
@@ -0,0 +1,770 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The fields of the tasks that availability depends on, kept in parallel primitive arrays (one
+ * row per task), so the scans behind {@link Tasks#getNextTask(long)},
+ * {@link Tasks#getAvailableTasks(long)} and {@link Tasks#getNextDueTime(long)} are tight loops
+ * over a few arrays, instead of visiting every {@link Task} object on the heap.
+ * <p>
+ * Each task's due time is worked out once and kept in the table, so the scan only compares
+ * numbers. It's worked out again when any of the task's scheduling fields change, when the
+ * calendars change (see {@link Recurrence#resetCalendars()}), and every time for a task that has
+ * never run, whose due time depends on the current time. Each row keeps its task's compiled
+ * {@link RecurrenceRule}, so working a due time out only reads the table.
+ * </p>
+ * <p>
+ * A task's row number is its handle within the table: it stays the same for as long as the task
+ * is in the table. Each task's dependencies are kept as the handles of the tasks they refer to,
+ * so checking them reads the dependencies' rows by index, without looking their IDs up. Along
+ * with the handles, each row keeps the {@link Task} objects they were worked out from, so after a
+ * task is removed or replaced, a row's handles can be checked by comparing references, and only
+ * the rows whose dependencies really changed are worked out again from the IDs. The IDs stay the
+ * way tasks refer to each other outside the table, and in the tasks file.
+ * </p>
+ * <p>
+ * The table is only changed on the UI thread (see {@link Tasks}), and everything that can change
+ * it is done before a scan starts, on the thread that asked for it: the calendars are checked,
+ * and any out of date handles are worked out again (removing dependencies on tasks that no
+ * longer exist). The scan itself then only reads the columns.
+ * </p>
+ * <p>
+ * Large tables (see {@link #PARALLEL_THRESHOLD}) are scanned in parallel, split into ranges of
+ * rows on the common {@link ForkJoinPool}. Every range is checked against the same current time,
+ * and the rows found are put back together in row order, so the result is the same as scanning
+ * them one after another. The workers don't write to the table at all: a due time a worker works
+ * out is handed back with its results, and kept once they've all finished.
+ * </p>
+ * <p>
+ * The task and dependency columns can be shared with a {@link DependencyGraph} (see
+ * {@link #getDependencyGraph(Tasks)}), which reads them on another thread. They're copied before
+ * the table next changes them, so taking a graph costs nothing unless the table then changes.
+ * </p>
+ * <p>
+ * The {@link Task} objects are still the real data (they're what's saved, and what the screens
+ * show): each task in a table knows its row, and its setters write the changes through to it.
+ * A removed task's row is reused by the next task added, so rows aren't in any particular order.
+ * </p>
+ */
+public class TaskTable
+{
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long UNKNOWN = Long.MIN_VALUE; //due time not worked out yet
+    /**
+     * The number of rows from which a scan is split across threads. Below this, starting the
+     * threads costs more than it saves.
+     */
+    static final int PARALLEL_THRESHOLD = 50000;
+    private static final int RANGES_PER_THREAD = 4; //so a thread that's held up doesn't hold up the scan
+
+    //the columns, by row; a row whose task is null is free
+    private Task[] tasks = new Task[INITIAL_CAPACITY];
+    private int[] weights = new int[INITIAL_CAPACITY];
+    private int[] repeatTypes = new int[INITIAL_CAPACITY];
+    private int[] dependencyCounts = new int[INITIAL_CAPACITY];
+    private boolean[] done = new boolean[INITIAL_CAPACITY];
+    private long[] lastRuns = new long[INITIAL_CAPACITY];
+    private long[] dueTimes = new long[INITIAL_CAPACITY];
+    private RecurrenceRule[] rules = new RecurrenceRule[INITIAL_CAPACITY];
+    private int[][] dependencies = new int[INITIAL_CAPACITY][]; //the rows of the dependencies, or null if not worked out
+    private Task[][] dependencyTasks = new Task[INITIAL_CAPACITY][]; //the tasks in those rows when they were worked out
+    private int size = 0; //rows used so far, free or not
+    private int count = 0; //rows with a task in them
+
+    private int[] freeRows = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+    private boolean handlesChecked = true; //false when a task has been removed or replaced since the handles were last checked
+    private boolean shared = false; //true if the task and dependency columns are shared with a DependencyGraph
+    private int calendarGeneration = Recurrence.getCalendarGeneration();
+    private int[] scratch = new int[INITIAL_CAPACITY]; //the rows found by a scan
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+    private final List<BitSet> trackers = new ArrayList<>(); //each marks the rows changed since it was last cleared
+    private final BitSet changedRows = trackChanges(); //rows updated since the last save (see takeChangedRows)
+
+    /**
+     * Adds a task, and links it to its row.
+     */
+    public void add(Task task)
+    {
+        int row;
+        if (freeCount > 0)
+        {
+            row = freeRows[--freeCount];
+        } else
+        {
+            if (size == tasks.length) grow();
+            row = size++;
+        }
+        unshare();
+        tasks[row] = task;
+        count++;
+        task.attach(this, row);
+        updateDependencies(row, task);
+    }
+
+    /**
+     * Puts a different {@link Task} object for the same task in the row of the old one.
+     */
+    public void replace(Task old, Task task)
+    {
+        int row = old.getRow();
+        if (old.getTable() != this || row < 0)
+        {
+            add(task);
+            return;
+        }
+        unshare();
+        old.attach(null, -1);
+        tasks[row] = task;
+        task.attach(this, row);
+        updateDependencies(row, task); //the new object may have different dependencies
+        handlesChecked = false; //and rows that depend on the old one must refer to the new one
+    }
+
+    /**
+     * Gets the rows whose tasks' fields have changed since this was last called, so that only
+     * they need to be written again (see {@link TaskSnapshot}).
+     *
+     * @return The rows, which the table no longer changes.
+     */
+    BitSet takeChangedRows()
+    {
+        BitSet changed = (BitSet) changedRows.clone();
+        changedRows.clear();
+        return changed;
+    }
+
+    /**
+     * Starts keeping track of the rows whose tasks change: from now on, a row is marked in the
+     * returned set whenever its task's fields change or it's removed, until whoever asked clears
+     * it. Removing a task can change the tasks that depended on it, which are marked once the
+     * missing dependency is noticed (see {@link #addDependents(Tasks, BitSet)}).
+     *
+     * @return The set of changed rows, which the table keeps marking.
+     */
+    BitSet trackChanges()
+    {
+        BitSet changed = new BitSet();
+        trackers.add(changed);
+        return changed;
+    }
+
+    /**
+     * Adds the rows whose tasks depend directly on the given rows' tasks, whose readiness may
+     * have changed along with them. Any out of date handles are worked out first, so this should
+     * be called on the UI thread.
+     *
+     * @param owner The tasks the dependencies are looked up in.
+     * @param rows  The rows, to which their dependents are added.
+     */
+    void addDependents(Tasks owner, BitSet rows)
+    {
+        checkHandles(owner); //which may mark rows whose missing dependencies it removes
+        BitSet changed = (BitSet) rows.clone();
+        for (int row = 0; row < size; row++)
+        {
+            int[] found = dependencies[row];
+            if (found == null || rows.get(row)) continue;
+            for (int dependency : found)
+            {
+                if (changed.get(dependency))
+                {
+                    rows.set(row);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a task, freeing its row.
+     */
+    public void remove(Task task)
+    {
+        int row = task.getRow();
+        if (task.getTable() != this || row < 0) return;
+        unshare();
+        task.attach(null, -1);
+        tasks[row] = null;
+        dependencies[row] = null;
+        dependencyTasks[row] = null;
+        rules[row] = null;
+        for (BitSet tracker : trackers)
+            tracker.set(row);
+        count--;
+        handlesChecked = false; //any dependencies on this row must be worked out again
+        if (freeCount == freeRows.length)
+            freeRows = Arrays.copyOf(freeRows, freeRows.length * 2);
+        freeRows[freeCount++] = row;
+    }
+
+    /**
+     * Copies a task's fields into its row. Called by the task whenever they change.
+     */
+    void update(int row, Task task)
+    {
+        for (BitSet tracker : trackers)
+            tracker.set(row);
+        weights[row] = task.getWeight();
+        repeatTypes[row] = task.getRepeatType();
+        dependencyCounts[row] = task.getDependencyCount();
+        done[row] = task.isDone();
+        lastRuns[row] = task.getLastRun();
+        dueTimes[row] = UNKNOWN;
+        rules[row] = task.getRecurrenceRule();
+    }
+
+    /**
+     * Copies a task's fields into its row, and forgets the handles of its dependencies.
+     * Called by the task whenever its dependencies change.
+     */
+    void updateDependencies(int row, Task task)
+    {
+        update(row, task);
+        unshare();
+        dependencies[row] = null;
+        dependencyTasks[row] = null;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The number of rows, some of which may be free.
+     */
+    int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return The task in a row, or {@code null} if the row is free.
+     */
+    Task getTask(int row)
+    {
+        return row < size ? tasks[row] : null;
+    }
+
+    /**
+     * Changes the number of rows from which scans are split across threads, e.g. to compare
+     * parallel and sequential scans of the same table.
+     */
+    void setParallelThreshold(int parallelThreshold)
+    {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return About how many bytes the table's arrays take up.
+     */
+    public long getMemoryBytes()
+    {
+        //four references and three ints (4 bytes each), two longs and a boolean, plus a free row and a scratch row
+        long bytes = (long) tasks.length * (4 * 4 + 3 * 4 + 2 * 8 + 1) + 4L * freeRows.length + 4L * scratch.length;
+        for (int row = 0; row < size; row++)
+        {
+            if (dependencies[row] != null)
+                bytes += 2 * (16 + 4L * dependencies[row].length); //two arrays' headers, the handles and the tasks
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the ready tasks to a list, in row order.
+     *
+     * @param owner The tasks the dependencies are looked up in.
+     * @param now   The current time in milliseconds.
+     * @param out   The list to add them to.
+     */
+    public void collectAvailable(Tasks owner, long now, List<Task> out)
+    {
+        int found = scan(owner, now);
+        for (int i = 0; i < found; i++)
+            out.add(tasks[scratch[i]]);
+    }
+
+    /**
+     * Picks one of the ready tasks at random, in proportion to their weights.
+     *
+     * @param owner  The tasks the dependencies are looked up in.
+     * @param now    The current time in milliseconds.
+     * @param random A random number from 0 (inclusive) to 1 (exclusive).
+     * @return The task picked, or {@code null} if none are ready.
+     */
+    public Task pickAvailable(Tasks owner, long now, double random)
+    {
+        int found = scan(owner, now);
+        if (found == 0) return null;
+        //get the total of all weights
+        int totalWeight = 0;
+        for (int i = 0; i < found; i++)
+            totalWeight += weights[scratch[i]];
+        //get a random number between 0 and the total weight
+        int randomWeight = (int) (random * totalWeight);
+        //get the task with the random weight
+        int currentWeight = 0;
+        for (int i = 0; i < found; i++)
+        {
+            currentWeight += weights[scratch[i]];
+            if (currentWeight >= randomWeight)
+                return tasks[scratch[i]];
+        }
+        return null;
+    }
+
+    /**
+     * Finds the earliest time at which a repeating task that is not yet due will come due.
+     *
+     * @param now The current time in milliseconds.
+     * @return The earliest upcoming due time, or {@link Long#MAX_VALUE} if there isn't one.
+     */
+    public long getNextDueTime(long now)
+    {
+        checkCalendars();
+        long next = Long.MAX_VALUE;
+        for (int row = 0; row < size; row++)
+        {
+            if (repeatTypes[row] == Task.REPEAT_TYPE_NONE || tasks[row] == null) continue;
+            long due = getDueTime(row, now, null);
+            if (due > now && due < next)
+                next = due;
+        }
+        return next;
+    }
+
+    /**
+     * Finds the repeating tasks of at least a given priority that are waiting to come due and
+     * whose dependencies are already met, from the due times kept in the table, in the same way
+     * as {@link #getNextDueTime(long)}. Like the scans, it should only be called on the UI thread.
+     *
+     * @param owner     The tasks the dependencies are looked up in.
+     * @param now       The current time in milliseconds.
+     * @param minWeight The lowest priority to include.
+     * @param out       The list to add the tasks to, in no particular order.
+     */
+    public void collectComingDue(Tasks owner, long now, int minWeight, List<Task> out)
+    {
+        checkCalendars();
+        checkHandles(owner);
+        for (int row = 0; row < size; row++)
+        {
+            if (tasks[row] == null || repeatTypes[row] == Task.REPEAT_TYPE_NONE || weights[row] < minWeight) continue;
+            if (getDueTime(row, now, null) > now && (dependencyCounts[row] == 0 || areDependenciesMet(row)))
+                out.add(tasks[row]);
+        }
+    }
+
+    /**
+     * Checks whether a task is ready, in the same way as the scans, from its row.
+     * Like them, it should only be called on the UI thread.
+     *
+     * @param owner The tasks the dependencies are looked up in.
+     * @param task  The task.
+     * @param now   The current time in milliseconds.
+     * @return {@code true} if the task is ready.
+     */
+    public boolean isAvailable(Tasks owner, Task task, long now)
+    {
+        int row = task.getRow();
+        if (task.getTable() != this || row < 0)
+            return task.isAvailable(owner, now);
+        checkCalendars();
+        if (dependencyCounts[row] > 0 && (!handlesChecked || dependencies[row] == null))
+            checkHandles(owner, row);
+        return isAvailable(row, now, null);
+    }
+
+    /**
+     * Gets the next due time of a repeating task from its row, working it out if it isn't known.
+     * Like the scans, it should only be called on the UI thread.
+     *
+     * @param task The task.
+     * @param now  The current time in milliseconds.
+     * @return The due time in milliseconds.
+     */
+    public long getDueTime(Task task, long now)
+    {
+        int row = task.getRow();
+        if (task.getTable() != this || row < 0)
+            return Recurrence.getDueTime(task, now);
+        checkCalendars();
+        return getDueTime(row, now, null);
+    }
+
+    /**
+     * Finds the ready tasks, and puts their rows at the start of {@link #scratch}.
+     *
+     * @return The number of rows found.
+     */
+    private int scan(Tasks owner, long now)
+    {
+        checkCalendars();
+        checkHandles(owner);
+        if (scratch.length < size)
+            scratch = new int[tasks.length];
+        int threads = ForkJoinPool.getCommonPoolParallelism();
+        if (size < parallelThreshold || threads < 2)
+            return scanRange(now, 0, size, scratch, null);
+
+        //split the rows into ranges, scan them all, and put the results back together in order
+        int ranges = threads * RANGES_PER_THREAD;
+        RangeScan[] scans = new RangeScan[ranges];
+        for (int i = 0; i < ranges; i++)
+            scans[i] = new RangeScan(now, (int) ((long) size * i / ranges), (int) ((long) size * (i + 1) / ranges));
+        ForkJoinPool.commonPool().invoke(new RecursiveAction()
+        {
+            @Override
+            protected void compute()
+            {
+                invokeAll(scans);
+            }
+        });
+        int found = 0;
+        for (RangeScan scan : scans)
+        {
+            System.arraycopy(scan.rows, 0, scratch, found, scan.found);
+            found += scan.found;
+            for (int i = 0; i < scan.dueCount; i++) //keep the due times the workers worked out
+                dueTimes[scan.dueRows[i]] = scan.dueTimes[i];
+        }
+        return found;
+    }
+
+    /**
+     * Scans one range of rows on a pool thread. It only reads the table: the due times it works
+     * out are kept here, to be copied to the table once the scan is over.
+     */
+    private final class RangeScan extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final long now;
+        private final int from;
+        private final int to;
+        int[] rows;
+        int found;
+        int[] dueRows = new int[INITIAL_CAPACITY];
+        long[] dueTimes = new long[INITIAL_CAPACITY];
+        int dueCount = 0;
+
+        RangeScan(long now, int from, int to)
+        {
+            this.now = now;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            rows = new int[to - from];
+            found = scanRange(now, from, to, rows, this);
+        }
+
+        void keepDueTime(int row, long due)
+        {
+            if (dueCount == dueRows.length)
+            {
+                dueRows = Arrays.copyOf(dueRows, dueCount * 2);
+                dueTimes = Arrays.copyOf(dueTimes, dueCount * 2);
+            }
+            dueRows[dueCount] = row;
+            dueTimes[dueCount++] = due;
+        }
+    }
+
+    /**
+     * Finds the ready tasks among the rows from {@code from} (inclusive) to {@code to} (exclusive).
+     * The handles must have been checked first (see {@link #checkHandles(Tasks)}).
+     *
+     * @param out  Where to put the rows found, from the start.
+     * @param scan The range scan this is part of, or {@code null} if it's on the calling thread.
+     * @return The number of rows found.
+     */
+    private int scanRange(long now, int from, int to, int[] out, RangeScan scan)
+    {
+        int found = 0;
+        for (int row = from; row < to; row++)
+        {
+            if (tasks[row] != null && isAvailable(row, now, scan))
+                out[found++] = row;
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether the task in a row is ready, reading only the table (apart from keeping its
+     * due time; see {@link #getDueTime(int, long, RangeScan)}). Its handles must be up to date.
+     */
+    private boolean isAvailable(int row, long now, RangeScan scan)
+    {
+        boolean available;
+        if (repeatTypes[row] == Task.REPEAT_TYPE_NONE)
+            available = !done[row];
+        else
+            available = getDueTime(row, now, scan) <= now;
+        if (available && dependencyCounts[row] > 0)
+            available = areDependenciesMet(row);
+        return available;
+    }
+
+    /**
+     * Checks a row's dependencies, in the same way as {@link Task#areDependenciesMet(Tasks)}, by
+     * their handles.
+     */
+    private boolean areDependenciesMet(int row)
+    {
+        for (int dependency : dependencies[row])
+        {
+            if (repeatTypes[dependency] == Task.REPEAT_TYPE_NONE) //non-repeating, so must be done
+            {
+                if (!done[dependency]) return false;
+            } else if (lastRuns[dependency] < lastRuns[row]) //repeating, so must have run since this did
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure every row's dependency handles are up to date, before a scan.
+     * If no task has been removed or replaced since the last check, only the rows whose
+     * dependencies have changed are looked at.
+     */
+    private void checkHandles(Tasks owner)
+    {
+        boolean all = !handlesChecked;
+        for (int row = 0; row < size; row++)
+        {
+            if (tasks[row] == null || dependencyCounts[row] == 0) continue;
+            if (all || dependencies[row] == null)
+                checkHandles(owner, row);
+        }
+        handlesChecked = true;
+    }
+
+    /**
+     * Makes sure a row's dependency handles are up to date, working them out again from the IDs
+     * if they aren't.
+     */
+    private void checkHandles(Tasks owner, int row)
+    {
+        int[] rows = dependencies[row];
+        if (rows != null)
+        {
+            Task[] found = dependencyTasks[row];
+            boolean current = true;
+            for (int i = 0; i < rows.length && current; i++)
+                current = tasks[rows[i]] == found[i];
+            if (current) return;
+        }
+        if (!findDependencies(owner, row))
+        {
+            //some are missing; let the task check them, which removes the missing ones
+            tasks[row].areDependenciesMet(owner);
+            findDependencies(owner, row);
+        }
+    }
+
+    /**
+     * Works out the handles of a row's dependencies from their IDs, and keeps them.
+     *
+     * @return {@code false} if any of the dependencies aren't in the table.
+     */
+    private boolean findDependencies(Tasks owner, int row)
+    {
+        List<UUID> ids = tasks[row].getDependencyIds();
+        int[] rows = new int[ids.size()];
+        Task[] found = new Task[rows.length];
+        for (int i = 0; i < rows.length; i++)
+        {
+            Task dependency = owner.getTask(ids.get(i));
+            if (dependency == null || dependency.getTable() != this) return false;
+            rows[i] = dependency.getRow();
+            found[i] = dependency;
+        }
+        unshare();
+        dependencies[row] = rows;
+        dependencyTasks[row] = found;
+        return true;
+    }
+
+    /**
+     * Gets the due time of the task in a row, working it out if it isn't known.
+     *
+     * @param scan The range scan asking, which keeps the due time it works out until the scan is
+     *             over, or {@code null} to keep it in the table straight away.
+     */
+    private long getDueTime(int row, long now, RangeScan scan)
+    {
+        long due = dueTimes[row];
+        if (due == UNKNOWN)
+        {
+            long lastRun = lastRuns[row];
+            due = rules[row].nextDue(lastRun > 0 ? lastRun : now); //start from the last run, if there is one
+            if (lastRun > 0) //otherwise it's worked out from now, so can't be kept
+            {
+                if (scan == null)
+                    dueTimes[row] = due;
+                else
+                    scan.keepDueTime(row, due);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Copies the task and dependency columns before they're changed, if a
+     * {@link DependencyGraph} is still using them.
+     */
+    private void unshare()
+    {
+        if (!shared) return;
+        tasks = tasks.clone();
+        dependencies = dependencies.clone();
+        dependencyTasks = dependencyTasks.clone();
+        shared = false;
+    }
+
+    /**
+     * Gets the dependencies between all the tasks, as handles, to be read on another thread.
+     * Any out of date handles are worked out first, so this should be called on the UI thread.
+     *
+     * @param owner The tasks the dependencies are looked up in.
+     * @return The dependency graph as it is now; later changes to the tasks don't affect it.
+     */
+    public DependencyGraph getDependencyGraph(Tasks owner)
+    {
+        checkHandles(owner);
+        shared = true;
+        return new DependencyGraph(tasks, dependencies, size);
+    }
+
+    /**
+     * The dependencies between the tasks in a table at one time, by handle. It never changes, so
+     * it can be read on any thread.
+     */
+    public static final class DependencyGraph
+    {
+        private final Task[] tasks;
+        private final int[][] dependencies;
+        private final int size;
+
+        private DependencyGraph(Task[] tasks, int[][] dependencies, int size)
+        {
+            this.tasks = tasks;
+            this.dependencies = dependencies;
+            this.size = size;
+        }
+
+        /**
+         * @return The number of rows, some of which may be free.
+         */
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return The task in a row, or {@code null} if the row is free.
+         */
+        public Task getTask(int row)
+        {
+            return tasks[row];
+        }
+
+        /**
+         * Finds the task in the given row and every task that depends on it, directly or
+         * indirectly.
+         * <p>
+         * The graph is reversed once, as arrays of handles (compressed rows: the tasks that
+         * depend on task i are {@code dependents[first[i]]} to {@code dependents[first[i + 1] - 1]}),
+         * and a single breadth-first search from the task then finds all its dependents. This
+         * takes time in proportion to the number of tasks plus the number of dependencies.
+         * </p>
+         *
+         * @param start The row of the task to start from, or -1 for a task that isn't in the
+         *              table, which nothing can depend on yet.
+         * @return The rows of the task and all its dependents.
+         */
+        public BitSet findDependents(int start)
+        {
+            BitSet found = new BitSet(size);
+            if (start < 0) return found;
+
+            int[] first = new int[size + 1];
+            for (int row = 0; row < size; row++)
+            {
+                if (tasks[row] == null || dependencies[row] == null) continue;
+                for (int dependency : dependencies[row])
+                    first[dependency + 1]++;
+            }
+            for (int i = 0; i < size; i++)
+                first[i + 1] += first[i];
+            int[] dependents = new int[first[size]];
+            int[] next = Arrays.copyOf(first, size); //where the next dependent of each task goes
+            for (int row = 0; row < size; row++)
+            {
+                if (tasks[row] == null || dependencies[row] == null) continue;
+                for (int dependency : dependencies[row])
+                    dependents[next[dependency]++] = row;
+            }
+
+            //breadth-first search from the task; each task is visited once, so cycles can't loop
+            int[] queue = new int[size];
+            int head = 0, tail = 0;
+            found.set(start);
+            queue[tail++] = start;
+            while (head < tail)
+            {
+                int task = queue[head++];
+                for (int i = first[task]; i < first[task + 1]; i++)
+                {
+                    int dependent = dependents[i];
+                    if (!found.get(dependent))
+                    {
+                        found.set(dependent);
+                        queue[tail++] = dependent;
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Forgets the due times if the calendars have changed since they were worked out.
+     */
+    private void checkCalendars()
+    {
+        int generation = Recurrence.getCalendarGeneration();
+        if (generation != calendarGeneration)
+        {
+            Arrays.fill(dueTimes, 0, size, UNKNOWN);
+            calendarGeneration = generation;
+        }
+    }
+
+    private void grow()
+    {
+        int capacity = tasks.length * 2;
+        tasks = Arrays.copyOf(tasks, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        repeatTypes = Arrays.copyOf(repeatTypes, capacity);
+        dependencyCounts = Arrays.copyOf(dependencyCounts, capacity);
+        done = Arrays.copyOf(done, capacity);
+        lastRuns = Arrays.copyOf(lastRuns, capacity);
+        dueTimes = Arrays.copyOf(dueTimes, capacity);
+        rules = Arrays.copyOf(rules, capacity);
+        dependencies = Arrays.copyOf(dependencies, capacity);
+        dependencyTasks = Arrays.copyOf(dependencyTasks, capacity);
+        shared = false; //the copies aren't shared
+    }
+}
@@ -0,0 +1,713 @@
+package com.stevedegroof.tellmewhattodo;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Represents a collection of tasks.
+ * This class is a singleton.
+ * It provides methods for adding, retrieving, removing, and managing tasks.
+ * Tasks can be loaded from and saved to a JSON file.
+ * It is also a {@link TaskSource}, so the tasks can be read by position (in the order
+ * they were added) without copying them all.
+ * <p>
+ * At startup the tasks file is read and parsed on a background thread (see
+ * {@link #startLoading(File, Executor)}), and the result is put in place on the UI thread, so the
+ * tasks are only ever changed on the UI thread. Screens wait for the load with
+ * {@link #whenLoaded(Runnable)} rather than blocking on it.
+ * </p>
+ * <p>
+ * The tasks file is parsed straight from the file, and written straight to a temporary file that
+ * then replaces it, through one shared {@link Gson} instance, so the whole file is never held in
+ * memory as a string, and Gson's type adapters are only built once. A save that fails part way
+ * leaves the tasks file as it was.
+ * </p>
+ * <p>
+ * Finding the ready tasks scans a {@link TaskTable} kept alongside the tasks, rather than the
+ * tasks themselves.
+ * </p>
+ * <p>
+ * Each save also brings a {@link TaskSnapshot} up to date, so the current task can be shown at
+ * startup before the tasks file has been read. Every save writes a new random stamp at the start
+ * of the tasks file, and the snapshot keeps the same stamp, so it can be told whether the
+ * snapshot matches the tasks file by reading just the start of it (see {@link #readStamp(File)}).
+ * </p>
+ * <p>
+ * Nothing here depends on Android: the tasks file is in a directory given when loading, and the
+ * UI thread is reached through an {@link Executor}, so the tasks can be loaded, scanned, saved and
+ * timed on a plain JVM.
+ * </p>
+ */
+public class Tasks implements TaskSource
+{
+    private HashMap<UUID, Task> tasks = new HashMap<>();
+    private UUID currentTaskId = null;
+    private long stamp = 0; //a new random number on every save (see readStamp)
+    private transient ArrayList<UUID> order = new ArrayList<>(); //task IDs by position (not saved)
+    private transient TaskTable table = new TaskTable(); //the fields availability depends on, for scanning (not saved)
+    private transient int structureVersion = 0; //incremented whenever a task is added, removed or put back
+    private transient TaskSnapshot snapshot = null; //the snapshot last saved by this process
+    private transient TaskSearchIndex searchIndex = null; //built on the first search (not saved)
+    private transient SortedTaskIndex sortedIndex = null; //built when first shown (not saved)
+
+    private transient File directory = null; //where the tasks file is, once loading has started
+    private transient boolean loaded = false;
+    private transient Future<Tasks> pendingLoad = null; //background load in progress
+    private transient List<Runnable> loadedListeners = new ArrayList<>();
+    private transient List<Runnable> savedListeners = new ArrayList<>();
+    private transient Executor uiThread = null; //runs code on the UI thread, once loading has started
+
+    private static Tasks instance;
+    private static final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+
+    static final String TASKS_FILE_NAME = "tasks.json";
+    private static final String TEMP_FILE_NAME = "tasks.json.tmp";
+    private static final String STAMP_PREFIX = "{\"stamp\":"; //how the tasks file starts
+    private static final Type TASKS_TYPE = new TypeToken<HashMap<UUID, Task>>()
+    {
+    }.getType();
+
+    /**
+     * The Gson instance used for reading and writing tasks. Gson instances are thread-safe,
+     * and cache the type adapters they build, so one is shared.
+     */
+    static final Gson GSON = new Gson();
+
+    public static Tasks getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new Tasks();
+        }
+        return instance;
+    }
+
+    public void putTask(Task task)
+    {
+        Task old = tasks.put(task.getId(), task);
+        structureVersion++;
+        if (old == null)
+        {
+            order.add(task.getId());
+            table.add(task);
+        } else
+            table.replace(old, task);
+        if (searchIndex != null)
+            searchIndex.put(task);
+        if (sortedIndex != null)
+            sortedIndex.put(task);
+    }
+
+    public Task getTask(UUID id)
+    {
+        return tasks.get(id);
+    }
+
+    public void removeTask(UUID id)
+    {
+        Task old = tasks.remove(id);
+        structureVersion++;
+        if (old != null)
+        {
+            order.remove(id);
+            table.remove(old);
+        }
+        if (searchIndex != null)
+            searchIndex.remove(id);
+        if (sortedIndex != null)
+            sortedIndex.remove(id);
+    }
+
+    /**
+     * Removes many tasks at once.
+     * Each task is removed from the map and the search index, and the positions and sorted
+     * index are each updated in a single pass, rather than once per task.
+     *
+     * @param ids The IDs of the tasks to remove.
+     */
+    public void removeTasks(Set<UUID> ids)
+    {
+        for (UUID id : ids)
+        {
+            Task old = tasks.remove(id);
+            if (old != null)
+                table.remove(old);
+            if (searchIndex != null)
+                searchIndex.remove(id);
+        }
+        order.removeIf(ids::contains);
+        structureVersion++;
+        if (sortedIndex != null)
+            sortedIndex.removeAll(ids);
+    }
+
+    /**
+     * Changes many tasks at once.
+     * The change is applied to each task, and then the search and sorted indexes are updated
+     * together, rather than once per task. The change can be to any of the tasks' fields, so
+     * the structure version is bumped, and the snapshot is written again in full on the next save.
+     *
+     * @param ids    The IDs of the tasks to change.
+     * @param change The change to make to each task.
+     */
+    public void updateTasks(Set<UUID> ids, Consumer<Task> change)
+    {
+        List<Task> changed = new ArrayList<>(ids.size());
+        for (UUID id : ids)
+        {
+            Task task = tasks.get(id);
+            if (task == null) continue;
+            change.accept(task);
+            changed.add(task);
+            if (searchIndex != null)
+                searchIndex.put(task);
+        }
+        structureVersion++;
+        if (sortedIndex != null)
+            sortedIndex.putAll(changed);
+    }
+
+    public List<Task> getTasks()
+    {
+        return new ArrayList<>(this.tasks.values());
+    }
+
+    @Override
+    public int getCount()
+    {
+        return order.size();
+    }
+
+    @Override
+    public UUID getId(int position)
+    {
+        return order.get(position);
+    }
+
+    @Override
+    public List<Task> getTasks(int start, int count)
+    {
+        int end = Math.min(start + count, order.size());
+        List<Task> page = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++)
+        {
+            page.add(tasks.get(order.get(i)));
+        }
+        return page;
+    }
+
+    /**
+     * Searches the task descriptions.
+     * <p>
+     * The search index is built the first time this is called, and is then kept up to date
+     * as tasks are put and removed, so later searches only look at the words that match.
+     * See {@link TaskSearchIndex} for how matches are ranked.
+     * </p>
+     *
+     * @param query The text to search for.
+     * @return The IDs of the matching tasks, best match first.
+     */
+    public List<UUID> search(String query)
+    {
+        if (searchIndex == null)
+        {
+            searchIndex = new TaskSearchIndex();
+            for (Task task : tasks.values())
+                searchIndex.put(task);
+        }
+        return searchIndex.search(query, tasks.size());
+    }
+
+    /**
+     * Gets the tasks sorted into sections by status.
+     * The index is built in the background the first time this is called (see
+     * {@link SortedTaskIndex#whenReady(Runnable)}), and is then kept up to date as tasks are put
+     * and removed. Unless the tasks were loaded with {@link #startLoading(File, Executor)}, it's
+     * built straight away, on this thread.
+     *
+     * @param order The order of the tasks within each section.
+     * @return The sorted index.
+     */
+    public SortedTaskIndex getSortedIndex(SortedTaskIndex.Order order)
+    {
+        if (sortedIndex == null)
+        {
+            if (uiThread == null) //no UI thread to hand the index back to, so build it here
+                sortedIndex = new SortedTaskIndex(this, order, Runnable::run, Runnable::run);
+            else
+                sortedIndex = new SortedTaskIndex(this, order, loadExecutor, uiThread);
+        } else
+            sortedIndex.setOrder(order);
+        return sortedIndex;
+    }
+
+    /**
+     * @return The table the availability scans run over, e.g. to see how much memory it takes.
+     */
+    public TaskTable getTable()
+    {
+        return table;
+    }
+
+    /**
+     * Retrieves a list of all tasks that are currently available.
+     * A task is considered available if its {@link Task#isAvailable(long)} method returns true.
+     * The tasks are in no particular order.
+     *
+     * @param now The current time in milliseconds.
+     * @return A {@link List} of {@link Task} objects that are available.
+     *         Returns an empty list if no tasks are available.
+     */
+    public List<Task> getAvailableTasks(long now)
+    {
+        long start = Metrics.start();
+        long section = PerfTrace.begin(PerfTrace.AVAILABLE_TASKS);
+        List<Task> availableTasks = new ArrayList<>();
+        table.collectAvailable(this, now, availableTasks);
+        PerfTrace.end(PerfTrace.AVAILABLE_TASKS, section);
+        Metrics.stop(Metrics.AVAILABLE_TASKS, start);
+        return availableTasks;
+    }
+
+    /**
+     * Checks whether one task is available, in the same way as {@link #getAvailableTasks(long)}.
+     * Like it, this should only be called on the UI thread.
+     *
+     * @param task The task.
+     * @param now  The current time in milliseconds.
+     * @return {@code true} if the task is available.
+     */
+    public boolean isAvailable(Task task, long now)
+    {
+        return table.isAvailable(this, task, now);
+    }
+
+    /**
+     * Gets the next due time of a repeating task, from the task table, in the same way as
+     * {@link #isAvailable(Task, long)}. This should only be called on the UI thread.
+     *
+     * @param task The task.
+     * @param now  The current time in milliseconds.
+     * @return The due time in milliseconds.
+     */
+    public long getDueTime(Task task, long now)
+    {
+        return table.getDueTime(task, now);
+    }
+
+    /**
+     * Gets the dependencies between all the tasks, by their rows in the task table, to be read on
+     * another thread. This should be called on the UI thread.
+     *
+     * @return The dependency graph as it is now; later changes to the tasks don't affect it.
+     * @see TaskTable#getDependencyGraph(Tasks)
+     */
+    public TaskTable.DependencyGraph getDependencyGraph()
+    {
+        return table.getDependencyGraph(this);
+    }
+
+    /**
+     * Finds the earliest time at which a repeating task that is not yet due will come due.
+     * Tasks that are already due are ignored, since they can't change the set of available
+     * tasks any further just by waiting.
+     *
+     * @param now The current time in milliseconds.
+     * @return The earliest upcoming due time in milliseconds, or {@link Long#MAX_VALUE} if
+     *         no repeating task is waiting to come due.
+     */
+    public long getNextDueTime(long now)
+    {
+        return table.getNextDueTime(now);
+    }
+
+    /**
+     * Gets the next task to be performed based on the priority levels of the available tasks.
+     * The higher the priority level of a task, the more likely it is to be selected.
+     * If no tasks are available, returns null.
+     *
+     * @param now The current time in milliseconds.
+     * @return The next task to be performed, or null if no tasks are available.
+     */
+    public Task getNextTask(long now)
+    {
+        long start = Metrics.start();
+        long section = PerfTrace.begin(PerfTrace.NEXT_TASK);
+        try
+        {
+            return pickNextTask(now);
+        } finally
+        {
+            PerfTrace.end(PerfTrace.NEXT_TASK, section);
+            Metrics.stop(Metrics.NEXT_TASK, start);
+        }
+    }
+
+    private Task pickNextTask(long now)
+    {
+        long section = PerfTrace.begin(PerfTrace.AVAILABLE_TASKS);
+        Task task = table.pickAvailable(this, now, Math.random());
+        PerfTrace.end(PerfTrace.AVAILABLE_TASKS, section);
+        currentTaskId = task == null ? null : task.getId(); //null if no tasks available
+        return task;
+    }
+
+    public UUID getCurrentTaskId()
+    {
+        return currentTaskId;
+    }
+
+    public void setCurrentTaskId(UUID currentTaskId)
+    {
+        this.currentTaskId = currentTaskId;
+    }
+
+    /**
+     * Starts loading the tasks in the background, if they aren't loaded or loading already.
+     * When the load finishes, the tasks are put in place on the UI thread and the listeners
+     * registered with {@link #whenLoaded(Runnable)} are run.
+     *
+     * @param directory The directory the tasks file is in, and where it's saved.
+     * @param uiThread  Runs code on the UI thread.
+     */
+    public void startLoading(File directory, Executor uiThread)
+    {
+        if (loaded || pendingLoad != null) return;
+        this.directory = directory;
+        this.uiThread = uiThread;
+        pendingLoad = loadExecutor.submit(() ->
+        {
+            Tasks parsed = read(directory);
+            uiThread.execute(this::finishLoading);
+            return parsed;
+        });
+    }
+
+    /**
+     * @return {@code true} once the tasks have been loaded.
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Runs the given listener on the UI thread once the tasks are loaded,
+     * or right away if they already are.
+     *
+     * @param listener The listener to run.
+     */
+    public void whenLoaded(Runnable listener)
+    {
+        if (loaded)
+            listener.run();
+        else
+            loadedListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #whenLoaded(Runnable)} that hasn't run yet.
+     */
+    public void removeLoadedListener(Runnable listener)
+    {
+        loadedListeners.remove(listener);
+    }
+
+    /**
+     * Puts the tasks from the background load in place and notifies the listeners.
+     * Does nothing if that's been done already.
+     */
+    private void finishLoading()
+    {
+        if (loaded || pendingLoad == null) return;
+        Tasks parsed = null;
+        try
+        {
+            parsed = pendingLoad.get();
+        } catch (Exception e)
+        {
+        }
+        pendingLoad = null;
+        setTasks(parsed);
+    }
+
+    /**
+     * Loads tasks from a JSON file.
+     * The tasks are stored in a file named "tasks.json" in the given directory, which on Android
+     * is the application's private storage.
+     * If the file does not exist or is empty, no tasks are loaded.
+     *
+     * @param directory The directory the tasks file is in, and where it's saved.
+     */
+    public void load(File directory)
+    {
+        this.directory = directory;
+        setTasks(read(directory));
+    }
+
+    /**
+     * Reads and parses the tasks file, without changing this instance,
+     * so it can be called off the UI thread.
+     *
+     * @param directory The directory the tasks file is in.
+     * @return The parsed tasks, or {@code null} if there are none or the file can't be read.
+     */
+    private static Tasks read(File directory)
+    {
+        long start = Metrics.start();
+        long section = PerfTrace.begin(PerfTrace.LOAD);
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(directory, TASKS_FILE_NAME)), StandardCharsets.UTF_8)))
+        {
+            return decode(reader); //null if the file is empty
+        } catch (Exception e)
+        {
+        } finally
+        {
+            PerfTrace.end(PerfTrace.LOAD, section);
+            Metrics.stop(Metrics.LOAD, start);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the tasks with parsed ones (or none), marks the tasks as loaded,
+     * and runs any listeners waiting for them.
+     */
+    private void setTasks(Tasks obj)
+    {
+        if (obj != null && obj.tasks != null)
+        {
+            this.tasks = obj.tasks;
+            this.currentTaskId = obj.currentTaskId;
+        } else
+        {
+            this.tasks = new HashMap<>();
+            this.currentTaskId = null;
+        }
+        this.order = new ArrayList<>(this.tasks.keySet());
+        this.table = buildTable();
+        this.structureVersion++;
+        this.searchIndex = null;
+        this.sortedIndex = null;
+        this.pendingLoad = null; //a restore replaces anything still loading
+        loaded = true;
+        List<Runnable> listeners = new ArrayList<>(loadedListeners);
+        loadedListeners.clear();
+        for (Runnable listener : listeners)
+            listener.run();
+    }
+
+    /**
+     * Builds a table of the tasks, in the order of their positions.
+     */
+    private TaskTable buildTable()
+    {
+        TaskTable table = new TaskTable();
+        for (UUID id : order)
+            table.add(tasks.get(id));
+        return table;
+    }
+
+    /**
+     * Sets the tasks from a JSON string.
+     * <p>
+     * This method deserializes a JSON string into a Tasks object using Gson
+     * and updates the current instance's tasks and currentTaskId.
+     * If the tasks were still being loaded, the restored tasks replace them, and any
+     * listeners waiting for the load are run.
+     * </p>
+     *
+     * @param json The JSON string representing the Tasks object.
+     */
+    public void setTasksFromJson(String json)
+    {
+        setTasks(decode(new StringReader(json)));
+    }
+
+
+    /**
+     * Saves the current state of tasks to a file.
+     * <p>
+     * This method serializes the Tasks object into JSON using Gson, writing it as it goes
+     * to a temporary file in the directory the tasks were loaded from. Once all of it has been
+     * written and synced to the disk, the temporary file is renamed to "tasks.json", replacing
+     * the old one in a single step, so the tasks file is never left half written.
+     * The listeners added with {@link #addSavedListener(Runnable)} are run afterwards, e.g. to
+     * update the ready notification schedule to match.
+     * </p>
+     *
+     * @throws IOException If the tasks can't be written, or haven't been loaded from a directory
+     *                     yet, so there's nowhere to write them. The tasks file is left as it
+     *                     was, and the snapshot and the listeners aren't updated.
+     */
+    public void save() throws IOException
+    {
+        if (directory == null) //otherwise the file would go in the working directory
+            throw new IOException("The tasks can't be saved before they're loaded from a directory");
+        long start = Metrics.start();
+        long section = PerfTrace.begin(PerfTrace.SAVE);
+        File temp = new File(directory, TEMP_FILE_NAME);
+        stamp = ThreadLocalRandom.current().nextLong() | 1; //never 0, which means no stamp
+        boolean written = false;
+        try
+        {
+            try (FileOutputStream out = new FileOutputStream(temp))
+            {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                encode(writer);
+                writer.flush();
+                out.getFD().sync();
+            } catch (JsonIOException e)
+            {
+                throw new IOException(e.getMessage(), e.getCause());
+            }
+            Files.move(temp.toPath(), new File(directory, TASKS_FILE_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written = true;
+        } finally
+        {
+            if (!written) temp.delete();
+            PerfTrace.end(PerfTrace.SAVE, section);
+            Metrics.stop(Metrics.SAVE, start);
+        }
+        snapshot = TaskSnapshot.save(directory, this, structureVersion, table.takeChangedRows(), stamp, snapshot);
+        for (Runnable listener : savedListeners)
+            listener.run();
+    }
+
+    /**
+     * Adds a listener that's run on the UI thread after every save.
+     *
+     * @param listener The listener to run.
+     */
+    public void addSavedListener(Runnable listener)
+    {
+        savedListeners.add(listener);
+    }
+
+    /**
+     * Converts the current Tasks object into a JSON string.
+     * <p>
+     * This method uses the Gson library to serialize the entire Tasks instance
+     * (its stamp, its `tasks` HashMap and `currentTaskId`) into a JSON representation.
+     * </p>
+     *
+     * @return A String containing the JSON representation of the Tasks object.
+     */
+    public String getTasksJson()
+    {
+        StringWriter writer = new StringWriter();
+        encode(writer);
+        return writer.toString();
+    }
+
+    /**
+     * Parses tasks from JSON, in a {@link PerfTrace#JSON_DECODE} trace section.
+     */
+    private static Tasks decode(Reader reader)
+    {
+        long section = PerfTrace.begin(PerfTrace.JSON_DECODE);
+        try
+        {
+            return GSON.fromJson(reader, Tasks.class);
+        } finally
+        {
+            PerfTrace.end(PerfTrace.JSON_DECODE, section);
+        }
+    }
+
+    /**
+     * Writes the tasks as JSON, in a {@link PerfTrace#JSON_ENCODE} trace section.
+     * The fields are written one at a time, rather than by Gson, so that the stamp always comes
+     * first; they're read back by Gson as usual.
+     */
+    void encode(Writer writer)
+    {
+        long section = PerfTrace.begin(PerfTrace.JSON_ENCODE);
+        try
+        {
+            JsonWriter json = GSON.newJsonWriter(writer);
+            json.beginObject();
+            json.name("stamp").value(stamp);
+            json.name("tasks");
+            GSON.toJson(tasks, TASKS_TYPE, json);
+            if (currentTaskId != null)
+            {
+                json.name("currentTaskId");
+                GSON.toJson(currentTaskId, UUID.class, json);
+            }
+            json.endObject();
+            json.flush();
+        } catch (IOException e)
+        {
+            throw new JsonIOException(e);
+        } finally
+        {
+            PerfTrace.end(PerfTrace.JSON_ENCODE, section);
+        }
+    }
+
+    /**
+     * Reads the stamp from the start of a tasks file, without reading the rest of it.
+     *
+     * @param file The tasks file.
+     * @return The stamp it was saved with, or 0 if it doesn't have one (or can't be read).
+     */
+    static long readStamp(File file)
+    {
+        byte[] start = new byte[STAMP_PREFIX.length() + 20]; //enough for any long
+        int length = 0;
+        try (FileInputStream in = new FileInputStream(file))
+        {
+            for (int read; length < start.length && (read = in.read(start, length, start.length - length)) > 0; )
+                length += read;
+        } catch (IOException e)
+        {
+            return 0;
+        }
+        String text = new String(start, 0, length, StandardCharsets.US_ASCII);
+        if (!text.startsWith(STAMP_PREFIX)) return 0;
+        int end = STAMP_PREFIX.length();
+        while (end < length && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '-'))
+            end++;
+        try
+        {
+            return Long.parseLong(text.substring(STAMP_PREFIX.length(), end));
+        } catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+
+}
@@ -0,0 +1,103 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Checks how many bytes the scheduling hot paths allocate per call, using the JVM's per-thread
+ * allocation counter, against a budget for each. A change that makes one of them allocate more
+ * fails the build; a change that makes one allocate less should lower its budget.
+ * <p>
+ * Each call is warmed up first, so it's measured as compiled, and then averaged over many calls
+ * against a generated store of tasks (see {@link TaskStoreGenerator}), with the cost of the
+ * measuring itself taken off.
+ * </p>
+ */
+public class AllocationTest
+{
+    //bytes per call
+    private static final double NEXT_TASK_BUDGET = 0;
+    private static final double IS_AVAILABLE_BUDGET = 0;
+    private static final double DUE_TIME_BUDGET = 0;
+
+    private static final int WARMUP_CALLS = 200000;
+    private static final int MEASURED_CALLS = 100000;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Tasks tasks;
+    private static Task[] all;
+    private static long now;
+    private static long sink; //so the calls can't be optimized away
+
+    @BeforeClass
+    public static void setUp()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        now = System.currentTimeMillis();
+        tasks = new TaskStoreGenerator().setCount(1000).setSeed(1).generate(now);
+        List<Task> list = tasks.getTasks();
+        all = list.toArray(new Task[0]);
+    }
+
+    /**
+     * @return The average number of bytes allocated by each call.
+     */
+    private static double measure(Runnable call)
+    {
+        for (int i = 0; i < WARMUP_CALLS; i++)
+            call.run();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before; //of asking, if anything
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_CALLS; i++)
+            call.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        return Math.max(0, allocated) / (double) MEASURED_CALLS;
+    }
+
+    private static void check(String name, double budget, Runnable call)
+    {
+        double bytes = measure(call);
+        System.out.printf("%s: %.1f bytes per call (budget %.1f)\n", name, bytes, budget);
+        assertTrue(String.format("%s allocates %.1f bytes per call, over its budget of %.1f", name, bytes, budget),
+                bytes <= budget + 1); //rounding, and the odd allocation by the JVM itself
+    }
+
+    @Test
+    public void getNextTask()
+    {
+        check("Tasks.getNextTask", NEXT_TASK_BUDGET, () -> sink += tasks.getNextTask(now) == null ? 0 : 1);
+    }
+
+    @Test
+    public void isAvailable()
+    {
+        int[] next = {0};
+        check("Task.isAvailable", IS_AVAILABLE_BUDGET, () ->
+        {
+            next[0] = (next[0] + 1) % all.length;
+            sink += all[next[0]].isAvailable(tasks, now) ? 1 : 0;
+        });
+    }
+
+    @Test
+    public void getDueTime()
+    {
+        int[] next = {0};
+        check("Recurrence.getDueTime", DUE_TIME_BUDGET, () ->
+        {
+            next[0] = (next[0] + 1) % all.length;
+            sink += Recurrence.getDueTime(all[next[0]], now);
+        });
+    }
+}
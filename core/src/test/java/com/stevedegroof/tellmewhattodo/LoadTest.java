@@ -0,0 +1,63 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * Generates stores of tasks (see {@link TaskStoreGenerator}), loads each one back from a tasks
+ * file, and replays a workload against it (see {@link LoadTestHarness}).
+ * <p>
+ * By default it runs once, on a small store, to stay quick alongside the unit tests. Larger
+ * sizes can be chosen with -Pload.sizes, e.g. -Pload.sizes=1000,1000000, and then the timings
+ * are printed.
+ * </p>
+ */
+public class LoadTest
+{
+    private static final String SIZES = System.getProperty("load.sizes", "1000");
+    private static final boolean REPORT = System.getProperty("load.sizes") != null; //print the timings
+    private static final int OPERATIONS = Integer.getInteger("load.operations", 1000);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatedStoresLoadAndRunTheWorkload() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        for (String size : SIZES.split(","))
+        {
+            int count = Integer.parseInt(size.trim());
+            long start = System.nanoTime();
+            Tasks generated = new TaskStoreGenerator().setCount(count).setSeed(count).generate(now);
+            if (REPORT)
+                System.out.printf("Generated %d tasks in %d ms\n", count, (System.nanoTime() - start) / 1000000);
+
+            File directory = folder.newFolder("store" + count);
+            LoadTestHarness.export(directory, generated);
+            Tasks tasks = new Tasks();
+            start = System.nanoTime();
+            tasks.load(directory);
+            if (REPORT)
+                System.out.printf("Loaded them in %d ms\n", (System.nanoTime() - start) / 1000000);
+            assertEquals(count, tasks.getCount());
+            for (Task task : generated.getTasks())
+                assertNotNull(tasks.getTask(task.getId()));
+
+            String report = new LoadTestHarness(tasks, count).run(OPERATIONS, now);
+            if (REPORT)
+                System.out.print(report);
+            assertTrue(tasks.getCount() <= count);
+            long later = now + OPERATIONS * 60 * 1000L;
+            Task next = tasks.getNextTask(later);
+            assertTrue(next == null || next.isAvailable(tasks, later));
+        }
+    }
+}
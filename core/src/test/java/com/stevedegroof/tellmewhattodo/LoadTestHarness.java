@@ -0,0 +1,161 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays a mixed workload against a generated set of tasks (see {@link TaskStoreGenerator}),
+ * and reports how long each kind of operation took.
+ * <p>
+ * The workload is a random mix, reproducible from a seed, of picking the next task, completing
+ * a task, editing one, deleting one, and backing the tasks up to JSON, in the same way the app
+ * does each of them. The simulated clock moves on a minute per operation, so repeating tasks
+ * come due as the workload runs. The app's own tasks are never touched.
+ * </p>
+ * <p>
+ * Run by {@link LoadTest}. The generated tasks can be written out as a tasks file (see
+ * {@link #export(File, Tasks)}), which can also be restored like a backup, so the same store can
+ * be used to compare versions of the app.
+ * </p>
+ */
+public class LoadTestHarness
+{
+    public static final int PICK = 0;
+    public static final int COMPLETE = 1;
+    public static final int EDIT = 2;
+    public static final int DELETE = 3;
+    public static final int BACKUP = 4;
+    private static final String[] OPERATION_NAMES = {"pick", "complete", "edit", "delete", "backup"};
+
+    private final Tasks tasks;
+    private final long seed;
+    private int[] operationWeights = {60, 20, 10, 5, 5}; //pick, complete, edit, delete, backup
+
+    /**
+     * @param tasks The tasks to run the workload against; changed as it runs.
+     * @param seed  The seed for choosing the operations.
+     */
+    public LoadTestHarness(Tasks tasks, long seed)
+    {
+        this.tasks = tasks;
+        this.seed = seed;
+    }
+
+    /**
+     * @param weights The relative weight of each operation: pick, complete, edit, delete and backup.
+     */
+    public void setOperationWeights(int... weights)
+    {
+        this.operationWeights = weights;
+    }
+
+    /**
+     * Runs the workload.
+     *
+     * @param operations The number of operations to run.
+     * @param now        The simulated time to start at.
+     * @return A report of the number of each operation run and how long they took.
+     */
+    public String run(int operations, long now)
+    {
+        Random random = new Random(seed);
+        Metrics.Histogram[] timings = new Metrics.Histogram[OPERATION_NAMES.length];
+        for (int i = 0; i < timings.length; i++)
+            timings[i] = new Metrics.Histogram();
+        long backupBytes = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < operations && tasks.getCount() > 0; i++)
+        {
+            now += 60 * 1000L;
+            int operation = pick(random);
+            long start = System.nanoTime();
+            switch (operation)
+            {
+                case PICK:
+                    tasks.getNextTask(now);
+                    break;
+                case COMPLETE:
+                {
+                    Task task = tasks.getTask(tasks.getCurrentTaskId());
+                    if (task == null) task = randomTask(random);
+                    task.setDone(true);
+                    task.setLastRun(now);
+                    tasks.putTask(task);
+                    break;
+                }
+                case EDIT:
+                {
+                    Task task = randomTask(random);
+                    task.setWeight(task.getWeight() == Task.PRIORITY_URGENT ? Task.PRIORITY_LOW : task.getWeight() * 2);
+                    task.setDescription(task.getDescription() + " (edited)");
+                    tasks.putTask(task);
+                    break;
+                }
+                case DELETE:
+                    tasks.removeTask(randomTask(random).getId());
+                    break;
+                default:
+                    backupBytes += tasks.getTasksJson().length();
+                    break;
+            }
+            timings[operation].record(System.nanoTime() - start);
+        }
+        long elapsed = System.nanoTime() - started;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d tasks left, %.0f ms in all\n", tasks.getCount(), elapsed / 1e6));
+        sb.append(String.format(Locale.US, "%-9s %8s %9s %9s %9s\n", "(ms)", "count", "p50", "p99", "max"));
+        for (int i = 0; i < timings.length; i++)
+        {
+            Metrics.Histogram h = timings[i];
+            sb.append(String.format(Locale.US, "%-9s %8d %9.3f %9.3f %9.3f\n", OPERATION_NAMES[i], h.getCount(),
+                    h.getPercentile(0.5) / 1e6, h.getPercentile(0.99) / 1e6, h.getMax() / 1e6));
+        }
+        if (timings[BACKUP].getCount() > 0)
+            sb.append(String.format(Locale.US, "Backup size: %d chars\n", backupBytes / timings[BACKUP].getCount()));
+        return sb.toString();
+    }
+
+    /**
+     * Writes the tasks as JSON to a file named "tasks.json" in the given directory, in the same
+     * format as the app's tasks file, so they can be loaded from there by {@link Tasks#load}.
+     *
+     * @return The file written.
+     * @throws IOException If the file can't be written.
+     */
+    public static File export(File directory, Tasks tasks) throws IOException
+    {
+        File file = new File(directory, Tasks.TASKS_FILE_NAME);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
+        {
+            tasks.encode(writer);
+        }
+        return file;
+    }
+
+    private Task randomTask(Random random)
+    {
+        return tasks.getTask(tasks.getId(random.nextInt(tasks.getCount())));
+    }
+
+    private int pick(Random random)
+    {
+        int total = 0;
+        for (int weight : operationWeights)
+            total += weight;
+        int r = random.nextInt(total);
+        for (int i = 0; i < operationWeights.length; i++)
+        {
+            r -= operationWeights[i];
+            if (r < 0) return i;
+        }
+        return PICK;
+    }
+}
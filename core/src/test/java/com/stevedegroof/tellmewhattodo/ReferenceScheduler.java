@@ -0,0 +1,130 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A frozen copy of the scheduling rules: when a task comes due, and which tasks are ready.
+ * <p>
+ * This is the plain version of {@link Recurrence#getDueTime(Task, long)},
+ * {@link Task#isAvailable(Tasks, long)} and {@link Tasks#getAvailableTasks(long)}, written for
+ * clarity rather than speed (a new {@link Calendar} for every due time, no caching, no scratch
+ * lists), and it never changes the tasks. {@link SchedulerFuzzer} checks the real code against it,
+ * so that making the real code faster can't quietly change when tasks come due.
+ * </p>
+ * <p>
+ * Don't change this class to match the real code. If the rules themselves change on purpose,
+ * change both, in the same commit.
+ * </p>
+ */
+public class ReferenceScheduler
+{
+    /**
+     * Calculates when a task next comes due, in the default time zone.
+     *
+     * @param task The task.
+     * @param now  The current time in milliseconds, used if the task has never run.
+     * @return The due time in milliseconds.
+     */
+    public static long getDueTime(Task task, long now)
+    {
+        Calendar due = Calendar.getInstance();
+        due.setTimeInMillis(task.getLastRun() > 0 ? task.getLastRun() : now); //start from the last run, if there is one
+        int minute = (task.getMinute() == Task.ANY_TIME) ? 0 : task.getMinute() % 60;
+        int hour = (task.getMinute() == Task.ANY_TIME) ? 0 : task.getMinute() / 60;
+        int dayOfMonth = task.getDayOfMonth();
+        switch (task.getRepeatType())
+        {
+            case Task.REPEAT_TYPE_HOURLY:
+                due.add(Calendar.HOUR, task.getRepeatInterval());
+                int dueMinute = due.get(Calendar.HOUR_OF_DAY) * 60 + due.get(Calendar.MINUTE);
+                if (dueMinute > task.getMaxMinute()) //after the window, so the start of the next day's
+                {
+                    due.add(Calendar.DAY_OF_MONTH, 1);
+                    due.set(Calendar.HOUR_OF_DAY, task.getMinMinute() / 60);
+                    due.set(Calendar.MINUTE, task.getMinMinute() % 60);
+                } else if (dueMinute < task.getMinMinute()) //before the window, so the start of it
+                {
+                    due.set(Calendar.HOUR_OF_DAY, task.getMinMinute() / 60);
+                    due.set(Calendar.MINUTE, task.getMinMinute() % 60);
+                }
+                break;
+            case Task.REPEAT_TYPE_DAILY:
+                due.add(Calendar.DAY_OF_MONTH, task.getRepeatInterval());
+                due.set(Calendar.HOUR_OF_DAY, hour);
+                due.set(Calendar.MINUTE, minute);
+                break;
+            case Task.REPEAT_TYPE_WEEKLY:
+                due.add(Calendar.WEEK_OF_YEAR, task.getRepeatInterval());
+                if (task.getDayOfWeek() != Task.ANY_DAY_OF_WEEK)
+                    due.set(Calendar.DAY_OF_WEEK, task.getDayOfWeek());
+                due.set(Calendar.HOUR_OF_DAY, hour);
+                due.set(Calendar.MINUTE, minute);
+                break;
+            case Task.REPEAT_TYPE_MONTHLY:
+                due.set(Calendar.DAY_OF_MONTH, 1);
+                due.add(Calendar.MONTH, task.getRepeatInterval());
+                if (dayOfMonth == Task.LAST_DAY_OF_MONTH)
+                    dayOfMonth = due.getActualMaximum(Calendar.DAY_OF_MONTH);
+                due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+                due.set(Calendar.HOUR_OF_DAY, hour);
+                due.set(Calendar.MINUTE, minute);
+                break;
+            case Task.REPEAT_TYPE_YEARLY:
+                due.add(Calendar.YEAR, task.getRepeatInterval());
+                due.set(Calendar.MONTH, task.getMonth() - 1);
+                if (dayOfMonth == Task.LAST_DAY_OF_MONTH)
+                    dayOfMonth = due.getActualMaximum(Calendar.DAY_OF_MONTH);
+                due.set(Calendar.DAY_OF_MONTH, dayOfMonth);
+                due.set(Calendar.HOUR_OF_DAY, hour);
+                due.set(Calendar.MINUTE, minute);
+                break;
+            default:
+                break;
+        }
+        return due.getTimeInMillis();
+    }
+
+    /**
+     * Checks whether a task is ready: it isn't done (or it repeats and is due), and every one of
+     * its dependencies that still exists is met. Missing dependencies are ignored, not removed.
+     *
+     * @param tasks The tasks, to look up the dependencies in.
+     * @param task  The task.
+     * @param now   The current time in milliseconds.
+     * @return {@code true} if the task is ready.
+     */
+    public static boolean isAvailable(Tasks tasks, Task task, long now)
+    {
+        boolean available = !task.isDone();
+        if (task.getRepeatType() != Task.REPEAT_TYPE_NONE)
+            available = getDueTime(task, now) <= now;
+        for (UUID id : task.getDependencyIds())
+        {
+            Task dependency = tasks.getTask(id);
+            if (dependency == null) continue;
+            if (dependency.getRepeatType() == Task.REPEAT_TYPE_NONE)
+                available = available && dependency.isDone();
+            else if (dependency.getLastRun() < task.getLastRun())
+                available = false;
+        }
+        return available;
+    }
+
+    /**
+     * @return The tasks that are ready, in the order they were added.
+     */
+    public static List<Task> getAvailableTasks(Tasks tasks, long now)
+    {
+        List<Task> available = new ArrayList<>();
+        for (int i = 0; i < tasks.getCount(); i++)
+        {
+            Task task = tasks.getTask(tasks.getId(i));
+            if (isAvailable(tasks, task, now))
+                available.add(task);
+        }
+        return available;
+    }
+}
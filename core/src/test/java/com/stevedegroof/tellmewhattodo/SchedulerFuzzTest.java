@@ -0,0 +1,29 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the scheduling code against {@link ReferenceScheduler} with {@link SchedulerFuzzer}.
+ * <p>
+ * By default a fixed seed is used, so the build always checks the same cases (over 800,000
+ * due times and ready sets). A different seed, or more rounds, can be checked with
+ * {@code gradle :core:test -Pfuzz.seed=... -Pfuzz.rounds=...}.
+ * </p>
+ */
+public class SchedulerFuzzTest
+{
+    private static final long SEED = Long.getLong("fuzz.seed", 1);
+    private static final int ROUNDS = Integer.getInteger("fuzz.rounds", 2000);
+    private static final int TASKS_PER_ROUND = 500;
+
+    @Test
+    public void schedulerMatchesReference()
+    {
+        SchedulerFuzzer fuzzer = new SchedulerFuzzer(SEED);
+        String report = fuzzer.run(ROUNDS, TASKS_PER_ROUND);
+        System.out.print(report);
+        assertTrue(report, fuzzer.passed());
+    }
+}
@@ -0,0 +1,265 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Checks the scheduling code against {@link ReferenceScheduler} on random tasks, so a change
+ * made for speed can't quietly change when tasks come due or which are ready.
+ * <p>
+ * Each round picks a time zone (including ones with half-hour offsets, and daylight saving time
+ * changes at odd hours), generates tasks with random schedules (every repeat type, any or last
+ * day of the month, hourly windows, any month) and random last run times, links some of them
+ * with dependencies (some of them missing), and picks a random time to check them at. Then it
+ * compares, against the reference, before and after changing, removing and adding some tasks:
+ * <ul>
+ *     <li>each task's due time from {@link Recurrence#getDueTime(Task, long)},</li>
+ *     <li>the ready tasks from {@link Tasks#getAvailableTasks(long)}, and</li>
+ *     <li>that {@link Tasks#getNextTask(long)} picks one of them (or none, if none are ready).</li>
+ * </ul>
+ * Everything is generated from the seed, so a failure can be repeated.
+ * </p>
+ * <p>
+ * It's run by {@link SchedulerFuzzTest}. While it runs, it changes the default time zone of the
+ * whole JVM, which is put back when it finishes.
+ * </p>
+ */
+public class SchedulerFuzzer
+{
+    private static final String[] TIME_ZONES = {
+            "UTC", "America/New_York", "America/Los_Angeles", "America/St_Johns", "America/Sao_Paulo",
+            "Europe/London", "Europe/Berlin", "Asia/Kolkata", "Asia/Kathmandu", "Australia/Adelaide",
+            "Australia/Lord_Howe", "Pacific/Chatham", "Pacific/Apia", "Pacific/Kiritimati"
+    };
+    private static final int MAX_REPORTED = 10; //mismatches described in the report
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private final long seed;
+    private long cases = 0;
+    private long mismatches = 0;
+    private final StringBuilder details = new StringBuilder();
+
+    public SchedulerFuzzer(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the check.
+     *
+     * @param rounds        The number of rounds, each with its own time zone and tasks.
+     * @param tasksPerRound The number of tasks generated in each round.
+     * @return A report of the number of cases checked and any mismatches found.
+     */
+    public String run(int rounds, int tasksPerRound)
+    {
+        TimeZone defaultZone = TimeZone.getDefault();
+        Random random = new Random(seed);
+        long start = System.nanoTime();
+        try
+        {
+            for (int round = 0; round < rounds; round++)
+            {
+                TimeZone zone = TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]);
+                TimeZone.setDefault(zone);
+                Recurrence.resetCalendars();
+                runRound(random, zone, tasksPerRound);
+            }
+        } finally
+        {
+            TimeZone.setDefault(defaultZone);
+            Recurrence.resetCalendars();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Seed %d: %d cases in %.0f ms, %d mismatches\n",
+                seed, cases, (System.nanoTime() - start) / 1e6, mismatches));
+        sb.append(details);
+        return sb.toString();
+    }
+
+    /**
+     * @return {@code true} if the last run found no mismatches.
+     */
+    public boolean passed()
+    {
+        return mismatches == 0;
+    }
+
+    private void runRound(Random random, TimeZone zone, int count)
+    {
+        long now = randomTime(random, zone);
+        Tasks tasks = new Tasks();
+        List<Task> generated = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            Task task = randomTask(random, zone, now);
+            //depend on up to three earlier tasks, or now and then on a task that doesn't exist
+            int dependencies = random.nextInt(8) < 2 ? 1 + random.nextInt(3) : 0;
+            for (int d = 0; d < dependencies && i > 0; d++)
+                task.addDependency(random.nextInt(20) == 0 ? randomId(random) : generated.get(random.nextInt(i)).getId());
+            generated.add(task);
+            tasks.putTask(task);
+        }
+
+        //due times
+        for (Task task : generated)
+        {
+            if (task.getRepeatType() == Task.REPEAT_TYPE_NONE) continue;
+            cases++;
+            long expected = ReferenceScheduler.getDueTime(task, now);
+            long actual = Recurrence.getDueTime(task, now);
+            if (expected != actual)
+                mismatch(zone, "due time", task, now, format(expected, zone), format(actual, zone));
+        }
+
+        checkReady(zone, tasks, now);
+
+        //change, remove and add some tasks, move the time on, and check again, so due times
+        //kept from before the changes would be caught
+        for (int i = 0; i < count / 10; i++)
+        {
+            Task task = generated.get(random.nextInt(generated.size()));
+            switch (random.nextInt(4))
+            {
+                case 0:
+                    task.setLastRun(now - (long) (random.nextDouble() * 30 * DAY));
+                    break;
+                case 1:
+                    task.setDone(random.nextBoolean());
+                    break;
+                case 2:
+                    task.setRepeatInterval(1 + random.nextInt(12));
+                    task.setMinute(random.nextInt(Task.END_OF_DAY + 1));
+                    break;
+                default:
+                    tasks.removeTask(task.getId());
+                    generated.remove(task);
+                    Task added = randomTask(random, zone, now);
+                    generated.add(added);
+                    tasks.putTask(added);
+                    break;
+            }
+        }
+        checkReady(zone, tasks, now + (long) (random.nextDouble() * 7 * DAY));
+    }
+
+    /**
+     * Checks the ready tasks (in any order) and the next task picked against the reference.
+     */
+    private void checkReady(TimeZone zone, Tasks tasks, long now)
+    {
+        //the reference goes first, since the real check removes missing dependencies
+        List<Task> expectedReady = ReferenceScheduler.getAvailableTasks(tasks, now);
+        List<Task> actualReady = tasks.getAvailableTasks(now);
+        cases++;
+        HashSet<Task> missing = new HashSet<>(expectedReady);
+        missing.removeAll(actualReady);
+        HashSet<Task> extra = new HashSet<>(actualReady);
+        extra.removeAll(expectedReady);
+        if (!missing.isEmpty() || !extra.isEmpty() || expectedReady.size() != actualReady.size())
+        {
+            Task task = !missing.isEmpty() ? missing.iterator().next() : !extra.isEmpty() ? extra.iterator().next() : null;
+            mismatch(zone, "ready tasks", task, now, expectedReady.size() + " ready", actualReady.size() + " ready ("
+                    + missing.size() + " missing, " + extra.size() + " extra)");
+        }
+
+        cases++;
+        Task next = tasks.getNextTask(now);
+        if (next == null ? !expectedReady.isEmpty() : !expectedReady.contains(next))
+            mismatch(zone, "next task", next, now, expectedReady.isEmpty() ? "none" : "one of " + expectedReady.size(),
+                    next == null ? "none" : "a task that isn't ready");
+    }
+
+    private void mismatch(TimeZone zone, String what, Task task, long now, String expected, String actual)
+    {
+        mismatches++;
+        if (mismatches > MAX_REPORTED) return;
+        details.append('\n').append(what).append(" in ").append(zone.getID()).append(" at ").append(format(now, zone)).append('\n');
+        details.append("  expected: ").append(expected).append('\n');
+        details.append("  actual:   ").append(actual).append('\n');
+        if (task != null)
+        {
+            details.append("  last run: ").append(task.getLastRun() > 0 ? format(task.getLastRun(), zone) : "never").append('\n');
+            details.append("  task: ").append(Tasks.GSON.toJson(task)).append('\n');
+        }
+    }
+
+    private static Task randomTask(Random random, TimeZone zone, long now)
+    {
+        Task task = new Task(randomId(random));
+        task.setDescription("Task");
+        int repeatType = random.nextInt(Task.REPEAT_TYPE_YEARLY + 1);
+        task.setRepeatType(repeatType);
+        task.setRepeatInterval(1 + random.nextInt(repeatType == Task.REPEAT_TYPE_HOURLY ? 24 : 12));
+        task.setMinute(random.nextInt(4) == 0 ? Task.ANY_TIME : random.nextInt(Task.END_OF_DAY + 1));
+        task.setDayOfWeek(random.nextInt(8)); //any, or Sunday to Saturday
+        int r = random.nextInt(10);
+        task.setDayOfMonth(r < 2 ? Task.ANY_DAY_OF_MONTH : r < 4 ? Task.LAST_DAY_OF_MONTH : 1 + random.nextInt(31));
+        task.setMonth(random.nextInt(13)); //any, or January to December
+        if (random.nextInt(3) == 0)
+        {
+            task.setMinMinute(Task.START_OF_DAY);
+            task.setMaxMinute(Task.END_OF_DAY);
+        } else
+        {
+            int from = random.nextInt(Task.END_OF_DAY + 1);
+            task.setMinMinute(from);
+            task.setMaxMinute(from + random.nextInt(Task.END_OF_DAY - from + 1));
+        }
+        if (random.nextInt(10) > 0) //never run, now and then
+        {
+            //mostly a little before now, but sometimes long before, or after (as if the clock went back)
+            long lastRun = random.nextInt(4) == 0 ? randomTime(random, zone)
+                    : now - (long) (random.nextDouble() * 400 * DAY) + DAY;
+            task.setLastRun(Math.max(1, lastRun));
+        }
+        if (repeatType == Task.REPEAT_TYPE_NONE)
+            task.setDone(random.nextBoolean());
+        return task;
+    }
+
+    /**
+     * Picks a time between 1995 and 2060: half the time any millisecond, otherwise a whole
+     * minute in the given time zone, often at the end of a month or near midnight, where the
+     * calendar arithmetic is hardest.
+     */
+    private static long randomTime(Random random, TimeZone zone)
+    {
+        long from = 788918400000L; //1995-01-01 UTC
+        long to = 2840140800000L; //2060-01-01 UTC
+        long time = from + (long) (random.nextDouble() * (to - from));
+        if (random.nextBoolean()) return time;
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(time);
+        if (random.nextBoolean())
+            calendar.set(Calendar.DAY_OF_MONTH, 28 + random.nextInt(4)); //lenient, so may be the 1st to 3rd of the next month
+        int r = random.nextInt(4);
+        calendar.set(Calendar.HOUR_OF_DAY, r == 0 ? 0 : r == 1 ? 23 : random.nextInt(24));
+        calendar.set(Calendar.MINUTE, random.nextInt(60));
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static UUID randomId(Random random)
+    {
+        long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    private static String format(long time, TimeZone zone)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
+        format.setTimeZone(zone);
+        return format.format(time);
+    }
+}
@@ -0,0 +1,285 @@
+package com.stevedegroof.tellmewhattodo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates large, realistic sets of tasks for load testing, reproducibly from a seed.
+ * <p>
+ * The number of tasks, the mix of repeat types and priorities, the length of the descriptions,
+ * how many tasks are done, and the shapes of the dependency graphs (chains, fans and diamonds)
+ * can all be chosen. The same settings and seed always generate the same tasks, IDs included,
+ * so a store can be regenerated instead of passed around.
+ * </p>
+ * <p>
+ * The tasks are put into a new {@link Tasks} (not the app's own), whose JSON
+ * ({@link Tasks#getTasksJson()}) is in the same format as the tasks file, so it can be restored
+ * from Settings or loaded by {@link Tasks#load}. Used by {@link LoadTest}.
+ * </p>
+ */
+public class TaskStoreGenerator
+{
+    /**
+     * The shapes of the dependency graphs to generate.
+     */
+    public enum Shape
+    {
+        /**
+         * Each task in a group depends on the one before it.
+         */
+        CHAINS,
+        /**
+         * Every other task in a group depends on the first one.
+         */
+        FANS,
+        /**
+         * Groups of four: two tasks depend on the first, and the last depends on both of them.
+         */
+        DIAMONDS,
+        /**
+         * A random choice of the above for each group.
+         */
+        MIXED
+    }
+
+    private static final String[] WORDS = {
+            "water", "plants", "call", "mom", "pay", "bills", "clean", "kitchen", "take", "out",
+            "trash", "walk", "dog", "buy", "groceries", "check", "email", "back", "up", "phone",
+            "change", "filter", "oil", "car", "book", "dentist", "review", "budget", "read", "chapter",
+            "stretch", "laundry", "vacuum", "living", "room", "renew", "passport", "update", "notes", "plan",
+            "week", "cancel", "subscription", "order", "printer", "ink", "sweep", "garage", "mow", "lawn"
+    };
+    private static final int[] PRIORITIES = {Task.PRIORITY_LOW, Task.PRIORITY_MEDIUM, Task.PRIORITY_HIGH, Task.PRIORITY_URGENT};
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private int count = 1000;
+    private long seed = 1;
+    private int[] repeatTypeWeights = {4, 1, 2, 2, 1, 1}; //by repeat type, REPEAT_TYPE_NONE to REPEAT_TYPE_YEARLY
+    private int[] priorityWeights = {4, 3, 2, 1}; //low, medium, high, urgent
+    private int minWords = 1;
+    private int maxWords = 8;
+    private double doneFraction = 0.3; //of the non-repeating tasks
+    private double dependentFraction = 0.2; //of all tasks, put into dependency groups
+    private int groupSize = 4;
+    private Shape shape = Shape.MIXED;
+
+    public TaskStoreGenerator setCount(int count)
+    {
+        this.count = count;
+        return this;
+    }
+
+    public TaskStoreGenerator setSeed(long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param weights The relative weight of each repeat type, indexed by repeat type
+     *                ({@link Task#REPEAT_TYPE_NONE} to {@link Task#REPEAT_TYPE_YEARLY}).
+     */
+    public TaskStoreGenerator setRepeatTypeWeights(int... weights)
+    {
+        this.repeatTypeWeights = weights;
+        return this;
+    }
+
+    /**
+     * @param weights The relative weight of each priority: low, medium, high and urgent.
+     */
+    public TaskStoreGenerator setPriorityWeights(int... weights)
+    {
+        this.priorityWeights = weights;
+        return this;
+    }
+
+    /**
+     * Sets the range of the number of words in each description.
+     */
+    public TaskStoreGenerator setDescriptionWords(int minWords, int maxWords)
+    {
+        this.minWords = minWords;
+        this.maxWords = maxWords;
+        return this;
+    }
+
+    /**
+     * @param doneFraction The fraction of non-repeating tasks that are done.
+     */
+    public TaskStoreGenerator setDoneFraction(double doneFraction)
+    {
+        this.doneFraction = doneFraction;
+        return this;
+    }
+
+    /**
+     * Sets how dependencies are generated.
+     *
+     * @param dependentFraction The fraction of tasks put into dependency groups.
+     * @param groupSize         The number of tasks in each group (the length of each chain,
+     *                          or the size of each fan); diamonds always have four.
+     * @param shape             The shape of each group.
+     */
+    public TaskStoreGenerator setDependencies(double dependentFraction, int groupSize, Shape shape)
+    {
+        this.dependentFraction = dependentFraction;
+        this.groupSize = Math.max(2, groupSize);
+        this.shape = shape;
+        return this;
+    }
+
+    /**
+     * Generates the tasks.
+     *
+     * @param now The time to generate last run times relative to, so the same tasks (and the
+     *            same ones ready) can be generated again later.
+     * @return A new set of tasks, separate from the app's own.
+     */
+    public Tasks generate(long now)
+    {
+        Random random = new Random(seed);
+        List<Task> generated = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            generated.add(createTask(random, now));
+        int dependent = (int) (count * dependentFraction);
+        for (int start = 0; start + 1 < dependent; )
+        {
+            Shape groupShape = shape == Shape.MIXED ? Shape.values()[random.nextInt(3)] : shape;
+            int size = groupShape == Shape.DIAMONDS ? 4 : groupSize;
+            size = Math.min(size, dependent - start);
+            link(generated.subList(start, start + size), groupShape);
+            start += size;
+        }
+        Tasks tasks = new Tasks();
+        for (Task task : generated)
+            tasks.putTask(task);
+        return tasks;
+    }
+
+    private Task createTask(Random random, long now)
+    {
+        //a version 4 UUID from the seeded random numbers, so the IDs are reproducible too
+        long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        Task task = new Task(new UUID(msb, lsb));
+        StringBuilder description = new StringBuilder();
+        int words = minWords + random.nextInt(Math.max(1, maxWords - minWords + 1));
+        for (int i = 0; i < words; i++)
+        {
+            if (i > 0) description.append(' ');
+            description.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        task.setDescription(description.toString());
+        task.setWeight(PRIORITIES[pick(random, priorityWeights)]);
+        int repeatType = pick(random, repeatTypeWeights);
+        task.setRepeatType(repeatType);
+        if (repeatType == Task.REPEAT_TYPE_NONE)
+        {
+            if (random.nextDouble() < doneFraction)
+            {
+                task.setDone(true);
+                task.setLastRun(now - (long) (random.nextDouble() * 30 * DAY));
+            }
+            return task;
+        }
+        int minute = random.nextBoolean() ? Task.ANY_TIME : random.nextInt(24 * 60);
+        long period;
+        switch (repeatType)
+        {
+            case Task.REPEAT_TYPE_HOURLY:
+                task.setRepeatInterval(1 + random.nextInt(8));
+                if (random.nextBoolean())
+                {
+                    int from = random.nextInt(12 * 60);
+                    task.setMinMinute(from);
+                    task.setMaxMinute(from + 60 + random.nextInt(Task.END_OF_DAY - from - 60));
+                }
+                period = HOUR;
+                break;
+            case Task.REPEAT_TYPE_DAILY:
+                task.setRepeatInterval(1 + random.nextInt(3));
+                task.setMinute(minute);
+                period = DAY;
+                break;
+            case Task.REPEAT_TYPE_WEEKLY:
+                task.setRepeatInterval(1 + random.nextInt(2));
+                task.setMinute(minute);
+                task.setDayOfWeek(random.nextBoolean() ? Task.ANY_DAY_OF_WEEK : 1 + random.nextInt(7));
+                period = 7 * DAY;
+                break;
+            case Task.REPEAT_TYPE_MONTHLY:
+                task.setRepeatInterval(1 + random.nextInt(3));
+                task.setMinute(minute);
+                task.setDayOfMonth(randomDayOfMonth(random));
+                period = 30 * DAY;
+                break;
+            default: //yearly
+                task.setRepeatInterval(1);
+                task.setMinute(minute);
+                task.setDayOfMonth(randomDayOfMonth(random));
+                task.setMonth(random.nextBoolean() ? Task.ANY_MONTH : 1 + random.nextInt(12));
+                period = 365 * DAY;
+                break;
+        }
+        //last run up to two intervals ago, so about half the repeating tasks are due
+        task.setLastRun(now - (long) (random.nextDouble() * 2 * period * task.getRepeatInterval()));
+        return task;
+    }
+
+    private static int randomDayOfMonth(Random random)
+    {
+        int r = random.nextInt(10);
+        if (r < 3) return Task.ANY_DAY_OF_MONTH;
+        if (r < 4) return Task.LAST_DAY_OF_MONTH;
+        return 1 + random.nextInt(28);
+    }
+
+    /**
+     * Adds dependencies between the tasks in a group, in the given shape.
+     */
+    private static void link(List<Task> group, Shape shape)
+    {
+        switch (shape)
+        {
+            case CHAINS:
+                for (int i = 1; i < group.size(); i++)
+                    group.get(i).addDependency(group.get(i - 1).getId());
+                break;
+            case FANS:
+                for (int i = 1; i < group.size(); i++)
+                    group.get(i).addDependency(group.get(0).getId());
+                break;
+            case DIAMONDS:
+            default:
+                for (int i = 1; i < group.size() && i < 3; i++)
+                    group.get(i).addDependency(group.get(0).getId());
+                if (group.size() == 4)
+                {
+                    group.get(3).addDependency(group.get(1).getId());
+                    group.get(3).addDependency(group.get(2).getId());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Picks an index at random, in proportion to the weights.
+     */
+    private static int pick(Random random, int[] weights)
+    {
+        int total = 0;
+        for (int weight : weights)
+            total += weight;
+        int r = random.nextInt(Math.max(1, total));
+        for (int i = 0; i < weights.length; i++)
+        {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,454 @@
+package com.stevedegroof.tellmewhattodo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests choosing, saving and loading tasks, on a plain JVM.
+ */
+public class TasksTest
+{
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Task newTask(String description)
+    {
+        Task task = new Task();
+        task.setDescription(description);
+        return task;
+    }
+
+    @Test
+    public void dependentWaitsUntilDependencyIsDone()
+    {
+        Tasks tasks = new Tasks();
+        Task first = newTask("first");
+        Task second = newTask("second");
+        second.addDependency(first.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+        long now = System.currentTimeMillis();
+
+        List<Task> available = tasks.getAvailableTasks(now);
+        assertEquals(1, available.size());
+        assertEquals(first.getId(), available.get(0).getId());
+        assertFalse(second.isAvailable(tasks, now));
+        assertFalse(tasks.isAvailable(second, now));
+
+        first.setDone(true);
+        available = tasks.getAvailableTasks(now);
+        assertEquals(1, available.size());
+        assertEquals(second.getId(), available.get(0).getId());
+        assertTrue(tasks.isAvailable(second, now));
+    }
+
+    @Test
+    public void removingDependencyFreesDependent()
+    {
+        Tasks tasks = new Tasks();
+        Task first = newTask("first");
+        Task second = newTask("second");
+        second.addDependency(first.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+
+        tasks.removeTask(first.getId());
+        assertTrue(second.isAvailable(tasks, System.currentTimeMillis()));
+        assertEquals(second, tasks.getNextTask(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void replacedTasksKeepTheirDependencies()
+    {
+        Tasks tasks = new Tasks();
+        Task first = newTask("first");
+        Task second = newTask("second");
+        Task third = newTask("third");
+        second.addDependency(first.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+        tasks.putTask(third);
+        long now = System.currentTimeMillis();
+        assertEquals(2, tasks.getAvailableTasks(now).size());
+
+        //put back a new object for the dependency, already done
+        Task doneFirst = new Task(first.getId());
+        doneFirst.setDescription("first");
+        doneFirst.setDone(true);
+        tasks.putTask(doneFirst);
+        List<Task> available = tasks.getAvailableTasks(now);
+        assertEquals(2, available.size());
+        assertTrue(available.contains(second));
+
+        //and a new object for the dependent, now depending on the third task instead
+        Task newSecond = new Task(second.getId());
+        newSecond.setDescription("second");
+        newSecond.addDependency(third.getId());
+        tasks.putTask(newSecond);
+        available = tasks.getAvailableTasks(now);
+        assertEquals(1, available.size());
+        assertEquals(third, available.get(0));
+    }
+
+    @Test
+    public void dependencyGraphFindsDependentsAndKeepsItsShape()
+    {
+        Tasks tasks = new Tasks();
+        Task first = newTask("first");
+        Task second = newTask("second");
+        Task third = newTask("third");
+        Task other = newTask("other");
+        second.addDependency(first.getId());
+        third.addDependency(second.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+        tasks.putTask(third);
+        tasks.putTask(other);
+
+        TaskTable.DependencyGraph graph = tasks.getDependencyGraph();
+        BitSet found = graph.findDependents(first.getRow());
+        assertEquals(3, found.cardinality());
+        assertTrue(found.get(second.getRow()) && found.get(third.getRow()));
+        assertFalse(found.get(other.getRow()));
+        assertEquals(1, graph.findDependents(third.getRow()).cardinality());
+        assertEquals(0, graph.findDependents(-1).cardinality());
+
+        //later changes don't affect a graph already taken
+        int thirdRow = third.getRow();
+        third.removeDependency(second.getId());
+        tasks.removeTask(other.getId());
+        assertEquals(3, graph.findDependents(first.getRow()).cardinality());
+        assertEquals(other, graph.getTask(3));
+        assertEquals(2, tasks.getDependencyGraph().findDependents(first.getRow()).cardinality());
+        assertFalse(tasks.getDependencyGraph().findDependents(first.getRow()).get(thirdRow));
+    }
+
+    @Test
+    public void sortedIndexKeepsUpWithChangesMadeWhileItsBuilt()
+    {
+        Tasks tasks = new Tasks();
+        Task first = newTask("b first");
+        Task second = newTask("a second");
+        second.addDependency(first.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+        List<Runnable> builds = new ArrayList<>();
+        SortedTaskIndex index = new SortedTaskIndex(tasks, SortedTaskIndex.Order.ALPHABETICAL, builds::add, Runnable::run);
+        assertFalse(index.isReady());
+
+        Task third = newTask("c third");
+        tasks.putTask(third);
+        index.put(third);
+        first.setDone(true); //which the index isn't told about
+        boolean[] ready = {false};
+        index.whenReady(() -> ready[0] = true);
+        builds.remove(0).run();
+        assertTrue(index.isReady() && ready[0]);
+        assertEquals(Arrays.asList(second.getId(), third.getId()), index.getIds(TaskStatus.READY));
+        assertEquals(Collections.singletonList(first.getId()), index.getIds(TaskStatus.DONE));
+
+        //the task that depends on a changed task is moved along with it
+        first.setDone(false);
+        index.revalidate();
+        assertEquals(Arrays.asList(first.getId(), third.getId()), index.getIds(TaskStatus.READY));
+        assertEquals(Collections.singletonList(second.getId()), index.getIds(TaskStatus.WAITING));
+        assertEquals(0, index.getCount(TaskStatus.DONE));
+    }
+
+    @Test
+    public void sortedIndexMatchesAFullSort()
+    {
+        Tasks tasks = new Tasks();
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++)
+        {
+            Task task = newTask("task " + i);
+            task.setWeight(random.nextInt(10));
+            tasks.putTask(task);
+        }
+        SortedTaskIndex index = tasks.getSortedIndex(SortedTaskIndex.Order.PRIORITY);
+        for (Task task : tasks.getTasks())
+        {
+            if (random.nextInt(4) == 0)
+                tasks.removeTask(task.getId());
+            else if (random.nextInt(3) == 0)
+                task.setWeight(random.nextInt(10));
+        }
+        index.revalidate();
+        for (int i = 0; i < 100; i++)
+            tasks.putTask(newTask("added " + i));
+
+        List<Task> expected = new ArrayList<>(tasks.getTasks());
+        expected.sort(Comparator.comparingInt(Task::getWeight).reversed().thenComparing(Task::getId));
+        List<UUID> ids = new ArrayList<>();
+        for (Task task : expected)
+            ids.add(task.getId());
+        assertEquals(ids, index.getIds(TaskStatus.READY));
+        List<Task> page = index.getSection(TaskStatus.READY).getTasks(500, 10);
+        assertEquals(expected.subList(500, 510), page);
+    }
+
+    @Test
+    public void selectionOnlyCoversTheTasksShown()
+    {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        TaskSelection selection = new TaskSelection();
+        selection.setScope(Arrays.asList(first, second, third));
+        selection.setSelected(first, true);
+        selection.setScope(Arrays.asList(second, third)); //a narrower search
+        assertTrue(selection.isEmpty());
+
+        selection.selectAll();
+        assertEquals(2, selection.getCount());
+        selection.setSelected(second, false);
+        assertEquals(Collections.singleton(third), selection.getSelectedIds());
+        selection.invert();
+        assertEquals(Collections.singleton(second), selection.getSelectedIds());
+
+        selection.selectAll();
+        selection.setScope(Arrays.asList(first, third)); //what was selected and is still shown stays selected
+        assertEquals(Collections.singleton(third), selection.getSelectedIds());
+        assertFalse(selection.isSelected(first));
+    }
+
+    @Test
+    public void repeatingTaskComesDueAfterItsInterval()
+    {
+        Tasks tasks = new Tasks();
+        Task task = newTask("hourly");
+        task.setRepeatType(Task.REPEAT_TYPE_HOURLY);
+        task.setRepeatInterval(1);
+        long now = System.currentTimeMillis();
+        task.setLastRun(now);
+        tasks.putTask(task);
+
+        assertNull(tasks.getNextTask(now));
+        assertEquals(now + HOUR, tasks.getNextDueTime(now), 60 * 1000L);
+        assertEquals(task, tasks.getNextTask(now + 2 * HOUR));
+    }
+
+    @Test
+    public void occurrencesFollowNextDue()
+    {
+        long now = System.currentTimeMillis();
+        long year = 366 * 24 * HOUR;
+        int[][] schedules = {
+                {Task.REPEAT_TYPE_HOURLY, 5, Task.ANY_DAY_OF_MONTH},
+                {Task.REPEAT_TYPE_DAILY, 1, Task.ANY_DAY_OF_MONTH},
+                {Task.REPEAT_TYPE_MONTHLY, 1, Task.LAST_DAY_OF_MONTH},
+                {Task.REPEAT_TYPE_YEARLY, 1, 29}};
+        for (int[] schedule : schedules)
+        {
+            Task task = newTask("repeating");
+            task.setRepeatType(schedule[0]);
+            task.setRepeatInterval(schedule[1]);
+            task.setDayOfMonth(schedule[2]);
+            if (schedule[0] != Task.REPEAT_TYPE_HOURLY)
+                task.setMinute(9 * 60 + 30);
+            if (schedule[0] == Task.REPEAT_TYPE_YEARLY)
+                task.setMonth(2);
+            RecurrenceRule rule = task.getRecurrenceRule();
+
+            long[] times = rule.occurrences(now, now + 4 * year);
+            long due = now;
+            for (long time : times)
+            {
+                due = rule.nextDue(due);
+                assertEquals(due, time);
+            }
+            long next = rule.nextDue(due);
+            assertTrue(next >= now + 4 * year || next <= due); //past the range, or not moving on
+            assertEquals(Math.min(3, times.length), rule.occurrences(now, now + 4 * year, 3).length);
+            assertEquals(0, rule.occurrences(now, now).length);
+        }
+
+        RecurrenceRule hourly = newTask("hourly").getRecurrenceRule();
+        assertEquals(0, hourly.occurrences(now, now + year).length); //it doesn't repeat yet
+        Task task = newTask("hourly");
+        task.setRepeatType(Task.REPEAT_TYPE_HOURLY);
+        task.setRepeatInterval(1);
+        assertEquals(RecurrenceRule.MAX_OCCURRENCES, task.getRecurrenceRule().occurrences(now, Long.MAX_VALUE).length);
+        assertEquals(24, task.getRecurrenceRule().occurrences(now, now + 24 * HOUR + 1, Integer.MAX_VALUE).length);
+        try
+        {
+            task.getRecurrenceRule().occurrences(now, now - 1);
+            fail("A range that ends before it starts should be rejected");
+        } catch (IllegalArgumentException e)
+        {
+        }
+        try
+        {
+            task.getRecurrenceRule().occurrences(now, now + HOUR, -1);
+            fail("A negative count should be rejected");
+        } catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    @Test
+    public void comingDueTasksAreTheImportantWaitingOnes()
+    {
+        Tasks tasks = new Tasks();
+        long now = System.currentTimeMillis();
+        Task urgent = newTask("urgent");
+        Task low = newTask("low");
+        Task blocked = newTask("blocked");
+        Task blocker = newTask("blocker");
+        for (Task task : new Task[]{urgent, low, blocked})
+        {
+            task.setRepeatType(Task.REPEAT_TYPE_HOURLY);
+            task.setRepeatInterval(1);
+            task.setLastRun(now);
+            task.setWeight(Task.PRIORITY_URGENT);
+        }
+        low.setWeight(Task.PRIORITY_LOW);
+        blocked.addDependency(blocker.getId());
+        tasks.putTask(urgent);
+        tasks.putTask(low);
+        tasks.putTask(blocked);
+        tasks.putTask(blocker);
+
+        List<Task> comingDue = new ArrayList<>();
+        tasks.getTable().collectComingDue(tasks, now, Task.PRIORITY_HIGH, comingDue);
+        assertEquals(Collections.singletonList(urgent), comingDue);
+        assertEquals(now + HOUR, tasks.getDueTime(urgent, now));
+
+        blocker.setDone(true);
+        comingDue.clear();
+        tasks.getTable().collectComingDue(tasks, now, Task.PRIORITY_HIGH, comingDue);
+        assertEquals(2, comingDue.size());
+        assertTrue(comingDue.contains(blocked));
+    }
+
+    @Test
+    public void savedTasksLoadAgain() throws Exception
+    {
+        File directory = folder.getRoot();
+        Tasks tasks = new Tasks();
+        tasks.load(directory); //nothing saved yet
+        assertEquals(0, tasks.getCount());
+        Task first = newTask("first");
+        Task second = newTask("second");
+        second.addDependency(first.getId());
+        tasks.putTask(first);
+        tasks.putTask(second);
+        tasks.setCurrentTaskId(first.getId());
+        tasks.save();
+
+        Tasks loaded = new Tasks();
+        loaded.load(directory);
+        assertEquals(2, loaded.getCount());
+        assertEquals("second", loaded.getTask(second.getId()).getDescription());
+        assertTrue(loaded.getTask(second.getId()).hasDependency(first.getId()));
+        assertEquals(first.getId(), loaded.getCurrentTaskId());
+        assertEquals(first.getId(), loaded.getNextTask(System.currentTimeMillis()).getId());
+    }
+
+    @Test
+    public void snapshotIsOnlyTrustedWhenItMatchesTheTasksFile() throws Exception
+    {
+        File directory = folder.getRoot();
+        Tasks tasks = new Tasks();
+        tasks.load(directory);
+        Task first = newTask("first");
+        Task second = newTask("second");
+        tasks.putTask(first);
+        tasks.putTask(second);
+        tasks.setCurrentTaskId(second.getId());
+        tasks.save();
+
+        TaskSnapshot snapshot = TaskSnapshot.open(directory);
+        assertEquals(2, snapshot.getCount());
+        assertEquals("second", snapshot.getDescription(snapshot.getCurrentIndex()));
+        assertFalse(snapshot.isDone(snapshot.getCurrentIndex()));
+
+        //only the changed task is rewritten, in place
+        second.setDone(true);
+        tasks.save();
+        snapshot = TaskSnapshot.open(directory);
+        assertTrue(snapshot.isDone(snapshot.getCurrentIndex()));
+        assertFalse(snapshot.isDone(1 - snapshot.getCurrentIndex()));
+
+        //enough new tasks that the file has to grow
+        for (int i = 0; i < 100; i++)
+            tasks.putTask(newTask("task " + i));
+        tasks.save();
+        snapshot = TaskSnapshot.open(directory);
+        assertEquals(102, snapshot.getCount());
+        assertEquals("second", snapshot.getDescription(snapshot.getCurrentIndex()));
+
+        //a tasks file saved without the snapshot
+        Tasks other = new Tasks();
+        other.load(directory);
+        String json = other.getTasksJson().replaceFirst("-?[0-9]+", "1");
+        Files.write(new File(directory, Tasks.TASKS_FILE_NAME).toPath(), json.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, Tasks.readStamp(new File(directory, Tasks.TASKS_FILE_NAME)));
+        assertNull(TaskSnapshot.open(directory));
+    }
+
+    @Test
+    public void tasksCantBeSavedBeforeTheyreLoaded() throws Exception
+    {
+        Tasks tasks = new Tasks();
+        tasks.putTask(newTask("first"));
+        try
+        {
+            tasks.save();
+            fail("The save should have failed");
+        } catch (IOException e)
+        {
+        }
+        assertFalse(new File(Tasks.TASKS_FILE_NAME).exists());
+    }
+
+    @Test
+    public void failedSaveLeavesTheTasksFileAsItWas() throws Exception
+    {
+        File directory = folder.getRoot();
+        Tasks tasks = new Tasks();
+        tasks.load(directory);
+        tasks.putTask(newTask("first"));
+        tasks.save();
+        int[] saves = {0};
+        tasks.addSavedListener(() -> saves[0]++);
+
+        tasks.putTask(newTask("second"));
+        assertTrue(new File(directory, "tasks.json.tmp").mkdir()); //so the temporary file can't be written
+        try
+        {
+            tasks.save();
+            fail("The save should have failed");
+        } catch (IOException e)
+        {
+        }
+        assertEquals(0, saves[0]);
+        Tasks loaded = new Tasks();
+        loaded.load(directory);
+        assertEquals(1, loaded.getCount());
+        assertEquals("first", loaded.getTasks().get(0).getDescription());
+    }
+}